@@ -78,6 +78,9 @@
     <xsl:if test="//NUMBER != ''">
       <relatedItems>
         <relatedItem relatedItemType="Collection" relationType="IsPartOf">
+          <xsl:if test="//ANCHOR-DOI">
+            <relatedItemIdentifier relatedItemIdentifierType="DOI"><xsl:value-of select="//ANCHOR-DOI"/></relatedItemIdentifier>
+          </xsl:if>
           <titles>
             <title><xsl:value-of select="//ANCHORTITLE"/></title>
             <xsl:if test="//ANCHORSUBTITLE">
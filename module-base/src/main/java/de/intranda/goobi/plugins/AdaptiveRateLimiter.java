@@ -0,0 +1,179 @@
+package de.intranda.goobi.plugins;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide rate limiter for the requests to a DataCite account. The rate is adjusted by additive increase and multiplicative decrease: each fast
+ * and successful response raises it a bit, each 429 or 503 response halves it and slow responses lower it a bit. This way the rate settles at the
+ * highest rate the service accepts.
+ *
+ * The permits are given to the waiting clients (usually processes) in turns, so that a process with few elements is not starved by a process with
+ * hundreds of elements.
+ */
+@Log4j2
+public class AdaptiveRateLimiter {
+
+    private static final String DEFAULT_CLIENT = "default";
+
+    private static final Map<String, AdaptiveRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<String> CURRENT_CLIENT = new ThreadLocal<>();
+
+    private double rate;
+    private double minRate;
+    private double maxRate;
+    private long targetLatency;
+
+    // time at which the next permit can be given
+    private long nextPermit = System.nanoTime();
+    private long lastDecrease;
+
+    // clients with waiting requests in the order of their turns
+    private final Deque<String> turns = new ArrayDeque<>();
+    private final Map<String, Integer> waiting = new HashMap<>();
+
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, long targetLatency) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * get the shared limiter of the service address and account of the configuration, or null if rate limiting is disabled. Without a
+     * <code>rateLimit</code> block the requests are not limited.
+     *
+     * @param config
+     * @return
+     */
+    public static AdaptiveRateLimiter forConfig(SubnodeConfiguration config) {
+        if (!config.getBoolean("rateLimit/@enabled", false)) {
+            return null;
+        }
+        double minRate = config.getDouble("rateLimit/minRate", 0.5);
+        double maxRate = config.getDouble("rateLimit/maxRate", 50);
+        long targetLatency = config.getLong("rateLimit/targetLatency", 2000);
+        String key = config.getString("serviceAddress") + "|" + config.getString("username");
+        AdaptiveRateLimiter limiter = LIMITERS.computeIfAbsent(key,
+                k -> new AdaptiveRateLimiter(config.getDouble("rateLimit/initialRate", 10), minRate, maxRate, targetLatency));
+        limiter.setLimits(minRate, maxRate, targetLatency);
+        return limiter;
+    }
+
+    /**
+     * remove all limiters
+     */
+    public static void resetAll() {
+        LIMITERS.clear();
+    }
+
+    /**
+     * define the client (e.g. the process) the requests of the current thread belong to
+     *
+     * @param client
+     */
+    public static void setClient(String client) {
+        CURRENT_CLIENT.set(client);
+    }
+
+    /**
+     * remove the client of the current thread
+     */
+    public static void clearClient() {
+        CURRENT_CLIENT.remove();
+    }
+
+    /**
+     * wait until the client of the current thread may send the next request
+     *
+     * @throws InterruptedIOException
+     */
+    public void acquire() throws InterruptedIOException {
+        String client = CURRENT_CLIENT.get();
+        acquire(client != null ? client : DEFAULT_CLIENT);
+    }
+
+    /**
+     * wait until the given client may send the next request
+     *
+     * @param client
+     * @throws InterruptedIOException
+     */
+    public synchronized void acquire(String client) throws InterruptedIOException {
+        if (waiting.merge(client, 1, Integer::sum) == 1) {
+            turns.addLast(client);
+        }
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (client.equals(turns.peekFirst()) && now - nextPermit >= 0) {
+                    nextPermit = Math.max(now, nextPermit) + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                    // next turn for the next client, this one has to queue up again if it has more waiting requests
+                    turns.removeFirst();
+                    if (waiting.merge(client, -1, Integer::sum) == 0) {
+                        waiting.remove(client);
+                    } else {
+                        turns.addLast(client);
+                    }
+                    notifyAll();
+                    return;
+                }
+                long waitNanos = Math.max(nextPermit - now, 0);
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } catch (InterruptedException e) {
+            // give up the place in the queue
+            if (waiting.merge(client, -1, Integer::sum) == 0) {
+                waiting.remove(client);
+                turns.remove(client);
+            }
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request permit");
+        }
+    }
+
+    /**
+     * adjust the rate to the response of the service
+     *
+     * @param statusCode status code of the response, or 0 if the request failed without response
+     * @param latency time in milliseconds the service needed to answer
+     */
+    public synchronized void onResponse(int statusCode, long latency) {
+        long now = System.nanoTime();
+        if (statusCode == 429 || statusCode == 503) {
+            // decrease only once per round trip, a burst of throttled requests belongs to the same overload
+            if (now - lastDecrease > TimeUnit.MILLISECONDS.toNanos(Math.max(latency, 1000))) {
+                rate = Math.max(minRate, rate / 2);
+                lastDecrease = now;
+                log.debug("Service is throttling, reducing rate to " + rate + " requests per second");
+            }
+        } else if (statusCode == 0 || latency > targetLatency) {
+            rate = Math.max(minRate, rate * 0.9);
+        } else {
+            // about one additional request per second for each second of successful requests
+            rate = Math.min(maxRate, rate + 1 / rate);
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private synchronized void setLimits(double minRate, double maxRate, long targetLatency) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.targetLatency = targetLatency;
+        rate = Math.max(minRate, Math.min(maxRate, rate));
+    }
+}
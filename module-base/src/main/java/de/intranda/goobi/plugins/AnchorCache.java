@@ -0,0 +1,109 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide cache of the anchors of periodical volumes, keyed by the catalogue identifier of the anchor. Each entry holds the content fields of the
+ * anchor, which are the same for all volumes, and the DOI of the anchor together with its registration state, so that the DOI of the anchor is
+ * registered only once and then only referenced by the volumes.
+ *
+ * If the anchor fields of a volume differ from the cached ones, the anchor was changed and the entry is replaced, so that the changed anchor is
+ * registered once by the next volume. If the cache is full, the anchor that was used least recently is removed.
+ */
+@Log4j2
+public class AnchorCache {
+
+    // in access order, the first entry was used least recently
+    private static final Map<String, Anchor> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    private AnchorCache() {
+    }
+
+    /**
+     * get the cached anchor with the given fields, a changed or unknown anchor gets a new entry
+     *
+     * @param key catalogue identifier of the anchor, together with the service address and the prefix of its DOI
+     * @param fields content fields of the anchor as read from the METS file of a volume
+     * @param maxSize maximum number of anchors in the cache
+     * @return
+     */
+    public static Anchor get(String key, List<ContentField> fields, int maxSize) {
+        synchronized (CACHE) {
+            Anchor cached = CACHE.get(key);
+            if (cached != null && cached.fields.equals(fields)) {
+                return cached;
+            }
+            if (cached != null) {
+                log.debug("The anchor " + key + " was changed, its DOI gets updated");
+            }
+            Anchor anchor = new Anchor(Collections.unmodifiableList(new ArrayList<>(fields)));
+            CACHE.put(key, anchor);
+            Iterator<Anchor> iterator = CACHE.values().iterator();
+            while (CACHE.size() > Math.max(1, maxSize)) {
+                iterator.next();
+                iterator.remove();
+            }
+            return anchor;
+        }
+    }
+
+    /**
+     * get the number of cached anchors
+     *
+     * @return
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * remove all cached anchors
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * an anchor of the cache. The volumes that register its DOI must hold the lock of this object, so that the DOI is registered only once.
+     */
+    public static class Anchor {
+        @Getter
+        private final List<ContentField> fields;
+        // DOI of the anchor, null until it was registered or updated with the current fields
+        private String registeredDoi;
+
+        private Anchor(List<ContentField> fields) {
+            this.fields = fields;
+        }
+
+        /**
+         * get the DOI of the anchor if it was registered or updated with the current fields
+         *
+         * @return the DOI or null if it was not registered yet
+         */
+        public synchronized String getRegisteredDoi() {
+            return registeredDoi;
+        }
+
+        /**
+         * remember that the DOI of the anchor was registered or updated with the current fields
+         *
+         * @param doi
+         */
+        public synchronized void setRegistered(String doi) {
+            this.registeredDoi = doi;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide circuit breaker for a DataCite service address. After a number of failed requests in a row the circuit opens and all requests of all
+ * running steps fail immediately. After some time a single trial request is allowed, if it is successful the circuit closes again.
+ */
+@Log4j2
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private int failureThreshold;
+    private long openTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialRunning;
+
+    public CircuitBreaker(String endpoint, int failureThreshold, long openTime) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * get the shared circuit breaker of the configured service address
+     *
+     * @param config
+     * @return
+     */
+    public static CircuitBreaker forConfig(SubnodeConfiguration config) {
+        int threshold = config.getInt("circuitBreaker/failureThreshold", 5);
+        long openTime = config.getLong("circuitBreaker/openSeconds", 30) * 1000;
+        CircuitBreaker breaker = BREAKERS.computeIfAbsent(config.getString("serviceAddress"), e -> new CircuitBreaker(e, threshold, openTime));
+        synchronized (breaker) {
+            breaker.failureThreshold = threshold;
+            breaker.openTime = openTime;
+        }
+        return breaker;
+    }
+
+    /**
+     * reset all circuit breakers
+     */
+    public static void resetAll() {
+        BREAKERS.clear();
+    }
+
+    /**
+     * check if a request may be sent now. If the circuit is open no request is allowed, if the open time is over a single trial request is allowed.
+     *
+     * @return
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openTime) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialRunning = true;
+                log.info("Sending trial request to " + endpoint);
+                return true;
+            case HALF_OPEN:
+            default:
+                // only one trial request at the same time
+                if (trialRunning) {
+                    return false;
+                }
+                trialRunning = true;
+                return true;
+        }
+    }
+
+    /**
+     * the service answered as expected
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Service " + endpoint + " is available again");
+        }
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+    }
+
+    /**
+     * the service could not be reached or answered with an error that indicates a problem of the service
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        trialRunning = false;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("Service " + endpoint + " is not available, failing fast for " + openTime / 1000 + " seconds");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * the request ended without a result that says something about the availability of the service, e.g. the service asked to slow down. A
+     * running trial request is finished, the next request is the next trial.
+     */
+    public synchronized void releaseTrial() {
+        trialRunning = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * time in milliseconds until the next trial request is allowed
+     *
+     * @return
+     */
+    public synchronized long getRemainingOpenTime() {
+        return state == State.OPEN ? Math.max(0, openTime - (System.currentTimeMillis() - openedAt)) : 0;
+    }
+}
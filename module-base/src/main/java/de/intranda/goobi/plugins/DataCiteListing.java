@@ -0,0 +1,185 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Listing of all DOIs of the configured prefix in the DataCite REST API. The listing is read page by page with the cursor of the API, each page is
+ * parsed as stream and only the DOI, its state and its url are kept. The listing is always read from the REST API, for the MDS its address is
+ * derived from the service address (<code>mds.datacite.org</code> becomes <code>api.datacite.org</code>).
+ */
+public class DataCiteListing {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final SubnodeConfiguration config;
+
+    public DataCiteListing(SubnodeConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * get the url of the first page of the listing. Only the needed fields are requested and the facets are switched off, as they are expensive
+     * for DataCite.
+     *
+     * @return
+     */
+    public String getFirstPage() {
+        return getServiceAddress(config) + "dois?prefix=" + encode(config.getString("base")) + "&" + encode("fields[dois]") + "=doi,state,url"
+                + "&disable-facets=true&" + encode("page[size]") + "=" + config.getInt("reconciliation/pageSize", 1000) + "&"
+                + encode("page[cursor]") + "=1";
+    }
+
+    /**
+     * get the address of the REST API the listing is read from
+     *
+     * @param config
+     * @return
+     */
+    static String getServiceAddress(SubnodeConfiguration config) {
+        String address = config.getString("reconciliation/serviceAddress");
+        if (StringUtils.isNotBlank(address)) {
+            return address;
+        }
+        address = config.getString("serviceAddress");
+        if ("rest".equalsIgnoreCase(config.getString("api", "mds"))) {
+            return address;
+        }
+        return address.replace("://mds.", "://api.");
+    }
+
+    /**
+     * read a page of the listing and pass its DOIs to the consumer
+     *
+     * @param url url of the page
+     * @param consumer
+     * @return the url of the next page or null if this was the last page
+     * @throws IOException
+     */
+    public String readPage(String url, Consumer<Entry> consumer) throws IOException {
+        // a page is complete before its DOIs are passed on, as a repeated request reads it again
+        List<Entry> entries = new ArrayList<>();
+        String[] next = new String[1];
+        HttpResult hr = HelperHttp.getJsonStreamBasicAuth(url, "dois", config, in -> {
+            entries.clear();
+            next[0] = parsePage(in, entries::add);
+        });
+        if (hr.getStatusCode() != 200) {
+            throw new IOException("The listing of the DOIs could not be read from " + url + ": " + hr.getStatusCode() + " " + hr.getBody());
+        }
+        entries.forEach(consumer);
+        return url.equals(next[0]) ? null : next[0];
+    }
+
+    /**
+     * parse a page of the listing
+     *
+     * @param in
+     * @param consumer
+     * @return the url of the next page or null if there is none
+     * @throws IOException
+     */
+    static String parsePage(InputStream in, Consumer<Entry> consumer) throws IOException {
+        String next = null;
+        try (JsonParser parser = JSON.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The listing of DataCite is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(readEntry(parser));
+                    }
+                } else if ("links".equals(field) && value == JsonToken.START_OBJECT) {
+                    next = readNextLink(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return StringUtils.isBlank(next) ? null : next;
+    }
+
+    private static Entry readEntry(JsonParser parser) throws IOException {
+        String id = null;
+        String doi = null;
+        String state = null;
+        String url = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                id = parser.getValueAsString();
+            } else if ("attributes".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String attribute = parser.currentName();
+                    parser.nextToken();
+                    if ("doi".equals(attribute)) {
+                        doi = parser.getValueAsString();
+                    } else if ("state".equals(attribute)) {
+                        state = parser.getValueAsString();
+                    } else if ("url".equals(attribute)) {
+                        url = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Entry(doi != null ? doi : id, state, url);
+    }
+
+    private static String readNextLink(JsonParser parser) throws IOException {
+        String next = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("next".equals(field)) {
+                next = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return next;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * a DOI of the listing
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String doi;
+        // draft, registered or findable
+        private final String state;
+        private final String url;
+    }
+}
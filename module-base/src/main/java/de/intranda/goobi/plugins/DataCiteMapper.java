@@ -0,0 +1,249 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * Creates the DataCite kernel-4 document of an element directly from its content fields, without building the intermediate goobi document and
+ * running the xsl transformation. The structure of the document is the one of the shipped <code>doi.xsl</code>, the <code>mapping</code> block
+ * of the configuration defines which content field is used for each DataCite property.
+ *
+ * Like <code>xsl:value-of</code> in XSLT 2.0, several values of a single valued property are joined with a space.
+ */
+public class DataCiteMapper {
+
+    public static final Namespace KERNEL_4 = Namespace.getNamespace("http://datacite.org/schema/kernel-4");
+    private static final Namespace XSI = Namespace.getNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+
+    private static final String SUBELEMENT = "SUBELEMENT";
+
+    private final String schemaLocation;
+    private final String identifier;
+    private final String title;
+    private final String subElementTitle;
+    private final String publisher;
+    private final String publicationYear;
+    private final String subject;
+    private final String subjectLanguage;
+    private final String resourceType;
+    private final String subElementResourceType;
+    private final String language;
+    private final String creator;
+    private final String subElementCreator;
+    private final String unknownCreator;
+    private final String size;
+    private final String alternateIdentifier;
+    private final String alternateIdentifierType;
+    private final String hostingInstitution;
+    private final String anchorDoi;
+    private final String anchorTitle;
+    private final String anchorSubtitle;
+    private final String series;
+    private final String number;
+    private final String pageStart;
+    private final String pageEnd;
+
+    /**
+     * read the mapping from the <code>mapping</code> block of the configuration, the defaults are the fields used by the shipped
+     * <code>doi.xsl</code>
+     *
+     * @param config
+     */
+    public DataCiteMapper(HierarchicalConfiguration config) {
+        schemaLocation = config.getString("mapping/schemaLocation",
+                "http://datacite.org/schema/kernel-4 http://schema.datacite.org/meta/kernel-4.2/metadata.xsd");
+        identifier = config.getString("mapping/identifier", "GOOBI-DOI");
+        title = config.getString("mapping/title", "TITLE");
+        subElementTitle = config.getString("mapping/subElementTitle", "METADATA-TitleDocMain");
+        publisher = config.getString("mapping/publisher", "PUBLISHER");
+        publicationYear = config.getString("mapping/publicationYear", "PUBLICATIONYEAR");
+        subject = config.getString("mapping/subject", "SUBJECT");
+        subjectLanguage = config.getString("mapping/subject/@lang", "de-DE");
+        resourceType = config.getString("mapping/resourceType", "GOOBI-DOCTYPE");
+        subElementResourceType = config.getString("mapping/subElementResourceType", "document");
+        language = config.getString("mapping/language", "LANGUAGE");
+        creator = config.getString("mapping/creator", "CREATOR");
+        subElementCreator = config.getString("mapping/subElementCreator", "PERSON-Author");
+        unknownCreator = config.getString("mapping/subElementCreator/@default", "- CREATOR UNKNOWN -");
+        size = config.getString("mapping/size", "FORMAT");
+        alternateIdentifier = config.getString("mapping/alternateIdentifier", "IDENTIFIER");
+        alternateIdentifierType = config.getString("mapping/alternateIdentifier/@type", "Goobi identifier");
+        hostingInstitution = config.getString("mapping/hostingInstitution", "CHANGEME");
+        anchorDoi = config.getString("mapping/anchorDoi", "ANCHOR-DOI");
+        anchorTitle = config.getString("mapping/anchorTitle", "ANCHORTITLE");
+        anchorSubtitle = config.getString("mapping/anchorSubtitle", "ANCHORSUBTITLE");
+        series = config.getString("mapping/series", "SERIES");
+        number = config.getString("mapping/number", "NUMBER");
+        pageStart = config.getString("mapping/pageStart", "SUBELEMENT-PAGE-START");
+        pageEnd = config.getString("mapping/pageEnd", "SUBELEMENT-PAGE-END");
+    }
+
+    /**
+     * check if the DataCite document shall be created by this mapper instead of the xsl transformation
+     *
+     * @param config
+     * @return
+     */
+    public static boolean isEnabled(HierarchicalConfiguration config) {
+        return "native".equalsIgnoreCase(config.getString("mapping/@mode", "xslt"));
+    }
+
+    /**
+     * create the DataCite document of an element
+     *
+     * @param contentFields
+     * @return
+     */
+    public Document createDocument(List<ContentField> contentFields) {
+        Map<String, List<String>> values = new HashMap<>();
+        for (ContentField field : contentFields) {
+            values.computeIfAbsent(field.getName(), k -> new ArrayList<>(1)).add(field.getValue());
+        }
+
+        Element resource = new Element("resource", KERNEL_4);
+        resource.addNamespaceDeclaration(XSI);
+        resource.setAttribute("schemaLocation", schemaLocation, XSI);
+        add(resource, "identifier", value(values, identifier)).setAttribute("identifierType", "DOI");
+
+        if (values.containsKey(SUBELEMENT)) {
+            addSubElementProperties(resource, values);
+        } else {
+            addTopElementProperties(resource, values);
+        }
+        return new Document(resource);
+    }
+
+    private void addTopElementProperties(Element resource, Map<String, List<String>> values) {
+        add(add(resource, "titles", null), "title", value(values, title));
+        add(resource, "publisher", value(values, publisher));
+        add(resource, "publicationYear", value(values, publicationYear));
+
+        if (values.containsKey(subject)) {
+            Element subjects = add(resource, "subjects", null);
+            for (String s : values.get(subject)) {
+                add(subjects, "subject", s).setAttribute("lang", subjectLanguage, Namespace.XML_NAMESPACE);
+            }
+        }
+
+        add(resource, "resourceType", value(values, resourceType)).setAttribute("resourceTypeGeneral", "Text");
+        add(resource, "language", value(values, language));
+
+        Element creators = add(resource, "creators", null);
+        for (String name : all(values, creator)) {
+            addCreator(creators, name);
+        }
+
+        addDate(resource, values);
+        if (values.containsKey(size)) {
+            add(add(resource, "sizes", null), "size", value(values, size));
+        }
+        addAlternateIdentifierAndContributor(resource, values);
+
+        if (hasNumber(values)) {
+            Element relatedItem = add(add(resource, "relatedItems", null), "relatedItem", null);
+            relatedItem.setAttribute("relatedItemType", "Collection");
+            relatedItem.setAttribute("relationType", "IsPartOf");
+            if (values.containsKey(anchorDoi)) {
+                add(relatedItem, "relatedItemIdentifier", value(values, anchorDoi)).setAttribute("relatedItemIdentifierType", "DOI");
+            }
+            Element titles = add(relatedItem, "titles", null);
+            add(titles, "title", value(values, anchorTitle));
+            if (values.containsKey(anchorSubtitle)) {
+                add(titles, "title", value(values, anchorSubtitle)).setAttribute("titleType", "Subtitle");
+            }
+            if (values.containsKey(series)) {
+                add(relatedItem, "volume", value(values, series));
+            }
+            add(relatedItem, "number", value(values, number));
+        }
+    }
+
+    private void addSubElementProperties(Element resource, Map<String, List<String>> values) {
+        add(add(resource, "titles", null), "title", value(values, subElementTitle));
+        add(resource, "publisher", value(values, publisher));
+        add(resource, "publicationYear", value(values, publicationYear));
+        add(resource, "resourceType", subElementResourceType).setAttribute("resourceTypeGeneral", "Text");
+
+        Element creators = add(resource, "creators", null);
+        if (values.containsKey(subElementCreator)) {
+            for (String name : values.get(subElementCreator)) {
+                addCreator(creators, name);
+            }
+        } else {
+            add(add(creators, "creator", null), "creatorName", unknownCreator);
+        }
+
+        addDate(resource, values);
+        addAlternateIdentifierAndContributor(resource, values);
+
+        if (hasNumber(values)) {
+            Element descriptions = add(resource, "descriptions", null);
+            add(descriptions, "description", value(values, anchorTitle)).setAttribute("descriptionType", "SeriesInformation");
+            add(descriptions, "description", value(values, number)).setAttribute("descriptionType", "SeriesInformation");
+        }
+
+        Element relatedItem = add(add(resource, "relatedItems", null), "relatedItem", null);
+        relatedItem.setAttribute("relationType", "IsPublishedIn");
+        relatedItem.setAttribute("relatedItemType", "Journal");
+        add(add(relatedItem, "titles", null), "title", value(values, title));
+        add(relatedItem, "publicationYear", value(values, publicationYear));
+        add(relatedItem, "volume", value(values, number));
+        add(relatedItem, "firstPage", value(values, pageStart));
+        add(relatedItem, "lastPage", value(values, pageEnd));
+    }
+
+    private void addCreator(Element creators, String name) {
+        Element c = add(creators, "creator", null);
+        add(c, "creatorName", name);
+        // the names are expected as 'family name, given name'
+        int index = name.indexOf(", ");
+        add(c, "givenName", index >= 0 ? name.substring(index + 2) : "");
+        add(c, "familyName", index >= 0 ? name.substring(0, index) : "");
+    }
+
+    private void addDate(Element resource, Map<String, List<String>> values) {
+        add(add(resource, "dates", null), "date", value(values, publicationYear)).setAttribute("dateType", "Created");
+    }
+
+    private void addAlternateIdentifierAndContributor(Element resource, Map<String, List<String>> values) {
+        add(add(resource, "alternateIdentifiers", null), "alternateIdentifier", value(values, alternateIdentifier))
+                .setAttribute("alternateIdentifierType", alternateIdentifierType);
+        Element contributor = add(add(resource, "contributors", null), "contributor", null);
+        contributor.setAttribute("contributorType", "HostingInstitution");
+        add(contributor, "contributorName", hostingInstitution);
+    }
+
+    private boolean hasNumber(Map<String, List<String>> values) {
+        for (String n : all(values, number)) {
+            if (!n.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> all(Map<String, List<String>> values, String field) {
+        return values.getOrDefault(field, Collections.emptyList());
+    }
+
+    private static String value(Map<String, List<String>> values, String field) {
+        return String.join(" ", all(values, field));
+    }
+
+    private static Element add(Element parent, String name, String text) {
+        Element e = new Element(name, KERNEL_4);
+        if (text != null && !text.isEmpty()) {
+            e.setText(text);
+        }
+        parent.addContent(e);
+        return e;
+    }
+}
@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+
+import lombok.Getter;
+
+/**
+ * Requests to the DataCite Metadata Store (MDS) to register and update DOIs. The metadata and the url of a DOI are sent with separate requests.
+ */
+public class DataCiteMds implements RegistryClient {
+
+    @Getter
+    private final SubnodeConfiguration config;
+
+    public DataCiteMds(SubnodeConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * send the metadata with a POST for new DOIs and a PUT for existing DOIs
+     */
+    @Override
+    public String sendMetadata(String doi, Document doc, boolean newDoi) throws IOException {
+        if (newDoi) {
+            return errorOrNull(HelperHttp.postXmlBasicAuth(doc, "metadata/" + doi, config));
+        }
+        return errorOrNull(HelperHttp.putXmlBasicAuth(doc, "metadata/" + doi, config));
+    }
+
+    @Override
+    public boolean isPublishedWithMetadata() {
+        return false;
+    }
+
+    @Override
+    public String publish(String doi) throws IOException {
+        String viewer = config.getString("viewer");
+        String text = "doi=" + doi + "\n" + "url=" + viewer + doi;
+        String result = errorOrNull(HelperHttp.putTxtBasicAuth(text, "doi/" + doi, config));
+        if (result == null) {
+            DoiStatusCache.setResolvable(doi, true, config);
+        }
+        return result;
+    }
+
+    /**
+     * a DOI is findable if its url is set
+     */
+    @Override
+    public boolean isResolvable(String doi) throws IOException {
+        return HelperHttp.checkUrlBasicAuth("doi/" + doi, config);
+    }
+
+    private static String errorOrNull(String result) {
+        return StringUtils.isBlank(result) ? null : result;
+    }
+}
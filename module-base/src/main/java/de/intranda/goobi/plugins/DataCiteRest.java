@@ -0,0 +1,146 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.jdom2.Document;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Requests to the DataCite REST API to register and update DOIs. A single <code>PUT dois/{doi}</code> carries the DataCite document, the url
+ * and the <code>publish</code> event, so that a new or updated DOI is findable after one request. The request creates the DOI if it does not
+ * exist yet, therefore it can be repeated safely.
+ */
+@Log4j2
+public class DataCiteRest implements RegistryClient {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON = MAPPER.getFactory();
+
+    @Getter
+    private final SubnodeConfiguration config;
+
+    public DataCiteRest(SubnodeConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * send the metadata, if drafts are not configured the DOI is published with the same request
+     */
+    @Override
+    public String sendMetadata(String doi, Document doc, boolean newDoi) throws IOException {
+        HelperHttp.logDocument(doc, "dois/" + doi);
+        String result = put(doi, doc, !isDraft());
+        if (result == null && !isDraft()) {
+            DoiStatusCache.setResolvable(doi, true, config);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isPublishedWithMetadata() {
+        return !isDraft();
+    }
+
+    @Override
+    public String publish(String doi) throws IOException {
+        String result = put(doi, null, true);
+        if (result == null) {
+            DoiStatusCache.setResolvable(doi, true, config);
+        }
+        return result;
+    }
+
+    /**
+     * a DOI is resolvable if it is in the state <code>findable</code>
+     */
+    @Override
+    public boolean isResolvable(String doi) throws IOException {
+        HttpResult hr = HelperHttp.getJsonBasicAuth("dois/" + doi, config);
+        if (hr.getStatusCode() != 200) {
+            return false;
+        }
+        JsonNode state = MAPPER.readTree(hr.getBody()).path("data").path("attributes").path("state");
+        return "findable".equals(state.asText());
+    }
+
+    /**
+     * create the JSON:API document of a DOI
+     *
+     * @param doi
+     * @param doc DataCite document or null to leave the metadata unchanged
+     * @param publish true to set the url and make the DOI findable
+     * @param viewer
+     * @return
+     * @throws IOException
+     */
+    static byte[] createJson(String doi, Document doc, boolean publish, String viewer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("data");
+            json.writeStringField("id", doi);
+            json.writeStringField("type", "dois");
+            json.writeObjectFieldStart("attributes");
+            json.writeStringField("doi", doi);
+            if (publish) {
+                json.writeStringField("event", "publish");
+                json.writeStringField("url", viewer + doi);
+            }
+            if (doc != null) {
+                // the DataCite document is sent Base64 encoded, with the same serialization as for the MDS
+                ByteArrayOutputStream xml = new ByteArrayOutputStream();
+                XmlDocumentEntity.writeCompact(doc, xml);
+                json.writeBinaryField("xml", xml.toByteArray());
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private String put(String doi, Document doc, boolean publish) throws IOException {
+        HttpResult hr = HelperHttp.putJsonBasicAuth(createJson(doi, doc, publish, config.getString("viewer")), "dois/" + doi, config);
+        if (hr.getStatusCode() == 200 || hr.getStatusCode() == 201) {
+            return null;
+        }
+        return getErrorMessage(hr);
+    }
+
+    /**
+     * get the titles of the errors of a response, or the whole response if it does not contain JSON:API errors
+     *
+     * @param hr
+     * @return
+     */
+    private static String getErrorMessage(HttpResult hr) {
+        try {
+            JsonNode errors = MAPPER.readTree(hr.getBody()).path("errors");
+            StringBuilder message = new StringBuilder();
+            for (JsonNode error : errors) {
+                if (message.length() > 0) {
+                    message.append("; ");
+                }
+                if (error.hasNonNull("source")) {
+                    message.append(error.get("source").asText()).append(": ");
+                }
+                message.append(error.path("title").asText());
+            }
+            if (message.length() > 0) {
+                return message.toString();
+            }
+        } catch (IOException e) {
+            log.debug("Response of DataCite is not a JSON document", e);
+        }
+        return hr.getStatusCode() + " " + hr.getBody();
+    }
+}
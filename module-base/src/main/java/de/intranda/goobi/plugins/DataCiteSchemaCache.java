@@ -0,0 +1,246 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.transform.JDOMSource;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide cache of compiled DataCite schemas for the validation of the DataCite documents before they are sent. Each schema is compiled only
+ * once into a {@link Schema} and compiled again only if the modification time of the file changes. Each validation gets its own cheap
+ * {@link Validator} from the cached {@link Schema}. Without a configured schema the DataCite schema kernel-4 is used that is bundled with the
+ * plugin, its includes are read from the classpath.
+ */
+@Log4j2
+public class DataCiteSchemaCache {
+
+    private static final String BUNDLED_FOLDER = "datacite/kernel-4/";
+
+    public static final String BUNDLED_SCHEMA = BUNDLED_FOLDER + "metadata.xsd";
+
+    private static final Map<String, CachedSchema> CACHE = new ConcurrentHashMap<>();
+
+    private DataCiteSchemaCache() {
+    }
+
+    /**
+     * validate the DataCite document against the given schema
+     *
+     * @param doc
+     * @param schemaPath path of the schema file, or empty for the bundled schema
+     * @param maxErrors the validation stops after this number of errors
+     * @return the errors, empty if the document is valid
+     * @throws SAXException if the schema cannot be compiled
+     */
+    public static List<String> validate(Document doc, String schemaPath, int maxErrors) throws SAXException {
+        Validator validator = getSchema(schemaPath).newValidator();
+        CollectingErrorHandler errors = new CollectingErrorHandler(maxErrors);
+        validator.setErrorHandler(errors);
+        try {
+            validator.validate(new JDOMSource(doc));
+        } catch (SAXException e) {
+            // thrown for a fatal error or if there are too many errors
+            errors.add(e);
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        }
+        return errors.messages;
+    }
+
+    /**
+     * get the compiled schema for the given path, compile it if it is not cached yet or if the file was changed since it was compiled
+     *
+     * @param schemaPath path of the schema file, or empty for the bundled schema
+     * @return
+     * @throws SAXException
+     */
+    public static Schema getSchema(String schemaPath) throws SAXException {
+        String key = StringUtils.defaultString(schemaPath);
+        long lastModified = getLastModified(key);
+        CachedSchema cached = CACHE.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.schema;
+        }
+        try {
+            cached = CACHE.compute(key, (path, current) -> {
+                // another thread may have compiled it in the meantime
+                if (current != null && current.lastModified == lastModified) {
+                    return current;
+                }
+                try {
+                    return new CachedSchema(compile(path), lastModified);
+                } catch (SAXException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SAXException) {
+                throw (SAXException) e.getCause();
+            }
+            throw e;
+        }
+        return cached.schema;
+    }
+
+    /**
+     * remove all compiled schemas from the cache
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    private static Schema compile(String schemaPath) throws SAXException {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        // the official schema includes its parts from local files, nothing is loaded from the network
+        factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+        if (schemaPath.isEmpty()) {
+            URL bundled = DataCiteSchemaCache.class.getClassLoader().getResource(BUNDLED_SCHEMA);
+            if (bundled == null) {
+                throw new SAXException("The bundled schema " + BUNDLED_SCHEMA + " is missing");
+            }
+            log.debug("Compiling bundled DataCite schema " + bundled);
+            factory.setResourceResolver(new ClasspathResolver(bundled));
+            return factory.newSchema(bundled);
+        }
+        log.debug("Compiling DataCite schema " + schemaPath);
+        return factory.newSchema(Paths.get(schemaPath).toFile());
+    }
+
+    private static long getLastModified(String schemaPath) {
+        if (schemaPath.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Files.getLastModifiedTime(Paths.get(schemaPath)).toMillis();
+        } catch (IOException e) {
+            // let the compilation report the missing file
+            return -1;
+        }
+    }
+
+    /**
+     * resolves the includes and imports of the bundled schema from the classpath, relative to the including schema
+     */
+    private static class ClasspathResolver implements LSResourceResolver {
+        private final DOMImplementationLS domImplementation;
+        // URL of the folder of the bundled schema
+        private final String folder;
+
+        private ClasspathResolver(URL bundled) throws SAXException {
+            try {
+                domImplementation = (DOMImplementationLS) DocumentBuilderFactory.newInstance().newDocumentBuilder().getDOMImplementation();
+            } catch (ParserConfigurationException e) {
+                throw new SAXException(e);
+            }
+            String url = bundled.toString();
+            folder = url.substring(0, url.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+            if (systemId == null || baseURI == null || !baseURI.startsWith(folder)) {
+                // not a part of the bundled schema
+                return null;
+            }
+            URI name = URI.create(baseURI.substring(folder.length())).resolve(systemId);
+            if (name.isAbsolute()) {
+                return null;
+            }
+            URL url = DataCiteSchemaCache.class.getClassLoader().getResource(BUNDLED_FOLDER + name);
+            if (url == null) {
+                // the compilation reports the missing part
+                log.error("The part " + name + " of the bundled schema " + BUNDLED_SCHEMA + " is missing");
+                return null;
+            }
+            LSInput input = domImplementation.createLSInput();
+            input.setPublicId(publicId);
+            // the system identifier is the base of the includes of this part
+            input.setSystemId(url.toString());
+            try {
+                input.setByteStream(url.openStream());
+            } catch (IOException e) {
+                log.error("The part " + name + " of the bundled schema " + BUNDLED_SCHEMA + " cannot be read", e);
+                return null;
+            }
+            return input;
+        }
+    }
+
+    private static class CachedSchema {
+        private final Schema schema;
+        private final long lastModified;
+
+        private CachedSchema(Schema schema, long lastModified) {
+            this.schema = schema;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * collects the messages of all errors and stops the validation after the maximum number of errors
+     */
+    private static class CollectingErrorHandler implements ErrorHandler {
+        private final int maxErrors;
+        private final List<String> messages = new ArrayList<>();
+
+        private CollectingErrorHandler(int maxErrors) {
+            this.maxErrors = Math.max(1, maxErrors);
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            log.debug("Warning of the DataCite schema validation: " + exception.getMessage());
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            add(exception);
+            if (messages.size() >= maxErrors) {
+                throw new SAXException("Validation stopped after " + maxErrors + " errors");
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        private void add(SAXException exception) {
+            if (exception instanceof SAXParseException && ((SAXParseException) exception).getLineNumber() > 0) {
+                SAXParseException parseException = (SAXParseException) exception;
+                add("line " + parseException.getLineNumber() + ", column " + parseException.getColumnNumber() + ": " + exception.getMessage());
+            } else if (!messages.contains(exception.getMessage())) {
+                add(exception.getMessage());
+            }
+        }
+
+        private void add(String message) {
+            messages.add(message);
+        }
+    }
+}
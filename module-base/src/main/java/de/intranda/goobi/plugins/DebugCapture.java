@@ -0,0 +1,199 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Captures the xml documents of the elements of a run for debugging. The documents are written in the background into a zip archive per run,
+ * named by the process and the start of the run, with an entry per element and document. Only the configured sample of the elements is
+ * captured. After each run the oldest archives are deleted if there are more archives, they are bigger or older than configured.
+ */
+@Log4j2
+public class DebugCapture {
+
+    public static final String FILE_PREFIX = "doi_debug_";
+
+    // documents that are not written yet, if there are more the new documents are dropped
+    private static final int MAX_PENDING = 1000;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "doi-debug-capture");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path folder;
+    private final Path archive;
+    private final double sampleRate;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    // only used by the thread of the executor
+    private ZipOutputStream zip;
+
+    private DebugCapture(SubnodeConfiguration config, Path folder, Integer processId) {
+        this.folder = folder;
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+        this.archive = folder.resolve(FILE_PREFIX + processId + "_" + timestamp + ".zip");
+        this.sampleRate = config.getDouble("debug/sampleRate", 1.0);
+        this.maxFiles = config.getInt("debug/maxFiles", 100);
+        this.maxBytes = config.getLong("debug/maxSize", 100) * 1024 * 1024;
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(config.getLong("debug/maxAge", 7));
+    }
+
+    /**
+     * start the capture of a run if the debug mode is switched on
+     *
+     * @param config
+     * @param processId
+     * @return the capture or null if the debug mode is switched off
+     */
+    public static DebugCapture open(SubnodeConfiguration config, Integer processId) {
+        if (!config.getBoolean("debugMode", false)) {
+            return null;
+        }
+        String folder = config.getString("debug/folder");
+        if (StringUtils.isBlank(folder)) {
+            folder = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "doi_debug").toString();
+        }
+        return new DebugCapture(config, Paths.get(folder), processId);
+    }
+
+    /**
+     * decide if an element gets captured, according to the sample rate
+     *
+     * @return
+     */
+    public boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * add a document of an element to the archive, it is serialized and written in the background
+     *
+     * @param element identifier of the element
+     * @param name name of the document, e.g. <code>doi_in.xml</code>
+     * @param doc the document, it must not be changed afterwards
+     */
+    public void add(String element, String name, Document doc) {
+        if (EXECUTOR.getQueue().size() >= MAX_PENDING) {
+            dropped.incrementAndGet();
+            return;
+        }
+        String entryName = element.replaceAll("[^\\w.-]", "_") + "/" + name;
+        EXECUTOR.execute(() -> write(entryName, doc));
+    }
+
+    private void write(String entryName, Document doc) {
+        try {
+            if (zip == null) {
+                Files.createDirectories(folder);
+                zip = new ZipOutputStream(Files.newOutputStream(getTemporaryFile()));
+            }
+            zip.putNextEntry(new ZipEntry(entryName));
+            // the outputter must not close the archive
+            try (OutputStream out = CloseShieldOutputStream.wrap(zip)) {
+                new XMLOutputter(Format.getPrettyFormat()).output(doc, out);
+            }
+            zip.closeEntry();
+        } catch (IOException e) {
+            log.warn("Could not write the debug document " + entryName + " into " + archive, e);
+        }
+    }
+
+    /**
+     * finish the archive of the run in the background and apply the retention to all archives of the folder
+     *
+     * @return the archive, or null if nothing was captured
+     */
+    public Future<Path> close() {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        EXECUTOR.execute(() -> result.complete(finish()));
+        return result;
+    }
+
+    private Path finish() {
+        if (dropped.get() > 0) {
+            log.info(dropped.get() + " debug documents were dropped because too many were waiting to be written");
+        }
+        if (zip == null) {
+            return null;
+        }
+        try {
+            zip.close();
+            zip = null;
+            Files.move(getTemporaryFile(), archive, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not finish the debug archive " + archive, e);
+            return null;
+        }
+        applyRetention();
+        return archive;
+    }
+
+    private Path getTemporaryFile() {
+        return archive.resolveSibling(archive.getFileName() + ".tmp");
+    }
+
+    /**
+     * delete the oldest archives, so that the remaining ones are within the limits of number, size and age
+     */
+    private void applyRetention() {
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, FILE_PREFIX + "*.zip")) {
+            stream.forEach(archives::add);
+            archives.sort(Comparator.comparing(DebugCapture::getLastModified).reversed());
+            long now = System.currentTimeMillis();
+            long bytes = 0;
+            for (int i = 0; i < archives.size(); i++) {
+                Path file = archives.get(i);
+                bytes += Files.size(file);
+                if (i >= maxFiles || bytes > maxBytes || now - getLastModified(file).toMillis() > maxAgeMillis) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up the debug archives in " + folder, e);
+        }
+    }
+
+    private static FileTime getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
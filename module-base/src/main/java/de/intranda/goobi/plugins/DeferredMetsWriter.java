@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import de.sub.goobi.helper.exceptions.SwapException;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.exceptions.UGHException;
+
+/**
+ * Collects the changes of the METS file during a run and writes the file only at checkpoints and at the end of the run instead of after each
+ * single DOI. Changes to the document must be done while holding the lock of this object, see {@link #change(MetsChange)}.
+ */
+@Log4j2
+public class DeferredMetsWriter {
+
+    private final MetsWriteAction writeAction;
+    private final int checkpointInterval;
+
+    // number of changes that are not written yet
+    @Getter
+    private int pendingChanges;
+    // number of times the METS file was written
+    @Getter
+    private int writeCount;
+
+    /**
+     * @param writeAction action that writes the METS file
+     * @param checkpointInterval number of changes after which the file gets written, 0 to write it only at the end of the run
+     */
+    public DeferredMetsWriter(MetsWriteAction writeAction, int checkpointInterval) {
+        this.writeAction = writeAction;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * apply a change to the METS document and write the file if the checkpoint interval is reached
+     *
+     * @param change
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    public synchronized void change(MetsChange change) throws IOException, UGHException, SwapException {
+        change.apply();
+        pendingChanges++;
+        if (checkpointInterval > 0 && pendingChanges >= checkpointInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * write the METS file if there are changes that are not written yet
+     *
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    public synchronized void flush() throws IOException, UGHException, SwapException {
+        if (pendingChanges == 0) {
+            return;
+        }
+        log.debug("Writing METS file with " + pendingChanges + " new DOIs");
+        writeAction.write();
+        writeCount++;
+        pendingChanges = 0;
+    }
+
+    @FunctionalInterface
+    public interface MetsWriteAction {
+        void write() throws IOException, UGHException, SwapException;
+    }
+
+    @FunctionalInterface
+    public interface MetsChange {
+        void apply() throws UGHException;
+    }
+}
@@ -0,0 +1,204 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Registration of the DOIs of many processes in one job. The METS files of several processes are read at the same time and the elements of all
+ * processes are registered through one shared pipeline. The number of processes that are handled at the same time is limited by
+ * <code>batch/processes</code>, the number of requests by the <code>parallel</code> block of the configuration.
+ */
+@Log4j2
+public class DoiBatchRegistration {
+
+    // step states of the processes of a batch that are registered together. These steps are executed later and take over their result, a step in
+    // error state is only registered again when it is executed again.
+    private static final List<StepStatus> PENDING_STATES = Arrays.asList(StepStatus.OPEN, StepStatus.INWORK);
+
+    private static final long RESULT_LIFETIME = TimeUnit.HOURS.toMillis(1);
+
+    // batches that are registered at the moment, the steps of the other processes of the batch wait for them
+    private static final Map<Integer, CompletableFuture<Void>> RUNNING_BATCHES = new ConcurrentHashMap<>();
+    // results of the processes that were registered together with another process of their batch
+    private static final Map<Integer, Result> RESULTS = new ConcurrentHashMap<>();
+
+    private DoiBatchRegistration() {
+    }
+
+    /**
+     * register the DOIs of all processes of the batch the step belongs to. The first step of the batch registers all processes that reached this
+     * step, the steps of the other processes only take over their result when they are executed.
+     *
+     * @param step
+     * @param pluginTitle
+     * @return true if the DOIs of the process of the step were registered successfully
+     */
+    public static boolean registerBatchOf(Step step, String pluginTitle) {
+        Integer processId = step.getProcessId();
+        Integer batchId = step.getProzess().getBatch().getBatchId();
+        Boolean result = takeResult(processId);
+        if (result != null) {
+            log.debug("DOIs of process " + processId + " were already registered with batch " + batchId);
+            return result;
+        }
+
+        CompletableFuture<Void> job = new CompletableFuture<>();
+        CompletableFuture<Void> running = RUNNING_BATCHES.putIfAbsent(batchId, job);
+        if (running == null) {
+            try {
+                List<Step> steps = new ArrayList<>();
+                steps.add(step);
+                for (Process process : ProcessManager.getProcesses("prozesse.ProzesseID", "prozesse.batchID = " + batchId, 0, Integer.MAX_VALUE,
+                        null)) {
+                    Step other = findStep(process, step.getTitel());
+                    if (!process.getId().equals(processId) && other != null && PENDING_STATES.contains(other.getBearbeitungsstatusEnum())) {
+                        steps.add(other);
+                    }
+                }
+                log.info("Registering the DOIs of " + steps.size() + " processes of batch " + batchId);
+                register(steps, pluginTitle).forEach(DoiBatchRegistration::storeResult);
+            } finally {
+                RUNNING_BATCHES.remove(batchId);
+                job.complete(null);
+            }
+        } else {
+            running.join();
+        }
+
+        result = takeResult(processId);
+        if (result == null) {
+            // the process reached the step after the registration of its batch was started
+            result = new DoiRegistration(step.getProzess(), StepConfigurationCache.get(pluginTitle, step)).register(null);
+        }
+        return result;
+    }
+
+    /**
+     * register the DOIs of the processes of the steps
+     *
+     * @param steps
+     * @param pluginTitle
+     * @return the result of each process
+     */
+    static Map<Integer, Boolean> register(List<Step> steps, String pluginTitle) {
+        if (steps.isEmpty()) {
+            return new ConcurrentHashMap<>();
+        }
+        SubnodeConfiguration config = StepConfigurationCache.get(pluginTitle, steps.get(0)).getConfig();
+        return register(steps, config, step -> new DoiRegistration(step.getProzess(), StepConfigurationCache.get(pluginTitle, step)));
+    }
+
+    /**
+     * register the DOIs of the processes of the steps with the given registrations
+     *
+     * @param steps
+     * @param config configuration of the batch, it defines the number of processes and requests at the same time
+     * @param registrations creates the registration of the process of a step
+     * @return the result of each process
+     */
+    static Map<Integer, Boolean> register(List<Step> steps, SubnodeConfiguration config, Function<Step, DoiRegistration> registrations) {
+        Map<Integer, Boolean> results = new ConcurrentHashMap<>();
+        if (steps.isEmpty()) {
+            return results;
+        }
+        ExecutorService processPool =
+                Executors.newFixedThreadPool(Math.max(1, config.getInt("batch/processes", 4)), RegistrationPipeline.namedThreads("doi-batch"));
+        try (RegistrationPipeline<DoiElement, DoiElement> pipeline = new RegistrationPipeline<>(config)) {
+            List<Future<?>> futures = new ArrayList<>(steps.size());
+            for (Step step : steps) {
+                futures.add(processPool.submit(() -> results.put(step.getProcessId(), registerProcess(step, registrations, pipeline))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Registration of the DOIs of the batch was interrupted");
+        } catch (ExecutionException e) {
+            log.error("Error while registering the DOIs of the batch", e.getCause());
+        } finally {
+            processPool.shutdownNow();
+        }
+
+        // processes that were not finished count as failed
+        for (Step step : steps) {
+            results.putIfAbsent(step.getProcessId(), false);
+        }
+        log.info("Registered the DOIs of " + steps.size() + " processes, " + results.values().stream().filter(r -> !r).count() + " failed");
+        return results;
+    }
+
+    private static boolean registerProcess(Step step, Function<Step, DoiRegistration> registrations,
+            RegistrationPipeline<DoiElement, DoiElement> pipeline) {
+        try {
+            return registrations.apply(step).register(pipeline);
+        } catch (RuntimeException e) {
+            log.error("Error while registering the DOIs of process " + step.getProcessId(), e);
+            Helper.addMessageToProcessJournal(step.getProcessId(), LogType.ERROR,
+                    "An error happend during the registration of DOIs: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * get the step with the given title of a process
+     *
+     * @param process
+     * @param stepTitle
+     * @return the step or null if the process has no step with this title
+     */
+    static Step findStep(Process process, String stepTitle) {
+        for (Step step : process.getSchritte()) {
+            if (stepTitle.equals(step.getTitel())) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    static void storeResult(Integer processId, Boolean successful) {
+        RESULTS.put(processId, new Result(successful));
+    }
+
+    /**
+     * get and remove the result of a process that was registered with its batch
+     *
+     * @param processId
+     * @return the result or null if the process was not registered with its batch
+     */
+    static Boolean takeResult(Integer processId) {
+        long now = System.currentTimeMillis();
+        RESULTS.values().removeIf(r -> now - r.timestamp > RESULT_LIFETIME);
+        Result result = RESULTS.remove(processId);
+        return result != null ? result.successful : null;
+    }
+
+    private static class Result {
+        private final boolean successful;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Result(boolean successful) {
+            this.successful = successful;
+        }
+    }
+}
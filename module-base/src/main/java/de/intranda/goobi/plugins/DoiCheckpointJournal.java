@@ -0,0 +1,222 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Journal of the phases the elements of a process have reached during a registration run. If a run stops in the middle, e.g. because of an error
+ * or because Goobi was stopped, the next run continues each element with the first phase that is missing. Each reached phase is appended as a
+ * line:
+ *
+ * <pre>
+ * &lt;phase&gt; &lt;doi&gt; &lt;fingerprint&gt;
+ * </pre>
+ *
+ * The DOI is Base64 encoded. At the end of a run the journal is deleted if the run was successful, otherwise it is compacted to the last phase of
+ * each element. An incomplete last line of an interrupted write is ignored.
+ */
+@Log4j2
+public class DoiCheckpointJournal implements AutoCloseable {
+
+    public static final String FILENAME = "doi_checkpoints.journal";
+
+    public enum Phase {
+        // the DataCite document was created
+        BUILT,
+        // the metadata was sent to DataCite
+        POSTED,
+        // the url of the DOI is set, the DOI is findable
+        URL_SET,
+        // the DOI is saved in the METS file
+        METS_WRITTEN
+    }
+
+    private final Path file;
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+    // DOIs that are added to the document but not yet written into the METS file
+    private final List<String> awaitingMets = new ArrayList<>();
+    private FileChannel channel;
+
+    /**
+     * load the journal from the given file, if the file does not exist the journal is empty
+     *
+     * @param file
+     * @throws IOException
+     */
+    public DoiCheckpointJournal(Path file) throws IOException {
+        this.file = file;
+        if (Files.isRegularFile(file)) {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            int end = content.lastIndexOf('\n');
+            if (end < content.length() - 1) {
+                log.warn("Ignoring incomplete last line of " + file);
+            }
+            if (end > 0) {
+                for (String line : content.substring(0, end).split("\n")) {
+                    replay(line.split(" ", -1));
+                }
+            }
+        }
+    }
+
+    private void replay(String[] parts) {
+        try {
+            Phase phase = Phase.valueOf(parts[0]);
+            checkpoints.put(decode(parts[1]), new Checkpoint(phase, parts[2]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            log.warn("Unknown line in DOI checkpoint journal " + file + ": " + parts[0]);
+        }
+    }
+
+    /**
+     * get the phase a DOI has reached with the given payload
+     *
+     * @param doi
+     * @param fingerprint fingerprint of the current payload, if the phase was reached with another payload the DOI starts from the beginning
+     * @return the reached phase or null if the DOI has to start from the beginning
+     */
+    public synchronized Phase getPhase(String doi, String fingerprint) {
+        Checkpoint checkpoint = checkpoints.get(doi);
+        if (checkpoint == null || !checkpoint.fingerprint.equals(fingerprint)) {
+            return null;
+        }
+        return checkpoint.phase;
+    }
+
+    /**
+     * check if a DOI was completely registered and saved by an earlier run with the given payload
+     *
+     * @param doi
+     * @param fingerprint fingerprint of the current payload, a DOI that was registered with another payload is not finished
+     * @return
+     */
+    public boolean isFinished(String doi, String fingerprint) {
+        return hasReached(doi, fingerprint, Phase.METS_WRITTEN);
+    }
+
+    /**
+     * check if the DOI has reached the given phase with the given payload
+     *
+     * @param doi
+     * @param fingerprint
+     * @param phase
+     * @return
+     */
+    public boolean hasReached(String doi, String fingerprint, Phase phase) {
+        Phase reached = getPhase(doi, fingerprint);
+        return reached != null && reached.compareTo(phase) >= 0;
+    }
+
+    /**
+     * record that a DOI has reached a phase
+     *
+     * @param doi
+     * @param phase
+     * @param fingerprint
+     * @throws IOException
+     */
+    public synchronized void record(String doi, Phase phase, String fingerprint) throws IOException {
+        append(phase + " " + encode(doi) + " " + fingerprint);
+        checkpoints.put(doi, new Checkpoint(phase, fingerprint));
+    }
+
+    /**
+     * remember a DOI that was added to the document, it reaches the last phase when the METS file gets written
+     *
+     * @param doi
+     */
+    public synchronized void awaitMets(String doi) {
+        awaitingMets.add(doi);
+    }
+
+    /**
+     * record that the METS file was written with all DOIs that were added to the document since the last write
+     *
+     * @throws IOException
+     */
+    public synchronized void metsWritten() throws IOException {
+        for (String doi : awaitingMets) {
+            Checkpoint checkpoint = checkpoints.get(doi);
+            record(doi, Phase.METS_WRITTEN, checkpoint != null ? checkpoint.fingerprint : "-");
+        }
+        awaitingMets.clear();
+    }
+
+    /**
+     * finish the run. After a successful run the journal is not needed anymore and gets deleted, otherwise it is compacted to one line per
+     * element. The file is replaced atomically, so that it is never left half written.
+     *
+     * @param successful
+     * @throws IOException
+     */
+    public synchronized void complete(boolean successful) throws IOException {
+        close();
+        if (successful) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        if (!Files.exists(file)) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+            Checkpoint checkpoint = entry.getValue();
+            content.append(checkpoint.phase).append(' ').append(encode(entry.getKey())).append(' ').append(checkpoint.fingerprint).append('\n');
+        }
+        Files.write(temp, content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Compacted DOI checkpoint journal " + file + " to " + checkpoints.size() + " elements");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void append(String line) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        // the line is handed over to the operating system, it survives if the jvm gets killed. Unlike the outbox it is not forced to disk,
+        // a lost line only means that the phase is done again.
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String encode(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String text) {
+        return new String(Base64.getDecoder().decode(text), StandardCharsets.UTF_8);
+    }
+
+    private static class Checkpoint {
+        private final Phase phase;
+        private final String fingerprint;
+
+        private Checkpoint(Phase phase, String fingerprint) {
+            this.phase = phase;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
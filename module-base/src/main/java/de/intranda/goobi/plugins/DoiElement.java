@@ -0,0 +1,40 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+import org.jdom2.Document;
+
+import lombok.Data;
+import ugh.dl.DocStruct;
+
+/**
+ * A structure element that gets a DOI, together with the DataCite payload that was prepared for it
+ */
+@Data
+public class DoiElement {
+    /** position of the anchor of a volume */
+    public static final int ANCHOR_POSITION = -1;
+
+    // structure element and its identifier that is used for the DOI name
+    private final DocStruct struct;
+    private final String id;
+    private final boolean subElement;
+    // position in the flat list of sub elements of the top element (0 for the top element, -1 for its anchor) and page range of a sub element
+    private int position;
+    private String pageStart;
+    private String pageEnd;
+
+    // prepared DOI and DataCite document
+    private String doi;
+    private boolean hadDoi;
+    private Document datacite;
+    // errors of the schema validation of the DataCite document, an element with errors is not registered
+    private List<String> validationErrors;
+    // the DOI was completely registered by an earlier run that did not finish
+    private boolean finished;
+
+    @Override
+    public String toString() {
+        return doi != null ? doi : id;
+    }
+}
@@ -0,0 +1,114 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jdom2.Document;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * File based store of the fingerprints of the DataCite payloads that were sent for the DOIs of a process. It allows to skip the update of a DOI
+ * if its payload did not change since the last successful registration.
+ */
+@Log4j2
+public class DoiFingerprintStore {
+
+    public static final String FILENAME = "doi_fingerprints.properties";
+
+    private final Path file;
+    private final Properties fingerprints = new Properties();
+    private boolean changed;
+
+    /**
+     * load the fingerprints from the given file, if the file does not exist the store is empty
+     *
+     * @param file
+     * @throws IOException
+     */
+    public DoiFingerprintStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                fingerprints.load(in);
+            }
+        }
+    }
+
+    /**
+     * create the fingerprint of a payload. The document is serialized without any formatting and hashed together with the additional values (e.g.
+     * the target url).
+     *
+     * @param doc
+     * @param additionalValues
+     * @return
+     */
+    public static String createFingerprint(Document doc, String... additionalValues) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (OutputStream out = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+            // the same serialization as the one that is sent to DataCite
+            XmlDocumentEntity.writeCompact(doc, out);
+            for (String value : additionalValues) {
+                out.write('\n');
+                out.write(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // cannot happen when writing into a digest
+            throw new UncheckedIOException(e);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * check if the given fingerprint is the one that was stored for the DOI
+     *
+     * @param doi
+     * @param fingerprint
+     * @return
+     */
+    public synchronized boolean isUnchanged(String doi, String fingerprint) {
+        return fingerprint.equals(fingerprints.getProperty(doi));
+    }
+
+    /**
+     * remember the fingerprint of a payload that was sent successfully
+     *
+     * @param doi
+     * @param fingerprint
+     */
+    public synchronized void put(String doi, String fingerprint) {
+        if (!fingerprint.equals(fingerprints.setProperty(doi, fingerprint))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * write the fingerprints into the file if they were changed. The file is replaced atomically, so that it is never left half written.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            fingerprints.store(out, "fingerprints of the DataCite payloads of the registered DOIs");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+        log.debug("Saved " + fingerprints.size() + " DOI fingerprints in " + file);
+    }
+}
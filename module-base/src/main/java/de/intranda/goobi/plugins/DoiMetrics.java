@@ -0,0 +1,382 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide timers of the phases of the DOI registration. Each timer belongs to a phase, a project, a structure type and for http requests to an
+ * endpoint. The project and structure type are taken from the context of the current thread, see {@link #setContext(String, String)}. The timers
+ * are available as MBeans in the domain <code>de.intranda.goobi.plugins</code> and can be written into a file in the Prometheus text format.
+ */
+@Log4j2
+public class DoiMetrics {
+
+    public static final String JMX_DOMAIN = "de.intranda.goobi.plugins";
+
+    public enum Phase {
+        METS_READ,
+        FIELD_LIST,
+        XML_BUILD,
+        XSLT,
+        VALIDATION,
+        RATE_LIMIT_WAIT,
+        HTTP,
+        // the count of this timer is the number of retries, its time is the time slept between the attempts
+        HTTP_RETRY,
+        METS_WRITE;
+
+        public String getLabel() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<String[]> CONTEXT = new ThreadLocal<>();
+
+    private static volatile boolean enabled = true;
+    private static volatile boolean jmx = true;
+    private static volatile Path prometheusFile;
+
+    private DoiMetrics() {
+    }
+
+    /**
+     * apply the <code>metrics</code> block of the configuration
+     *
+     * @param config
+     */
+    public static void configure(SubnodeConfiguration config) {
+        enabled = config.getBoolean("metrics/@enabled", true);
+        jmx = config.getBoolean("metrics/@jmx", true);
+        String file = config.getString("metrics/prometheusFile");
+        prometheusFile = StringUtils.isBlank(file) ? null : Paths.get(file);
+    }
+
+    /**
+     * define the project and structure type the measurements of the current thread belong to
+     *
+     * @param project
+     * @param structureType
+     */
+    public static void setContext(String project, String structureType) {
+        CONTEXT.set(new String[] { StringUtils.defaultString(project), StringUtils.defaultString(structureType) });
+    }
+
+    /**
+     * remove the context of the current thread
+     */
+    public static void clearContext() {
+        CONTEXT.remove();
+    }
+
+    /**
+     * record the time of a phase in the context of the current thread
+     *
+     * @param phase
+     * @param nanos
+     */
+    public static void record(Phase phase, long nanos) {
+        record(phase, "", nanos);
+    }
+
+    /**
+     * record the time of a phase that belongs to an http endpoint in the context of the current thread
+     *
+     * @param phase
+     * @param endpoint e.g. <code>PUT doi</code>
+     * @param nanos
+     */
+    public static void record(Phase phase, String endpoint, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        String[] context = CONTEXT.get();
+        String project = context != null ? context[0] : "";
+        String structureType = context != null ? context[1] : "";
+        String key = phase + "|" + project + "|" + structureType + "|" + endpoint;
+        TIMERS.computeIfAbsent(key, k -> createTimer(phase, project, structureType, endpoint)).record(nanos);
+    }
+
+    private static Timer createTimer(Phase phase, String project, String structureType, String endpoint) {
+        Timer timer = new Timer(phase, project, structureType, endpoint);
+        if (jmx) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                try {
+                    server.registerMBean(timer, timer.getObjectName());
+                } catch (InstanceAlreadyExistsException e) {
+                    // left over from an earlier instance of the plugin
+                    server.unregisterMBean(timer.getObjectName());
+                    server.registerMBean(timer, timer.getObjectName());
+                }
+            } catch (JMException e) {
+                log.warn("Could not register the DOI metrics in JMX", e);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * get all timers, ordered by their name
+     *
+     * @return
+     */
+    public static List<Timer> getTimers() {
+        List<Timer> timers = new ArrayList<>(TIMERS.values());
+        timers.sort(Comparator.comparing(Timer::toString));
+        return timers;
+    }
+
+    /**
+     * remove all timers and their MBeans
+     */
+    public static void resetAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Timer timer : TIMERS.values()) {
+            try {
+                if (server.isRegistered(timer.getObjectName())) {
+                    server.unregisterMBean(timer.getObjectName());
+                }
+            } catch (JMException e) {
+                log.debug("Could not unregister the MBean of timer " + timer, e);
+            }
+        }
+        TIMERS.clear();
+    }
+
+    /**
+     * write all timers in the Prometheus text format
+     *
+     * @param out
+     * @throws IOException
+     */
+    public static void writePrometheus(Writer out) throws IOException {
+        List<Timer> timers = getTimers();
+        out.write("# HELP goobi_doi_phase_seconds Time spent in the phases of the DOI registration\n");
+        out.write("# TYPE goobi_doi_phase_seconds summary\n");
+        for (Timer timer : timers) {
+            out.write("goobi_doi_phase_seconds_count" + timer.getLabels() + " " + timer.getCount() + "\n");
+            out.write("goobi_doi_phase_seconds_sum" + timer.getLabels() + " " + toSeconds(timer.totalNanos.sum()) + "\n");
+        }
+        out.write("# HELP goobi_doi_phase_seconds_max Longest single measurement of the phases of the DOI registration\n");
+        out.write("# TYPE goobi_doi_phase_seconds_max gauge\n");
+        for (Timer timer : timers) {
+            out.write("goobi_doi_phase_seconds_max" + timer.getLabels() + " " + toSeconds(timer.maxNanos.get()) + "\n");
+        }
+    }
+
+    /**
+     * write all timers into the configured Prometheus file, if there is one. The file is replaced atomically, so that a collector never reads a
+     * half written file.
+     */
+    public static void writePrometheusFile() {
+        Path file = prometheusFile;
+        if (file == null || !enabled) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writePrometheus(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write the DOI metrics into " + file, e);
+        }
+    }
+
+    private static String toSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+
+        double getTotalMillis();
+
+        double getMaxMillis();
+
+        double getMeanMillis();
+    }
+
+    public static class Timer implements TimerMXBean {
+        @Getter
+        private final Phase phase;
+        @Getter
+        private final String project;
+        @Getter
+        private final String structureType;
+        @Getter
+        private final String endpoint;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(Phase phase, String project, String structureType, String endpoint) {
+            this.phase = phase;
+            this.project = project;
+            this.structureType = structureType;
+            this.endpoint = endpoint;
+        }
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long c = count.sum();
+            return c == 0 ? 0 : totalNanos.sum() / 1e6 / c;
+        }
+
+        ObjectName getObjectName() throws JMException {
+            StringBuilder name = new StringBuilder(JMX_DOMAIN).append(":type=DoiMetrics,phase=").append(phase.getLabel());
+            name.append(",project=").append(ObjectName.quote(project));
+            name.append(",structureType=").append(ObjectName.quote(structureType));
+            if (!endpoint.isEmpty()) {
+                name.append(",endpoint=").append(ObjectName.quote(endpoint));
+            }
+            return new ObjectName(name.toString());
+        }
+
+        private String getLabels() {
+            StringBuilder labels = new StringBuilder("{phase=\"").append(phase.getLabel()).append('"');
+            labels.append(",project=\"").append(escapeLabel(project)).append('"');
+            labels.append(",structure_type=\"").append(escapeLabel(structureType)).append('"');
+            labels.append(",endpoint=\"").append(escapeLabel(endpoint)).append('"');
+            return labels.append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            return phase.getLabel() + " " + project + " " + structureType + " " + endpoint;
+        }
+    }
+
+    /**
+     * summary of a single run: number of elements, time of their requests to DataCite, the slowest element and the time of the schema validation
+     */
+    public static class RunSummary {
+        private final LongAdder elements = new LongAdder();
+        private final LongAdder httpNanos = new LongAdder();
+        private final LongAdder validationNanos = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private String slowestElement;
+        private long slowestNanos = -1;
+
+        /**
+         * add an element and the time its requests to DataCite took
+         *
+         * @param element
+         * @param nanos
+         */
+        public void addElement(String element, long nanos) {
+            elements.increment();
+            httpNanos.add(nanos);
+            synchronized (this) {
+                if (nanos > slowestNanos) {
+                    slowestNanos = nanos;
+                    slowestElement = element;
+                }
+            }
+        }
+
+        /**
+         * add the schema validation of an element
+         *
+         * @param nanos
+         * @param valid false if the element was rejected
+         */
+        public void addValidation(long nanos, boolean valid) {
+            validationNanos.add(nanos);
+            if (!valid) {
+                rejected.increment();
+            }
+        }
+
+        public long getElementCount() {
+            return elements.sum();
+        }
+
+        public long getValidationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(validationNanos.sum());
+        }
+
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+
+        public long getHttpMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(httpNanos.sum());
+        }
+
+        public synchronized String getSlowestElement() {
+            return slowestElement;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(getElementCount()).append(" elements, ").append(getHttpMillis()).append(" ms of requests to DataCite");
+            if (slowestElement != null) {
+                text.append(", slowest element ").append(slowestElement).append(" with ").append(TimeUnit.NANOSECONDS.toMillis(slowestNanos))
+                        .append(" ms");
+            }
+            if (validationNanos.sum() > 0) {
+                text.append(", ").append(getValidationMillis()).append(" ms of schema validation");
+            }
+            if (getRejectedCount() > 0) {
+                text.append(", ").append(getRejectedCount()).append(" invalid elements rejected");
+            }
+            return text.toString();
+        }
+    }
+}
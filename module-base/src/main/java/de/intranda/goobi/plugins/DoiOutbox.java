@@ -0,0 +1,260 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Crash safe outbox of the DOIs of a process that are registered in the background. The outbox is an append-only journal, each line is written
+ * to disk before the next step is done:
+ *
+ * <pre>
+ * STEP &lt;step id&gt;
+ * ENQ &lt;sequence&gt; &lt;doi&gt; &lt;new&gt; &lt;struct index&gt; &lt;struct type&gt; &lt;fingerprint&gt; &lt;datacite&gt;
+ * READY
+ * BEGIN &lt;sequence&gt;
+ * SENT &lt;sequence&gt;
+ * DONE &lt;sequence&gt;
+ * FAIL &lt;sequence&gt; &lt;message&gt;
+ * </pre>
+ *
+ * Texts are Base64 encoded. The state of the entries is restored by replaying the journal, an incomplete last line of an interrupted write is
+ * ignored.
+ */
+@Log4j2
+public class DoiOutbox {
+
+    public static final String SUFFIX = ".outbox";
+
+    private final Path file;
+    @Getter
+    private int stepId;
+    // all entries are added, the outbox can be drained
+    @Getter
+    private boolean ready;
+    private final Map<Integer, OutboxEntry> entries = new LinkedHashMap<>();
+
+    private DoiOutbox(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * get the file of the outbox of a process
+     *
+     * @param folder
+     * @param processId
+     * @return
+     */
+    public static Path getFile(Path folder, int processId) {
+        return folder.resolve("process_" + processId + SUFFIX);
+    }
+
+    /**
+     * create a new outbox for a process, an existing outbox of the process that was never finished to fill is replaced
+     *
+     * @param folder
+     * @param processId
+     * @param stepId
+     * @return
+     * @throws IOException
+     */
+    public static DoiOutbox create(Path folder, int processId, int stepId) throws IOException {
+        Files.createDirectories(folder);
+        DoiOutbox outbox = new DoiOutbox(getFile(folder, processId));
+        Files.deleteIfExists(outbox.file);
+        outbox.stepId = stepId;
+        outbox.append("STEP " + stepId);
+        return outbox;
+    }
+
+    /**
+     * restore an outbox from its journal
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static DoiOutbox load(Path file) throws IOException {
+        DoiOutbox outbox = new DoiOutbox(file);
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int end = content.lastIndexOf('\n');
+        if (end < content.length() - 1) {
+            log.warn("Ignoring incomplete last line of " + file);
+        }
+        if (end < 0) {
+            return outbox;
+        }
+        for (String line : content.substring(0, end).split("\n")) {
+            outbox.replay(line.split(" ", -1));
+        }
+        return outbox;
+    }
+
+    private void replay(String[] parts) {
+        switch (parts[0]) {
+            case "STEP":
+                stepId = Integer.parseInt(parts[1]);
+                break;
+            case "ENQ":
+                OutboxEntry entry = new OutboxEntry(Integer.parseInt(parts[1]), decode(parts[2]), Boolean.parseBoolean(parts[3]),
+                        Integer.parseInt(parts[4]), decode(parts[5]), decode(parts[6]), decode(parts[7]));
+                entries.put(entry.getSequence(), entry);
+                break;
+            case "READY":
+                ready = true;
+                break;
+            case "BEGIN":
+                entries.get(Integer.parseInt(parts[1])).setState(OutboxEntry.State.SENT_STARTED);
+                break;
+            case "SENT":
+                entries.get(Integer.parseInt(parts[1])).setState(OutboxEntry.State.SENT);
+                break;
+            case "DONE":
+                entries.get(Integer.parseInt(parts[1])).setState(OutboxEntry.State.DONE);
+                break;
+            case "FAIL":
+                OutboxEntry failed = entries.get(Integer.parseInt(parts[1]));
+                failed.setState(OutboxEntry.State.FAILED);
+                failed.setMessage(parts.length > 2 ? decode(parts[2]) : null);
+                break;
+            default:
+                log.warn("Unknown line in DOI outbox " + file + ": " + parts[0]);
+        }
+    }
+
+    /**
+     * add a DOI to the outbox
+     *
+     * @param doi
+     * @param newDoi
+     * @param structIndex
+     * @param structType
+     * @param fingerprint
+     * @param datacite
+     * @return
+     * @throws IOException
+     */
+    public synchronized OutboxEntry add(String doi, boolean newDoi, int structIndex, String structType, String fingerprint, String datacite)
+            throws IOException {
+        OutboxEntry entry = new OutboxEntry(entries.size() + 1, doi, newDoi, structIndex, structType, fingerprint, datacite);
+        append("ENQ " + entry.getSequence() + " " + encode(doi) + " " + newDoi + " " + structIndex + " " + encode(structType) + " "
+                + encode(fingerprint) + " " + encode(datacite));
+        entries.put(entry.getSequence(), entry);
+        return entry;
+    }
+
+    /**
+     * mark that all entries were added, only then the worker drains the outbox
+     *
+     * @throws IOException
+     */
+    public synchronized void setReady() throws IOException {
+        append("READY");
+        ready = true;
+    }
+
+    /**
+     * write the new state of an entry into the journal
+     *
+     * @param entry
+     * @param state
+     * @param message
+     * @throws IOException
+     */
+    public synchronized void mark(OutboxEntry entry, OutboxEntry.State state, String message) throws IOException {
+        switch (state) {
+            case SENT_STARTED:
+                append("BEGIN " + entry.getSequence());
+                break;
+            case SENT:
+                append("SENT " + entry.getSequence());
+                break;
+            case DONE:
+                append("DONE " + entry.getSequence());
+                break;
+            case FAILED:
+                append("FAIL " + entry.getSequence() + " " + encode(message));
+                break;
+            default:
+                throw new IllegalArgumentException("Entries cannot be set to " + state);
+        }
+        entry.setState(state);
+        entry.setMessage(message);
+    }
+
+    public synchronized Collection<OutboxEntry> getEntries() {
+        return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * get the entries in one of the given states
+     *
+     * @param states
+     * @return
+     */
+    public synchronized List<OutboxEntry> getEntries(OutboxEntry.State... states) {
+        List<OutboxEntry> result = new ArrayList<>();
+        for (OutboxEntry entry : entries.values()) {
+            for (OutboxEntry.State state : states) {
+                if (entry.getState() == state) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * check if all entries are written into the METS file or were rejected
+     *
+     * @return
+     */
+    public synchronized boolean isFinished() {
+        return ready && getEntries(OutboxEntry.State.DONE, OutboxEntry.State.FAILED).size() == entries.size();
+    }
+
+    public synchronized boolean hasFailures() {
+        return !getEntries(OutboxEntry.State.FAILED).isEmpty();
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private void append(String line) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // the line has to be on disk before the next step is done
+            channel.force(false);
+        }
+    }
+
+    private static String encode(String text) {
+        return text == null ? "-" : Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String text) {
+        return "-".equals(text) ? null : new String(Base64.getDecoder().decode(text), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,167 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Background worker that drains the DOI outboxes of the processes. Each entry is registered at DataCite, afterwards the DOIs are written into the
+ * METS file and the step of the process is closed, or set to error if DataCite rejected a DOI.
+ *
+ * The progress is written into the outbox before and after each request. If the worker is stopped, the next worker continues with the entries
+ * that are not finished: entries that were already accepted by DataCite are not sent again, only the request that was running when the worker
+ * stopped is repeated. The requests to register or update the metadata and url of a DOI can be repeated without creating anything twice.
+ */
+@Log4j2
+public class DoiOutboxWorker {
+
+    private static final Map<Path, ScheduledExecutorService> WORKERS = new ConcurrentHashMap<>();
+
+    private DoiOutboxWorker() {
+    }
+
+    /**
+     * get the folder of the outboxes, by default the folder doi_outbox in the Goobi folder
+     *
+     * @param config
+     * @return
+     */
+    public static Path getFolder(SubnodeConfiguration config) {
+        String folder = config.getString("async/folder", "");
+        if (folder.isEmpty()) {
+            return Paths.get(ConfigurationHelper.getInstance().getGoobiFolder(), "doi_outbox");
+        }
+        return Paths.get(folder);
+    }
+
+    /**
+     * start the worker of the outbox folder of the configuration if it is not running yet
+     *
+     * @param config
+     */
+    public static void start(SubnodeConfiguration config) {
+        Path folder = getFolder(config);
+        long pollSeconds = Math.max(1, config.getLong("async/pollSeconds", 10));
+        WORKERS.computeIfAbsent(folder, f -> {
+            ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(RegistrationPipeline.namedThreads("doi-outbox"));
+            worker.scheduleWithFixedDelay(() -> drainAll(f), 0, pollSeconds, TimeUnit.SECONDS);
+            log.info("Started DOI outbox worker for " + f);
+            return worker;
+        });
+    }
+
+    /**
+     * stop all workers, the outboxes are continued by the next worker
+     */
+    public static void stopAll() {
+        WORKERS.values().forEach(ScheduledExecutorService::shutdownNow);
+        WORKERS.clear();
+    }
+
+    private static void drainAll(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + DoiOutbox.SUFFIX)) {
+            for (Path file : files) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                try {
+                    DoiOutbox outbox = DoiOutbox.load(file);
+                    if (outbox.isReady()) {
+                        drain(outbox, new GoobiOutboxTransport(outbox.getStepId()));
+                    }
+                } catch (Exception e) {
+                    // try again with the next run
+                    log.error("Error while draining the DOI outbox " + file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error while reading the DOI outbox folder " + folder, e);
+        }
+    }
+
+    /**
+     * register all open entries of the outbox, write them into the METS file and finish the outbox if all entries are done
+     *
+     * @param outbox
+     * @param transport
+     * @return true if the outbox is finished
+     * @throws IOException if the outbox could not be written
+     */
+    public static boolean drain(DoiOutbox outbox, Transport transport) throws IOException {
+        for (OutboxEntry entry : outbox.getEntries(OutboxEntry.State.QUEUED, OutboxEntry.State.SENT_STARTED)) {
+            outbox.mark(entry, OutboxEntry.State.SENT_STARTED, null);
+            String error;
+            try {
+                error = transport.send(entry);
+            } catch (IOException e) {
+                // DataCite is not available, the entry is sent again with the next run
+                log.warn("DOI " + entry.getDoi() + " could not be sent, trying again later: " + e.getMessage());
+                break;
+            }
+            if (error == null) {
+                outbox.mark(entry, OutboxEntry.State.SENT, null);
+            } else {
+                outbox.mark(entry, OutboxEntry.State.FAILED, error);
+            }
+        }
+
+        List<OutboxEntry> sent = outbox.getEntries(OutboxEntry.State.SENT);
+        if (!sent.isEmpty()) {
+            transport.writeBack(sent);
+            for (OutboxEntry entry : sent) {
+                outbox.mark(entry, OutboxEntry.State.DONE, null);
+            }
+        }
+
+        if (!outbox.isFinished()) {
+            return false;
+        }
+        transport.finish(outbox, !outbox.hasFailures());
+        outbox.delete();
+        return true;
+    }
+
+    public interface Transport {
+
+        /**
+         * register the DOI of the entry at DataCite
+         *
+         * @param entry
+         * @return null if successful, otherwise the error message of DataCite
+         * @throws IOException if DataCite could not be reached
+         */
+        String send(OutboxEntry entry) throws IOException;
+
+        /**
+         * write the DOIs of the entries into the METS file, DOIs that are already in the file must not be written again
+         *
+         * @param entries
+         * @throws IOException
+         */
+        void writeBack(List<OutboxEntry> entries) throws IOException;
+
+        /**
+         * all entries are done, report the result to the step
+         *
+         * @param outbox
+         * @param successful
+         */
+        void finish(DoiOutbox outbox, boolean successful);
+    }
+}
@@ -0,0 +1,461 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DocStruct;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+
+/**
+ * Reconciliation of the DOIs in the METS files of the processes with the DOIs registered at DataCite. The listing of all DOIs of the prefix is
+ * read page by page (see {@link DataCiteListing}) and each page is compared with the DOIs of the processes right away. The cursor of the next
+ * page is saved after each page, so that a run that was interrupted or limited to some pages is continued with the next page by the next run.
+ * When the end of the listing is reached, the drift report with all differences and the repair queue with the actions for the affected processes
+ * are written into the folder of the reconciliation.
+ *
+ * The DOIs of the processes are read from their METS files once at the start of a pass through the listing and saved in the folder, the later
+ * runs of the same pass compare the pages with the saved DOIs.
+ */
+@Log4j2
+public class DoiReconciliation {
+
+    public static final String STATE_FILE = "doi_reconciliation.properties";
+    public static final String SEEN_FILE = "doi_reconciliation_seen.txt";
+    public static final String LOCAL_FILE = "doi_reconciliation_local.tsv";
+    public static final String REPORT_FILE = "doi_drift_report.tsv";
+    public static final String QUEUE_FILE = "doi_repair_queue.tsv";
+
+    private static final String PARTIAL_REPORT_FILE = REPORT_FILE + ".part";
+    private static final String NEXT_PAGE = "next";
+    private static final String PAGES = "pages";
+    private static final String REGISTRY_DOIS = "registryDois";
+
+    public enum Drift {
+        // in a METS file, but not registered
+        MISSING(Action.REGISTER),
+        // registered as draft, although drafts are not configured
+        DRAFT(Action.PUBLISH),
+        // registered, but hidden
+        HIDDEN(Action.REGISTER),
+        // the url is not the one of the configured viewer
+        WRONG_URL(Action.PUBLISH),
+        // registered, but not in the METS file of any of the processes
+        UNKNOWN(null);
+
+        private final Action action;
+
+        Drift(Action action) {
+            this.action = action;
+        }
+
+        /**
+         * get the action that repairs the drift
+         *
+         * @return the action or null if the drift cannot be repaired automatically
+         */
+        public Action getAction() {
+            return action;
+        }
+    }
+
+    public enum Action {
+        // send the metadata again, this needs the METS file of the process
+        REGISTER,
+        // set the url and make the DOI findable
+        PUBLISH
+    }
+
+    private final SubnodeConfiguration config;
+    private final DataCiteListing listing;
+    private final Path folder;
+
+    public DoiReconciliation(SubnodeConfiguration config, Path folder) {
+        this.config = config;
+        this.listing = new DataCiteListing(config);
+        this.folder = folder;
+    }
+
+    /**
+     * get the folder of the reconciliation of the configuration, by default the folder doi_reconciliation inside of the Goobi tmp folder
+     *
+     * @param config
+     * @return
+     */
+    public static Path getFolder(SubnodeConfiguration config) {
+        String folder = config.getString("reconciliation/folder");
+        if (StringUtils.isBlank(folder)) {
+            return Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "doi_reconciliation");
+        }
+        return Paths.get(folder);
+    }
+
+    /**
+     * continue the reconciliation of the DOIs of all processes that have the step with the title of <code>reconciliation/step</code>, by default the
+     * title of the given step
+     *
+     * @param step
+     * @param config
+     * @return the summary of the run
+     * @throws IOException
+     */
+    public static Summary reconcile(Step step, SubnodeConfiguration config) throws IOException {
+        String stepTitle = config.getString("reconciliation/step", step.getTitel());
+        String filter = "prozesse.ProzesseID IN (SELECT ProzesseID FROM schritte WHERE Titel = '" + stepTitle.replace("'", "''") + "')";
+        // the processes are only read at the start of a pass through the listing
+        LocalDoiSource source = () -> readDois(ProcessManager.getProcesses("prozesse.ProzesseID", filter, 0, Integer.MAX_VALUE, null), config);
+        return new DoiReconciliation(config, getFolder(config)).run(source, config.getInt("reconciliation/maxPages", 0));
+    }
+
+    /**
+     * read the DOIs of the given processes, processes whose METS file cannot be read are skipped
+     *
+     * @param processes
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    static List<LocalDoi> readDois(List<Process> processes, SubnodeConfiguration config) throws IOException {
+        List<LocalDoi> localDois = new ArrayList<>();
+        for (Process process : processes) {
+            try {
+                localDois.addAll(readDois(process, config));
+            } catch (UGHException | SwapException e) {
+                log.error("The DOIs of process " + process.getId() + " could not be read", e);
+            }
+        }
+        log.info("DOI reconciliation read " + localDois.size() + " DOIs of " + processes.size() + " processes");
+        return localDois;
+    }
+
+    /**
+     * read the DOIs of the top element and all sub elements of a process from its METS file. The file is only streamed for the DOIs, the
+     * document is loaded only if the file has no logical structure map, e.g. if it is saved in another format.
+     *
+     * @param process
+     * @param config
+     * @return
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    static List<LocalDoi> readDois(Process process, SubnodeConfiguration config) throws IOException, UGHException, SwapException {
+        List<LocalDoi> dois = new ArrayList<>();
+        String metadataName = config.getString("metadata", "DOI");
+        MetsOutline outline = MetsOutline.read(Paths.get(process.getMetadataFilePath()), Collections.singleton(metadataName));
+        if (!outline.getStructures().isEmpty()) {
+            for (MetsOutline.Structure structure : outline.getStructures()) {
+                String doi = structure.getFirstValue(metadataName);
+                if (StringUtils.isNotBlank(doi)) {
+                    dois.add(new LocalDoi(doi, process.getId()));
+                }
+            }
+            return dois;
+        }
+        Prefs prefs = process.getRegelsatz().getPreferences();
+        MetadataType doiType = prefs.getMetadataTypeByName(metadataName);
+        if (doiType == null) {
+            return dois;
+        }
+        DocStruct topstruct = process.readMetadataFile().getDigitalDocument().getLogicalDocStruct();
+        List<DocStruct> structs = new ArrayList<>();
+        structs.add(topstruct);
+        structs.addAll(StructureIndex.flatten(topstruct));
+        for (DocStruct struct : structs) {
+            String doi = DoiRegistration.getExistingMetadata(struct, doiType);
+            if (StringUtils.isNotBlank(doi)) {
+                dois.add(new LocalDoi(doi, process.getId()));
+            }
+        }
+        return dois;
+    }
+
+    /**
+     * continue the reconciliation with the next pages of the listing. If the end of the listing is reached, the report and the repair queue are
+     * written and the next run starts again with the first page.
+     *
+     * @param localDois DOIs of the processes
+     * @param maxPages maximum number of pages read by this run, 0 to read until the end of the listing
+     * @return the summary of the run
+     * @throws IOException
+     */
+    public Summary run(Collection<LocalDoi> localDois, int maxPages) throws IOException {
+        return run(() -> localDois, maxPages);
+    }
+
+    /**
+     * continue the reconciliation with the next pages of the listing. The DOIs of the processes are only taken from the source at the start of a
+     * pass, the other runs use the DOIs saved by the first run of the pass.
+     *
+     * @param source DOIs of the processes
+     * @param maxPages maximum number of pages read by this run, 0 to read until the end of the listing
+     * @return the summary of the run
+     * @throws IOException
+     */
+    public Summary run(LocalDoiSource source, int maxPages) throws IOException {
+        Files.createDirectories(folder);
+        Properties state = loadState();
+        Map<String, LocalDoi> local = new HashMap<>();
+        for (LocalDoi doi : loadLocalDois(state, source)) {
+            local.put(normalize(doi.getDoi()), doi);
+        }
+        String page = state.getProperty(NEXT_PAGE, listing.getFirstPage());
+        int pages = Integer.parseInt(state.getProperty(PAGES, "0"));
+        long registryDois = Long.parseLong(state.getProperty(REGISTRY_DOIS, "0"));
+
+        int pagesOfRun = 0;
+        while (page != null && (maxPages <= 0 || pagesOfRun < maxPages)) {
+            // registered DOIs of the processes, the others are only counted
+            List<String> seen = new ArrayList<>();
+            List<String> drifts = new ArrayList<>();
+            int[] entries = new int[1];
+            String next = listing.readPage(page, entry -> {
+                entries[0]++;
+                String doi = normalize(entry.getDoi());
+                LocalDoi localDoi = local.get(doi);
+                if (localDoi != null) {
+                    seen.add(doi);
+                }
+                Drift drift = compare(entry, localDoi);
+                if (drift != null) {
+                    drifts.add(createReportLine(entry.getDoi(), localDoi, drift, entry.getState(), entry.getUrl()));
+                }
+            });
+            append(SEEN_FILE, seen);
+            append(PARTIAL_REPORT_FILE, drifts);
+            pages++;
+            pagesOfRun++;
+            registryDois += entries[0];
+            page = next;
+            // the cursor is saved after the results of the page, so that a page is never skipped
+            state.setProperty(PAGES, String.valueOf(pages));
+            state.setProperty(REGISTRY_DOIS, String.valueOf(registryDois));
+            if (page != null) {
+                state.setProperty(NEXT_PAGE, page);
+            }
+            saveState(state);
+        }
+
+        if (page != null) {
+            log.info("DOI reconciliation paused after " + pages + " pages, it continues with the next run");
+            return new Summary(false, pages, registryDois, new HashMap<>());
+        }
+        Summary summary = finish(local, pages, registryDois);
+        log.info("DOI reconciliation finished: " + summary);
+        return summary;
+    }
+
+    /**
+     * get the DOIs of the processes of the current pass, a new pass takes them from the source and saves them
+     */
+    private Collection<LocalDoi> loadLocalDois(Properties state, LocalDoiSource source) throws IOException {
+        Path file = folder.resolve(LOCAL_FILE);
+        if (state.containsKey(NEXT_PAGE) && Files.isRegularFile(file)) {
+            List<LocalDoi> dois = new ArrayList<>();
+            for (String line : readLines(LOCAL_FILE)) {
+                String[] values = line.split("\t", -1);
+                dois.add(new LocalDoi(values[0], Integer.valueOf(values[1])));
+            }
+            return dois;
+        }
+        Collection<LocalDoi> dois = source.read();
+        List<String> lines = new ArrayList<>(dois.size());
+        for (LocalDoi doi : dois) {
+            lines.add(doi.getDoi() + "\t" + doi.getProcessId());
+        }
+        writeAtomically(LOCAL_FILE, null, lines);
+        return dois;
+    }
+
+    /**
+     * compare a registered DOI with the DOI of the processes
+     *
+     * @param entry
+     * @param local the DOI of the processes or null if it is not in any process
+     * @return the drift or null if the registered DOI is as expected
+     */
+    Drift compare(DataCiteListing.Entry entry, LocalDoi local) {
+        if (local == null) {
+            return Drift.UNKNOWN;
+        }
+        boolean draft = config.getBoolean("draft", false);
+        if ("draft".equals(entry.getState())) {
+            return draft ? null : Drift.DRAFT;
+        }
+        if ("registered".equals(entry.getState())) {
+            return Drift.HIDDEN;
+        }
+        String viewer = config.getString("viewer");
+        if (StringUtils.isNotBlank(viewer) && !(viewer + local.getDoi()).equals(entry.getUrl())) {
+            return Drift.WRONG_URL;
+        }
+        return null;
+    }
+
+    /**
+     * add the DOIs of the processes that are missing in the listing to the report, write the report and the repair queue and reset the state
+     */
+    private Summary finish(Map<String, LocalDoi> local, int pages, long registryDois) throws IOException {
+        Set<String> seen = new HashSet<>(readLines(SEEN_FILE));
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, LocalDoi> entry : local.entrySet()) {
+            if (!seen.contains(entry.getKey())) {
+                missing.add(createReportLine(entry.getValue().getDoi(), entry.getValue(), Drift.MISSING, "", ""));
+            }
+        }
+        append(PARTIAL_REPORT_FILE, missing);
+
+        // a page may have been compared twice if a run was stopped before its cursor was saved
+        Set<String> lines = new LinkedHashSet<>(readLines(PARTIAL_REPORT_FILE));
+        Map<Drift, Integer> counts = new HashMap<>();
+        List<String[]> queue = new ArrayList<>();
+        for (String line : lines) {
+            String[] values = line.split("\t", -1);
+            Drift drift = Drift.valueOf(values[2]);
+            counts.merge(drift, 1, Integer::sum);
+            if (drift.getAction() != null) {
+                queue.add(new String[] { drift.getAction().name(), values[1], values[0] });
+            }
+        }
+        // the actions of a process are next to each other, so that each process is handled only once
+        queue.sort((a, b) -> {
+            int result = Integer.compare(Integer.parseInt(a[1]), Integer.parseInt(b[1]));
+            return result != 0 ? result : a[0].compareTo(b[0]);
+        });
+
+        writeAtomically(REPORT_FILE, "doi\tprocess\tdrift\tstate\turl", lines);
+        List<String> queueLines = new ArrayList<>(queue.size());
+        for (String[] action : queue) {
+            queueLines.add(String.join("\t", action));
+        }
+        writeAtomically(QUEUE_FILE, "action\tprocess\tdoi", queueLines);
+
+        Files.deleteIfExists(folder.resolve(PARTIAL_REPORT_FILE));
+        Files.deleteIfExists(folder.resolve(SEEN_FILE));
+        Files.deleteIfExists(folder.resolve(LOCAL_FILE));
+        Files.deleteIfExists(folder.resolve(STATE_FILE));
+        return new Summary(true, pages, registryDois, counts);
+    }
+
+    private static String createReportLine(String doi, LocalDoi local, Drift drift, String state, String url) {
+        String process = local != null ? String.valueOf(local.getProcessId()) : "";
+        return doi + "\t" + process + "\t" + drift + "\t" + StringUtils.defaultString(state) + "\t" + StringUtils.defaultString(url);
+    }
+
+    private static String normalize(String doi) {
+        // DOIs are case insensitive, DataCite lists them in lower case
+        return StringUtils.defaultString(doi).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private Properties loadState() throws IOException {
+        Properties state = new Properties();
+        Path file = folder.resolve(STATE_FILE);
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                state.load(in);
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Properties state) throws IOException {
+        Path file = folder.resolve(STATE_FILE);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            state.store(out, "position of the DOI reconciliation in the listing of DataCite");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void append(String filename, List<String> lines) throws IOException {
+        if (!lines.isEmpty()) {
+            Files.write(folder.resolve(filename), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private List<String> readLines(String filename) throws IOException {
+        Path file = folder.resolve(filename);
+        return Files.isRegularFile(file) ? Files.readAllLines(file, StandardCharsets.UTF_8) : new ArrayList<>();
+    }
+
+    private void writeAtomically(String filename, String header, Collection<String> lines) throws IOException {
+        Path file = folder.resolve(filename);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            if (header != null) {
+                out.write(header + "\n");
+            }
+            for (String line : lines) {
+                out.write(line + "\n");
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * reads the DOIs of the processes
+     */
+    @FunctionalInterface
+    public interface LocalDoiSource {
+        Collection<LocalDoi> read() throws IOException;
+    }
+
+    /**
+     * a DOI in the METS file of a process
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class LocalDoi {
+        private final String doi;
+        private final Integer processId;
+    }
+
+    /**
+     * result of a run of the reconciliation
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Summary {
+        // true if the end of the listing was reached and the report was written
+        private final boolean complete;
+        private final int pages;
+        private final long registryDois;
+        private final Map<Drift, Integer> drifts;
+
+        @Override
+        public String toString() {
+            return registryDois + " registered DOIs in " + pages + " pages, drift " + drifts;
+        }
+    }
+}
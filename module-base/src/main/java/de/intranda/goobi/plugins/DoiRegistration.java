@@ -0,0 +1,982 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.ParseException;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.output.XMLOutputter;
+import org.jdom2.transform.XSLTransformException;
+import org.xml.sax.SAXException;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.helper.exceptions.SwapException;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.exceptions.UGHException;
+import ugh.exceptions.WriteException;
+
+/**
+ * Registration of the DOIs of a single process. It holds everything that belongs to the process during the registration, therefore several
+ * processes can be registered at the same time, e.g. in batch mode.
+ */
+@Log4j2
+public class DoiRegistration {
+
+    @Getter
+    private final Process p;
+    private final SubnodeConfiguration config;
+    private final FieldMappingPlan fieldMappingPlan;
+    private final DataCiteMapper dataCiteMapper;
+    private final RegistryClient registry;
+
+    private Fileformat ff;
+    private VariableReplacer replacer;
+    private Prefs prefs;
+    private MetadataType doiType;
+    private DeferredMetsWriter metsWriter;
+    // DOIs that are not written yet if they are inserted into the METS file without writing the whole document
+    private List<MetsDoiWriter.Insertion> metsInsertions;
+    private boolean fullMetsWrite;
+    // archive of the debug documents of the run, null if the debug mode is switched off
+    private DebugCapture debugCapture;
+    private DoiFingerprintStore fingerprints;
+    private AtomicInteger unchangedDois;
+    // phases of the elements, a new run continues where an interrupted run stopped
+    private DoiCheckpointJournal checkpoints;
+    private AtomicInteger resumedDois;
+    private DoiMetrics.RunSummary summary;
+    private String project;
+    // values of the process that are the same for all elements, computed once per run
+    private List<ContentField> processFields;
+    private String doiPostfix;
+    // if an outbox is set the DOIs are only added to it and registered in the background
+    @Setter
+    private DoiOutbox outbox;
+    // receives the messages for the journal of the process
+    @Setter
+    private ProcessJournal journal = Helper::addMessageToProcessJournal;
+
+    public DoiRegistration(Process p, StepConfigurationCache.StepConfiguration stepConfiguration) {
+        this(p, stepConfiguration, RegistryClient.forConfig(stepConfiguration.getConfig()));
+    }
+
+    /**
+     * create the registration of a process that sends its DOIs with the given client
+     *
+     * @param p
+     * @param stepConfiguration
+     * @param registry
+     */
+    public DoiRegistration(Process p, StepConfigurationCache.StepConfiguration stepConfiguration, RegistryClient registry) {
+        this.p = p;
+        this.config = stepConfiguration.getConfig();
+        this.fieldMappingPlan = stepConfiguration.getFieldMappingPlan();
+        this.dataCiteMapper = stepConfiguration.getDataCiteMapper();
+        this.registry = registry;
+    }
+
+    /**
+     * register or update the DOIs of the process and its sub elements and save them in the METS file
+     *
+     * @param pipeline shared pipeline for the sub elements, if it is null the sub elements are registered as configured in the
+     *            <code>parallel</code> block
+     * @return true if all DOIs were registered successfully
+     */
+    public boolean register(RegistrationPipeline<DoiElement, DoiElement> pipeline) {
+        boolean successful = false;
+        metsWriter = null;
+        metsInsertions = new ArrayList<>();
+        fullMetsWrite = !config.getBoolean("streamingMetsWrite", false);
+        debugCapture = null;
+        fingerprints = null;
+        checkpoints = null;
+        unchangedDois = new AtomicInteger();
+        resumedDois = new AtomicInteger();
+        summary = new DoiMetrics.RunSummary();
+        project = p.getProjekt() != null ? p.getProjekt().getTitel() : null;
+        DoiMetrics.setContext(project, null);
+
+        try {
+
+            // Open the metadata file for the process and prepare the VariableReplacer
+            long start = System.nanoTime();
+            ff = p.readMetadataFile();
+            DoiMetrics.record(DoiMetrics.Phase.METS_READ, System.nanoTime() - start);
+            // also used with an outbox, the DOI of an anchor is registered right away
+            checkpoints = new DoiCheckpointJournal(Paths.get(p.getProcessDataDirectory(), DoiCheckpointJournal.FILENAME));
+            metsWriter = new DeferredMetsWriter(() -> {
+                long writeStart = System.nanoTime();
+                writeMetsFile();
+                DoiMetrics.record(DoiMetrics.Phase.METS_WRITE, System.nanoTime() - writeStart);
+                if (checkpoints != null) {
+                    checkpoints.metsWritten();
+                }
+            }, config.getInt("checkpointInterval", 20));
+            fingerprints = new DoiFingerprintStore(Paths.get(p.getProcessDataDirectory(), DoiFingerprintStore.FILENAME));
+            prefs = p.getRegelsatz().getPreferences();
+            // the ruleset is searched only once per run for the DOI metadata type
+            doiType = prefs.getMetadataTypeByName(config.getString("metadata", "DOI"));
+            replacer = new VariableReplacer(ff.getDigitalDocument(), prefs, p, null);
+            debugCapture = DebugCapture.open(config, p.getId());
+            start = System.nanoTime();
+            processFields = createContentFieldList();
+            DoiMetrics.record(DoiMetrics.Phase.FIELD_LIST, System.nanoTime() - start);
+            doiPostfix = createDoiPostfix();
+
+            // load topstruct
+            List<ContentField> anchorFields = new ArrayList<>();
+            DocStruct topstruct = ff.getDigitalDocument().getLogicalDocStruct();
+            MetadataType idType = prefs.getMetadataTypeByName("CatalogIDDigital");
+            if (topstruct.getType().isAnchor()) {
+                DocStruct anchorStruct = topstruct;
+                // add all existing metadata of anchor
+                if (topstruct.getAllMetadata() != null) {
+                    for (Metadata m : topstruct.getAllMetadata()) {
+                        if (StringUtils.isNotBlank(m.getValue())) {
+                            anchorFields.add(new ContentField("ANCHOR-METADATA-" + m.getType().getName(), m.getValue()));
+                        }
+                    }
+                }
+                // add all existing persons of anchor
+                if (topstruct.getAllPersons() != null) {
+                    for (Person per : topstruct.getAllPersons()) {
+                        if (StringUtils.isNotBlank(per.getDisplayname())) {
+                            anchorFields.add(new ContentField("ANCHOR-PERSON-" + per.getRole(), per.getDisplayname()));
+                        }
+                    }
+                }
+                topstruct = topstruct.getAllChildren().get(0);
+                anchorFields = processAnchor(anchorStruct, getExistingMetadata(anchorStruct, idType), anchorFields);
+            }
+
+            // read catalogue identifier
+            String myId = getExistingMetadata(topstruct, idType);
+
+            // create or update doi for top element, unless the DOI of its anchor could not get registered
+            successful = anchorFields != null && processElement(topstruct, myId, false, anchorFields);
+
+            if (successful) {
+                // get the list of all subelement types to register/update as well
+                List<String> subTypes = new ArrayList<>();
+                for (Object o : config.getList("structureType")) {
+                    subTypes.add((String) o);
+                }
+
+                // find the subelements of these types with a single traversal, the ordinals are assigned in document order before any processing
+                // starts
+                if (!subTypes.isEmpty()) {
+                    StructureIndex index = StructureIndex.build(topstruct, subTypes, prefs);
+                    List<DoiElement> elements = new ArrayList<>(index.getEntries().size());
+                    for (StructureIndex.Entry entry : index.getEntries()) {
+                        DoiElement element = new DoiElement(entry.getStruct(), myId + "_" + entry.getOrdinal(), true);
+                        element.setPosition(entry.getPosition());
+                        element.setPageStart(entry.getPageStart());
+                        element.setPageEnd(entry.getPageEnd());
+                        elements.add(element);
+                    }
+                    successful = processSubElements(elements, anchorFields, pipeline);
+                }
+            }
+
+        } catch (UGHException | IOException | SwapException | JDOMException e) {
+            log.error("Error while executing the DOI plugin", e);
+            journal.addMessage(p.getId(), LogType.ERROR,
+                    "An error happend during the registration of DOIs: " + e.getMessage());
+        } finally {
+            // save all DOIs that were registered so far, even if the run was not successful
+            DoiMetrics.setContext(project, null);
+            if (metsWriter != null) {
+                try {
+                    metsWriter.flush();
+                } catch (UGHException | IOException | SwapException e) {
+                    log.error("Error while writing the METS file", e);
+                    journal.addMessage(p.getId(), LogType.ERROR,
+                            "The registered DOIs could not get saved in the METS file: " + e.getMessage());
+                    successful = false;
+                }
+            }
+            if (fingerprints != null) {
+                try {
+                    fingerprints.save();
+                } catch (IOException e) {
+                    // without the fingerprints the next run just updates all DOIs again
+                    log.warn("Error while saving the DOI fingerprints", e);
+                }
+            }
+            if (checkpoints != null) {
+                try {
+                    checkpoints.complete(successful);
+                } catch (IOException e) {
+                    // without the journal the next run starts all elements from the beginning
+                    log.warn("Error while completing the DOI checkpoint journal", e);
+                }
+            }
+            if (debugCapture != null) {
+                // the archive is finished in the background
+                debugCapture.close();
+            }
+        }
+        DoiMetrics.clearContext();
+        if (summary.getElementCount() > 0) {
+            log.info("DOI registration of process " + p.getId() + ": " + summary);
+            journal.addMessage(p.getId(), LogType.INFO, "Summary of the DOI registration: " + summary);
+        }
+        if (resumedDois.get() > 0) {
+            journal.addMessage(p.getId(), LogType.INFO,
+                    resumedDois.get() + " DOIs were already registered by an interrupted run and were skipped.");
+        }
+        if (unchangedDois.get() > 0) {
+            journal.addMessage(p.getId(), LogType.INFO,
+                    unchangedDois.get() + " existing DOIs were unchanged and did not get updated.");
+        }
+        // the document is not needed anymore, this keeps the memory low if many processes are registered
+        ff = null;
+        replacer = null;
+        return successful;
+    }
+
+    /**
+     * create or update the dois of all sub elements, either one after the other or in parallel if this is configured
+     * 
+     * @param elements
+     * @param anchorFields
+     * @param pipeline shared pipeline or null
+     * @return true if all elements were successful
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     * @throws XSLTransformException
+     */
+    private boolean processSubElements(List<DoiElement> elements, List<ContentField> anchorFields,
+            RegistrationPipeline<DoiElement, DoiElement> pipeline) throws IOException, UGHException, SwapException, XSLTransformException {
+        if (pipeline != null) {
+            return runPipeline(pipeline, elements, anchorFields);
+        }
+        if (!config.getBoolean("parallel/@enabled", false)) {
+            boolean successful = true;
+            for (DoiElement element : elements) {
+                successful = registerElement(prepareElement(element, anchorFields)) && successful;
+            }
+            return successful;
+        }
+
+        try (RegistrationPipeline<DoiElement, DoiElement> ownPipeline = new RegistrationPipeline<>(config)) {
+            return runPipeline(ownPipeline, elements, anchorFields);
+        }
+    }
+
+    private boolean runPipeline(RegistrationPipeline<DoiElement, DoiElement> pipeline, List<DoiElement> elements, List<ContentField> anchorFields) {
+        return pipeline.run(elements, element -> prepareElement(element, anchorFields), new RegistrationPipeline.Registrar<DoiElement>() {
+            @Override
+            public boolean register(DoiElement element) throws Exception {
+                return registerElement(element);
+            }
+
+            @Override
+            public void failed(Object element, Throwable cause) {
+                journal.addMessage(p.getId(), LogType.ERROR,
+                        "An error happend during the registration of the DOI for " + element + ": " + cause.getMessage());
+            }
+        });
+    }
+
+    /**
+     * create or update a doi for a given structure element
+     * 
+     * @param struct
+     * @param myId
+     * @return
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     * @throws XSLTransformException
+     */
+    private boolean processElement(DocStruct struct, String myId, boolean isSubElement, List<ContentField> anchorFields)
+            throws IOException, UGHException, SwapException, XSLTransformException {
+        return registerElement(prepareElement(new DoiElement(struct, myId, isSubElement), anchorFields));
+    }
+
+    /**
+     * determine the DOI of the element and create its DataCite document. This does not communicate with DataCite and can run in parallel for
+     * several elements.
+     * 
+     * @param element
+     * @param anchorFields
+     * @return the prepared element
+     * @throws IOException
+     * @throws UGHException
+     * @throws XSLTransformException
+     */
+    private DoiElement prepareElement(DoiElement element, List<ContentField> anchorFields)
+            throws IOException, UGHException, XSLTransformException {
+        return prepareElement(element, processFields, anchorFields);
+    }
+
+    /**
+     * determine the DOI of the element and create its DataCite document from the given fields instead of the ones of the process
+     *
+     * @param element
+     * @param baseFields fields that are the same for all elements
+     * @param anchorFields
+     * @return the prepared element
+     * @throws IOException
+     * @throws UGHException
+     * @throws XSLTransformException
+     */
+    private DoiElement prepareElement(DoiElement element, List<ContentField> baseFields, List<ContentField> anchorFields)
+            throws IOException, UGHException, XSLTransformException {
+        DoiMetrics.setContext(project, element.getStruct().getType().getName());
+        try {
+            return prepareElementInContext(element, baseFields, anchorFields);
+        } finally {
+            DoiMetrics.clearContext();
+        }
+    }
+
+    private DoiElement prepareElementInContext(DoiElement element, List<ContentField> baseFields, List<ContentField> anchorFields)
+            throws IOException, UGHException, XSLTransformException {
+        long start = System.nanoTime();
+        DocStruct struct = element.getStruct();
+
+        // try to read existing DOI
+        String myDoi = getExistingMetadata(struct, doiType);
+        boolean hadDoi = StringUtils.isNotBlank(myDoi);
+
+        // add the new or existing DOI as contentfield
+        if (!hadDoi) {
+            // prepare a new DOI name if not existing
+            myDoi = config.getString("base") + "/" + doiPostfix + element.getId();
+        }
+
+        // start with the content fields of the process, they are the same for all elements
+        List<ContentField> contentFields = new ArrayList<>(baseFields);
+        contentFields.add(new ContentField("GOOBI-DOI", myDoi));
+        contentFields.addAll(anchorFields);
+
+        addElementFields(contentFields, element);
+
+        start = recordSince(DoiMetrics.Phase.FIELD_LIST, start);
+
+        // if debug mode is switched on and the element is sampled, capture the content fields as xml file
+        Document doc = null;
+        boolean debug = debugCapture != null && debugCapture.sample();
+        if (dataCiteMapper == null || debug) {
+            doc = createXmlDocumentOfContent(contentFields);
+        }
+        if (debug) {
+            debugCapture.add(element.getId(), "doi_in.xml", doc);
+        }
+
+        // create the DataCite document directly or by the xslt transformation
+        Document datacitedoc;
+        if (dataCiteMapper != null) {
+            datacitedoc = dataCiteMapper.createDocument(contentFields);
+            recordSince(DoiMetrics.Phase.XML_BUILD, start);
+        } else {
+            start = recordSince(DoiMetrics.Phase.XML_BUILD, start);
+            datacitedoc = doXmlTransformation(doc);
+            recordSince(DoiMetrics.Phase.XSLT, start);
+        }
+
+        // and the DataCite document
+        if (debug) {
+            debugCapture.add(element.getId(), "doi_out.xml", datacitedoc);
+        }
+
+        // check the DataCite document before anything is sent, so that invalid elements are rejected without any request
+        if (config.getBoolean("schemaValidation/@enabled", false)) {
+            start = System.nanoTime();
+            List<String> errors = validateDataCiteDocument(datacitedoc);
+            summary.addValidation(System.nanoTime() - start, errors.isEmpty());
+            recordSince(DoiMetrics.Phase.VALIDATION, start);
+            element.setValidationErrors(errors);
+        }
+
+        element.setDoi(myDoi);
+        element.setHadDoi(hadDoi);
+        element.setDatacite(datacitedoc);
+        if (hadDoi && checkpoints != null && !config.getBoolean("forceUpdate", false) && checkpoints.isFinished(myDoi, createFingerprint(element))) {
+            // an interrupted run already registered the DOI with the same payload and saved it, a changed element is registered again
+            element.setFinished(true);
+        }
+        return element;
+    }
+
+    /**
+     * create or update the DOI of a prepared element at DataCite, or add it to the outbox if there is one
+     * 
+     * @param element
+     * @return
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    private boolean registerElement(DoiElement element) throws IOException, UGHException, SwapException {
+        return registerElement(element, outbox != null);
+    }
+
+    /**
+     * register or update the DOI of an element or add it to the outbox
+     *
+     * @param element
+     * @param queued true to add the element to the outbox instead of registering it right away
+     * @return
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    private boolean registerElement(DoiElement element, boolean queued) throws IOException, UGHException, SwapException {
+        if (element.isFinished()) {
+            resumedDois.incrementAndGet();
+            return true;
+        }
+        if (element.getValidationErrors() != null && !element.getValidationErrors().isEmpty()) {
+            log.warn("The DataCite document of " + element + " is not valid: " + element.getValidationErrors());
+            journal.addMessage(p.getId(), LogType.ERROR, "The DOI " + element + " was not registered, its DataCite document is not valid: "
+                    + String.join("; ", element.getValidationErrors()));
+            return false;
+        }
+        if (queued) {
+            return addElementToOutbox(element);
+        }
+        // the requests of each process get their fair share of the shared rate limit
+        AdaptiveRateLimiter.setClient(String.valueOf(p.getId()));
+        DoiMetrics.setContext(project, element.getStruct().getType().getName());
+        long start = System.nanoTime();
+        try {
+            return registerElementAtDataCite(element);
+        } finally {
+            summary.addElement(element.toString(), System.nanoTime() - start);
+            DoiMetrics.clearContext();
+            AdaptiveRateLimiter.clearClient();
+        }
+    }
+
+    /**
+     * record the time since the given start for a phase
+     *
+     * @param phase
+     * @param start
+     * @return the current time as start of the next phase
+     */
+    private static long recordSince(DoiMetrics.Phase phase, long start) {
+        long now = System.nanoTime();
+        DoiMetrics.record(phase, now - start);
+        return now;
+    }
+
+    private boolean registerElementAtDataCite(DoiElement element) throws IOException, UGHException, SwapException {
+        boolean successful = false;
+        String myDoi = element.getDoi();
+
+        String fingerprint = createFingerprint(element);
+        if (checkpoints.getPhase(myDoi, fingerprint) == null) {
+            checkpoints.record(myDoi, DoiCheckpointJournal.Phase.BUILT, fingerprint);
+        }
+
+        // create or update DOI
+        if (!element.isHadDoi()) {
+            // register a complete new DOI
+            successful = createDoi(element.getStruct(), myDoi, doiType, element.getDatacite(), fingerprint);
+            if (successful) {
+                fingerprints.put(myDoi, fingerprint);
+            }
+        } else if (!config.getBoolean("forceUpdate", false) && fingerprints.isUnchanged(myDoi, fingerprint)) {
+            // nothing changed since the last update
+            log.debug("DOI is unchanged and does not get updated: " + myDoi);
+            unchangedDois.incrementAndGet();
+            return true;
+        } else {
+            // update the existing DOI
+            if (updateDoi(myDoi, element.getDatacite(), fingerprint)) {
+                fingerprints.put(myDoi, fingerprint);
+            }
+            successful = true;
+        }
+
+        // check later in the background if the doi is accessible, drafts are not resolvable
+        if (successful && !config.getBoolean("draft", false)) {
+            DoiVerifier.submit(p.getId(), myDoi, config);
+        }
+        return successful;
+    }
+
+    /**
+     * add the DataCite document of an element to the outbox, unless it did not change since the last update
+     *
+     * @param element
+     * @return
+     * @throws IOException
+     */
+    private boolean addElementToOutbox(DoiElement element) throws IOException {
+        String fingerprint = createFingerprint(element);
+        if (element.isHadDoi() && !config.getBoolean("forceUpdate", false) && fingerprints.isUnchanged(element.getDoi(), fingerprint)) {
+            log.debug("DOI is unchanged and does not get updated: " + element.getDoi());
+            unchangedDois.incrementAndGet();
+            return true;
+        }
+        String datacite = new XMLOutputter(XmlDocumentEntity.getCompactFormat()).outputString(element.getDatacite());
+        outbox.add(element.getDoi(), !element.isHadDoi(), element.getPosition(), element.getStruct().getType().getName(),
+                fingerprint, datacite);
+        return true;
+    }
+
+    /**
+     * the fingerprint covers everything that is sent to DataCite for the DOI of the element
+     *
+     * @param element
+     * @return
+     */
+    private String createFingerprint(DoiElement element) {
+        return DoiFingerprintStore.createFingerprint(element.getDatacite(), config.getString("viewer") + element.getDoi(),
+                String.valueOf(config.getBoolean("draft", false)));
+    }
+
+    /**
+     * create doi and save it in the docstruct. Phases that an interrupted run already finished with the same payload are not done again.
+     * 
+     * @param prefs
+     * @param iIndex
+     * @param anchor
+     * @param anchor
+     * 
+     * @return Returns the doi.
+     * @throws JDOMException
+     * @throws UGHException
+     * @throws DAOException
+     * @throws SwapException
+     * @throws InterruptedException
+     */
+    private boolean createDoi(DocStruct docstruct, String doi, MetadataType doiType, Document doc, String fingerprint)
+            throws IOException, UGHException, SwapException {
+        // draft for DOI
+        String result = sendMetadata(doi, doc, true, fingerprint);
+
+        // if drafting was successful then make it findable
+        if (result == null && !config.getBoolean("draft", false) && !checkpoints.hasReached(doi, fingerprint, DoiCheckpointJournal.Phase.URL_SET)) {
+            result = registry.publish(doi);
+            if (result == null) {
+                checkpoints.record(doi, DoiCheckpointJournal.Phase.URL_SET, fingerprint);
+            }
+        }
+
+        // if no draft or not findable report error
+        if (result != null) {
+            journal.addMessage(p.getId(), LogType.ERROR, "A new DOI could not get registered: " + result);
+            return false;
+        }
+
+        // Write DOI metadata into the docstruct.
+        addDoiToMets(docstruct, doi, doiType);
+        if (config.getBoolean("draft", false)) {
+            journal.addMessage(p.getId(), LogType.INFO, "A new DOI was drafted: " + doi);
+        } else {
+            journal.addMessage(p.getId(), LogType.INFO, "A new DOI was registered: " + doi);
+        }
+        return true;
+    }
+
+    /**
+     * write the DOI into the docstruct. The METS file is saved at the configured checkpoints and at the end of the run. Several elements can be
+     * registered in parallel, therefore only one of them may change the METS file at the same time.
+     * 
+     * @param docstruct
+     * @param doi
+     * @param doiType
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    private void addDoiToMets(DocStruct docstruct, String doi, MetadataType doiType) throws IOException, UGHException, SwapException {
+        metsWriter.change(() -> {
+            Metadata md = new Metadata(doiType);
+            md.setValue(doi);
+            docstruct.addMetadata(md);
+            // the anchor DOI of a volume can be added in the background mode as well, where there is no journal
+            if (checkpoints != null) {
+                checkpoints.awaitMets(doi);
+            }
+            if (!fullMetsWrite) {
+                // the anchor can be saved in a separate file, elements without ID were not read from the file
+                if (docstruct.getIdentifier() != null && !docstruct.getType().isAnchor()) {
+                    metsInsertions.add(new MetsDoiWriter.Insertion(docstruct.getIdentifier(), docstruct.getType().getName(), doi));
+                } else {
+                    fullMetsWrite = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * register the DOI of the anchor if configured, using the cache shared by all processes. The DOI of the anchor is registered only once,
+     * afterwards the volumes only refer to it with the field <code>ANCHOR-DOI</code>. A changed anchor is registered again once.
+     *
+     * @param anchorStruct
+     * @param anchorId catalogue identifier of the anchor
+     * @param anchorFields fields of the anchor read from the METS file
+     * @return the anchor fields for the elements of the volume, null if the DOI of the anchor could not get registered
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     * @throws XSLTransformException
+     */
+    private List<ContentField> processAnchor(DocStruct anchorStruct, String anchorId, List<ContentField> anchorFields)
+            throws IOException, UGHException, SwapException, XSLTransformException {
+        if (StringUtils.isBlank(anchorId)) {
+            // without identifier the anchor can neither be cached nor get a DOI
+            return anchorFields;
+        }
+        if (!config.getBoolean("anchor/doi/@enabled", false)) {
+            return anchorFields;
+        }
+        String key = config.getString("serviceAddress") + "|" + config.getString("base") + "|" + anchorId;
+        AnchorCache.Anchor anchor = AnchorCache.get(key, anchorFields, config.getInt("anchor/cacheSize", 1000));
+
+        String anchorDoi;
+        // other volumes of the anchor wait until its DOI is registered
+        synchronized (anchor) {
+            anchorDoi = anchor.getRegisteredDoi();
+            String existingDoi = getExistingMetadata(anchorStruct, doiType);
+            if (anchorDoi == null || existingDoi != null && !existingDoi.equals(anchorDoi)) {
+                DoiElement element = new DoiElement(anchorStruct, anchorId, false);
+                element.setPosition(DoiElement.ANCHOR_POSITION);
+                List<ContentField> fields = createAnchorDocumentFields(processFields, anchorFields, anchorStruct.getType().getName(), config);
+                // registered right away even with an outbox, the other volumes must only refer to a DOI that DataCite confirmed. A volume that
+                // already sent the same payload for the anchor does not send it again, so volumes with an older copy do not undo a change.
+                if (!registerElement(prepareElement(element, fields, Collections.emptyList()), false)) {
+                    return null;
+                }
+                anchorDoi = element.getDoi();
+                anchor.setRegistered(anchorDoi);
+            } else if (existingDoi == null) {
+                // another volume registered the DOI, this volume only saves it
+                addDoiToMets(anchorStruct, anchorDoi, doiType);
+            }
+        }
+        List<ContentField> fields = new ArrayList<>(anchorFields);
+        fields.add(new ContentField("ANCHOR-DOI", anchorDoi));
+        return fields;
+    }
+
+    /**
+     * create the fields of the DataCite document of an anchor. These are the fields of the process, but the fields configured in
+     * <code>anchor/doi</code> get the values of their source field of the anchor instead. The anchor is a top element without number.
+     *
+     * @param processFields
+     * @param anchorFields
+     * @param anchorType
+     * @param config
+     * @return
+     */
+    static List<ContentField> createAnchorDocumentFields(List<ContentField> processFields, List<ContentField> anchorFields, String anchorType,
+            HierarchicalConfiguration config) {
+        Map<String, List<String>> replacements = new LinkedHashMap<>();
+        for (HierarchicalConfiguration field : config.configurationsAt("anchor/doi/field")) {
+            List<String> values = new ArrayList<>();
+            for (ContentField anchorField : anchorFields) {
+                if (anchorField.getName().equals(field.getString("@source"))) {
+                    values.add(anchorField.getValue());
+                }
+            }
+            if (!values.isEmpty()) {
+                replacements.put(field.getString("@name"), values);
+            }
+        }
+        Set<String> removed = new HashSet<>(Arrays.asList(config.getString("mapping/number", "NUMBER"), "GOOBI-ANCHOR-DOCTYPE", "GOOBI-DOCTYPE"));
+        List<ContentField> fields = new ArrayList<>();
+        for (ContentField field : processFields) {
+            if (replacements.containsKey(field.getName())) {
+                // the values of the anchor take the place of the first value of the process
+                for (String value : replacements.remove(field.getName())) {
+                    fields.add(new ContentField(field.getName(), value));
+                }
+                removed.add(field.getName());
+            } else if (!removed.contains(field.getName())) {
+                fields.add(field);
+            }
+        }
+        replacements.forEach((name, values) -> values.forEach(value -> fields.add(new ContentField(name, value))));
+        fields.add(new ContentField("GOOBI-DOCTYPE", anchorType));
+        return fields;
+    }
+
+    /**
+     * save the changes of the METS file. If configured the new DOIs are inserted into the file without writing the whole document. Once the
+     * whole document was written the IDs of the file can differ from the ones of the document, so the rest of the run writes the whole document.
+     *
+     * @throws IOException
+     * @throws UGHException
+     * @throws SwapException
+     */
+    private void writeMetsFile() throws IOException, UGHException, SwapException {
+        if (!fullMetsWrite) {
+            try {
+                MetsDoiWriter.insert(Paths.get(p.getMetadataFilePath()), doiType.getName(), metsInsertions);
+                metsInsertions.clear();
+                return;
+            } catch (IOException e) {
+                log.warn("The DOIs could not get inserted into the METS file of process " + p.getId() + ", writing the whole document", e);
+                fullMetsWrite = true;
+            }
+        }
+        p.writeMetadataFile(ff);
+    }
+
+    /**
+     * Update an existing DOI. Phases that an interrupted run already finished with the same payload are not done again.
+     *
+     * @param anchor
+     * @throws IOException
+     * @throws ParseException
+     */
+    private boolean updateDoi(String doi, Document doc, String fingerprint) throws ParseException, IOException {
+        String result = sendMetadata(doi, doc, false, fingerprint);
+
+        // if draft is not configured and doi is not findable, make it findable
+        if (result == null && !config.getBoolean("draft", false) && !checkpoints.hasReached(doi, fingerprint, DoiCheckpointJournal.Phase.URL_SET)) {
+            if (!DoiStatusCache.isResolvable(doi, config)) {
+                result = registry.publish(doi);
+            }
+            if (result == null) {
+                checkpoints.record(doi, DoiCheckpointJournal.Phase.URL_SET, fingerprint);
+            }
+        }
+        if (result == null) {
+            // the existing DOI is already saved in the METS file
+            checkpoints.record(doi, DoiCheckpointJournal.Phase.METS_WRITTEN, fingerprint);
+        }
+
+        // if no draft or not findable report error
+        if (result != null) {
+            journal.addMessage(p.getId(), LogType.ERROR, "The existing DOI could not get updated: " + result);
+            return false;
+        } else {
+            journal.addMessage(p.getId(), LogType.INFO, "The existing DOI was updated: " + doi);
+            return true;
+        }
+    }
+
+    /**
+     * send the metadata of a DOI unless an interrupted run already sent the same payload. If the registry publishes the DOI with the same
+     * request, the url counts as set as well.
+     *
+     * @param doi
+     * @param doc
+     * @param newDoi
+     * @param fingerprint
+     * @return null if successful, otherwise the error message of DataCite
+     * @throws IOException
+     */
+    private String sendMetadata(String doi, Document doc, boolean newDoi, String fingerprint) throws IOException {
+        if (checkpoints.hasReached(doi, fingerprint, DoiCheckpointJournal.Phase.POSTED)) {
+            return null;
+        }
+        String result = registry.sendMetadata(doi, doc, newDoi);
+        if (result == null) {
+            checkpoints.record(doi, DoiCheckpointJournal.Phase.POSTED, fingerprint);
+            if (registry.isPublishedWithMetadata()) {
+                checkpoints.record(doi, DoiCheckpointJournal.Phase.URL_SET, fingerprint);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * add the fields of a structure element: its type and page range if it is a sub element, its metadata and its persons
+     *
+     * @param contentFields
+     * @param element
+     */
+    static void addElementFields(List<ContentField> contentFields, DoiElement element) {
+        DocStruct struct = element.getStruct();
+        // add the type of the subelement if it is one and the page range, which was read with the structure index
+        if (element.isSubElement()) {
+            contentFields.add(new ContentField("SUBELEMENT", struct.getType().getName()));
+            if (element.getPageStart() != null) {
+                contentFields.add(new ContentField("SUBELEMENT-PAGE-START", element.getPageStart()));
+            }
+            if (element.getPageEnd() != null) {
+                contentFields.add(new ContentField("SUBELEMENT-PAGE-END", element.getPageEnd()));
+            }
+        }
+
+        // add all existing metadata of docstruct
+        if (struct.getAllMetadata() != null) {
+            for (Metadata m : struct.getAllMetadata()) {
+                if (StringUtils.isNotBlank(m.getValue())) {
+                    contentFields.add(new ContentField("METADATA-" + m.getType().getName(), m.getValue()));
+                }
+            }
+        }
+        // add all existing persons of docstruct
+        if (struct.getAllPersons() != null) {
+            for (Person per : struct.getAllPersons()) {
+                if (StringUtils.isNotBlank(per.getDisplayname())) {
+                    contentFields.add(new ContentField("PERSON-" + per.getRole(), per.getDisplayname()));
+                }
+            }
+        }
+    }
+
+    /**
+     * If the element already has a DOI, return it, otherwise return null.
+     * 
+     * @param docstruct
+     * @return
+     */
+    static String getExistingMetadata(DocStruct docstruct, MetadataType type) {
+        List<? extends Metadata> list = docstruct.getAllMetadataByType(type);
+        if (!list.isEmpty()) {
+            return list.get(0).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * create the part of new DOI names that is the same for all elements of the process, it consists of the configured prefix and name
+     *
+     * @return
+     */
+    private String createDoiPostfix() {
+        String name = replacer.replace(config.getString("name"));
+        String prefix = replacer.replace(config.getString("prefix"));
+        String separator = config.getString("separator", "-");
+        String postfix = "";
+        if (StringUtils.isNotBlank(prefix)) {
+            postfix = prefix + separator;
+        }
+        if (StringUtils.isNotBlank(name)) {
+            postfix += name + separator;
+        }
+        return postfix;
+    }
+
+    /**
+     * create a list lf ContentField that contains each configured field with its preferred value in it the values are filled using the variable
+     * replacer. The values only depend on the process, therefore this is done once per run.
+     * 
+     * @return
+     * @throws ReadException
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws PreferencesException
+     * @throws SwapException
+     * @throws DAOException
+     * @throws WriteException
+     */
+    private List<ContentField> createContentFieldList() throws PreferencesException {
+        return createContentFieldList(fieldMappingPlan, ff.getDigitalDocument(), prefs, replacer);
+    }
+
+    /**
+     * create the content fields of the process from the compiled field mapping
+     *
+     * @param fieldMappingPlan
+     * @param dd
+     * @param prefs
+     * @param replacer
+     * @return
+     */
+    static List<ContentField> createContentFieldList(FieldMappingPlan fieldMappingPlan, DigitalDocument dd, Prefs prefs, VariableReplacer replacer) {
+        // the configuration is compiled once, simple metadata expressions are read directly from the document
+        replacer.setSeparator(FieldMappingPlan.SEPARATOR);
+        MetadataAccessors accessors = new MetadataAccessors(dd, prefs, replacer, FieldMappingPlan.SEPARATOR);
+        List<ContentField> contentFields = fieldMappingPlan.createContentFields(accessors);
+
+        // find out publication type
+        DocStruct top = dd.getLogicalDocStruct();
+        String topType = top.getType().getName();
+        if (top.getType().isAnchor() && top.getAllChildren() != null && !top.getAllChildren().isEmpty()) {
+            contentFields.add(new ContentField("GOOBI-ANCHOR-DOCTYPE", topType));
+            topType = top.getAllChildren().get(0).getType().getName();
+        }
+        contentFields.add(new ContentField("GOOBI-DOCTYPE", topType));
+        return contentFields;
+    }
+
+    /**
+     * create an XML Document of all contentfields
+     * 
+     * @param contentFields
+     * @return
+     */
+    static Document createXmlDocumentOfContent(List<ContentField> contentFields) {
+        Element mainElement = new Element("goobi");
+        Document doc = new Document(mainElement);
+        for (ContentField c : contentFields) {
+            Element e = new Element(c.getName());
+            e.setText(c.getValue());
+            mainElement.addContent(e);
+        }
+        return doc;
+    }
+
+    /**
+     * do the xslt transformation and pass back the transformation result as xml document, the compiled stylesheet is shared between all elements
+     * and runs
+     * 
+     * @param doc
+     * @return
+     * @throws XSLTransformException
+     * @throws IOException
+     */
+    private Document doXmlTransformation(Document doc) throws XSLTransformException {
+        String xsltfile = config.getString("xslt");
+        String xsltpath = ConfigurationHelper.getInstance().getXsltFolder() + xsltfile;
+        return XsltTemplatesCache.transform(doc, xsltpath);
+    }
+
+    /**
+     * validate the DataCite document against the configured schema, the compiled schema is shared between all elements and runs
+     *
+     * @param datacitedoc
+     * @return the errors, empty if the document is valid
+     * @throws IOException if the schema cannot be compiled
+     */
+    private List<String> validateDataCiteDocument(Document datacitedoc) throws IOException {
+        String schema = config.getString("schemaValidation/schema");
+        try {
+            return DataCiteSchemaCache.validate(datacitedoc, schema, config.getInt("schemaValidation/maxErrors", 10));
+        } catch (SAXException e) {
+            throw new IOException("The DataCite schema " + StringUtils.defaultIfBlank(schema, DataCiteSchemaCache.BUNDLED_SCHEMA)
+                    + " could not be compiled: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * receives the messages of a registration, by default they are added to the journal of the process in the Goobi database
+     */
+    public interface ProcessJournal {
+        void addMessage(Integer processId, LogType type, String message);
+    }
+}
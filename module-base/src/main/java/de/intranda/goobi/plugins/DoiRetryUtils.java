@@ -1,27 +1,168 @@
 package de.intranda.goobi.plugins;
 
-import java.time.Duration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.UnknownHostException;
+import java.util.Date;
 import java.util.concurrent.Callable;
 
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.utils.DateUtils;
+
 import lombok.extern.log4j.Log4j2;
 
 @Log4j2
 public class DoiRetryUtils {
-    public static <V, E extends Throwable> V retry(E exception, Duration wait, int maxRetries, Callable<V> callable) throws E {
-        int counter = 0;
-        while (counter < maxRetries) {
+
+    private DoiRetryUtils() {
+    }
+
+    /**
+     * execute a request and repeat it as long as the policy allows it. Only responses with a retryable status code and exceptions that indicate a
+     * temporary problem are repeated. A Retry-After header of the service is respected. If all attempts fail, the last response is returned or the
+     * last exception is thrown as cause.
+     *
+     * @param endpoint service address the request is sent to
+     * @param policy
+     * @param breaker circuit breaker of the service address
+     * @param request
+     * @return
+     * @throws IOException if the request failed or the circuit is open
+     */
+    public static HttpResult execute(String endpoint, RetryPolicy policy, CircuitBreaker breaker, Callable<HttpResult> request) throws IOException {
+        RetryBudget budget = RetryBudget.forEndpoint(endpoint);
+        budget.deposit(policy.getBudgetRatio());
+
+        HttpResult lastResult = null;
+        IOException lastException = null;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (!breaker.allowRequest()) {
+                throw new IOException("The service " + endpoint + " is not available at the moment, next attempt possible in "
+                        + breaker.getRemainingOpenTime() / 1000 + " seconds", lastException);
+            }
+
+            long retryAfter = 0;
+            // the breaker is settled on every exit, otherwise a trial request that ends with an exception would keep the circuit open
+            Outcome outcome = Outcome.FAILURE;
             try {
-                return callable.call();
-            } catch (Exception e) {
-                counter++;
-                log.error(e);
-                try {
-                    Thread.sleep(wait.toMillis() * counter);
-                } catch (InterruptedException e1) {
-                    Thread.currentThread().interrupt();
+                HttpResult result = request.call();
+                if (!policy.isRetryable(result.getStatusCode())) {
+                    outcome = Outcome.SUCCESS;
+                    return result;
                 }
+                if (result.getStatusCode() == 429) {
+                    // the service is available but asks to slow down
+                    outcome = Outcome.NEUTRAL;
+                }
+                log.warn("Attempt " + attempt + " to " + endpoint + " failed with status " + result.getStatusCode());
+                lastResult = result;
+                lastException = null;
+                retryAfter = parseRetryAfter(result.getRetryAfter());
+            } catch (IOException e) {
+                if (e.getClass() == InterruptedIOException.class) {
+                    outcome = Outcome.NEUTRAL;
+                }
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                log.warn("Attempt " + attempt + " to " + endpoint + " failed: " + e.getMessage());
+                lastResult = null;
+                lastException = e;
+            } catch (Exception e) {
+                throw new IOException("Request to " + endpoint + " failed", e);
+            } finally {
+                outcome.record(breaker);
+            }
+
+            if (attempt >= policy.getMaxAttempts()) {
+                break;
+            }
+            if (retryAfter > policy.getMaxRetryAfter()) {
+                log.warn(endpoint + " asks to wait " + retryAfter / 1000 + " seconds, giving up");
+                break;
+            }
+            if (!budget.withdraw()) {
+                log.warn("Retry budget for " + endpoint + " is exhausted, giving up");
+                break;
             }
+            sleep(Math.max(policy.getDelay(attempt), retryAfter));
+        }
+
+        if (lastResult != null) {
+            return lastResult;
+        }
+        throw new IOException("Failed after " + attempt + " attempts to " + endpoint, lastException);
+    }
+
+    /**
+     * outcome of a single attempt as it is recorded by the circuit breaker
+     */
+    private enum Outcome {
+        SUCCESS,
+        FAILURE,
+        // the attempt says nothing about the availability of the service
+        NEUTRAL;
+
+        private void record(CircuitBreaker breaker) {
+            switch (this) {
+                case SUCCESS:
+                    breaker.recordSuccess();
+                    break;
+                case FAILURE:
+                    breaker.recordFailure();
+                    break;
+                case NEUTRAL:
+                default:
+                    breaker.releaseTrial();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * check if the exception indicates a temporary problem. Unknown hosts, certificate problems, protocol errors and interrupts are not retried.
+     *
+     * @param e
+     * @return
+     */
+    static boolean isRetryable(IOException e) {
+        return !(e instanceof UnknownHostException || e instanceof SSLHandshakeException || e instanceof SSLPeerUnverifiedException
+                || e instanceof ClientProtocolException || e.getClass() == InterruptedIOException.class);
+    }
+
+    /**
+     * parse the value of a Retry-After header, which contains either seconds or a date
+     *
+     * @param value
+     * @return wait time in milliseconds, 0 if there is no valid value
+     */
+    static long parseRetryAfter(String value) {
+        if (StringUtils.isBlank(value)) {
+            return 0;
+        }
+        value = value.trim();
+        if (StringUtils.isNumeric(value)) {
+            return Long.parseLong(value) * 1000;
+        }
+        Date date = DateUtils.parseDate(value);
+        if (date == null) {
+            return 0;
+        }
+        return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next attempt");
         }
-        throw exception;
     }
 }
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+/**
+ * Short living cache of the resolvability of DOIs at DataCite, so that the status of a DOI is requested at most once within the configured time.
+ * An expired status is removed when it is accessed, if the cache is full, the status that was used least recently is removed.
+ */
+public class DoiStatusCache {
+
+    // in access order, the first entry was used least recently
+    private static final Map<String, Status> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    private DoiStatusCache() {
+    }
+
+    /**
+     * check if the DOI is resolvable at DataCite, use a cached result if it is not older than the configured time
+     *
+     * @param doi
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static boolean isResolvable(String doi, SubnodeConfiguration config) throws IOException {
+        long maxAge = config.getLong("verification/cacheSeconds", 60) * 1000;
+        String key = config.getString("serviceAddress") + doi;
+        synchronized (CACHE) {
+            Status status = CACHE.get(key);
+            if (status != null && System.currentTimeMillis() - status.timestamp <= maxAge) {
+                return status.resolvable;
+            }
+            if (status != null) {
+                CACHE.remove(key);
+            }
+        }
+        boolean resolvable = RegistryClient.forConfig(config).isResolvable(doi);
+        setResolvable(doi, resolvable, config);
+        return resolvable;
+    }
+
+    /**
+     * remember the status of a DOI that is known from a successful request
+     *
+     * @param doi
+     * @param resolvable
+     * @param config
+     */
+    public static void setResolvable(String doi, boolean resolvable, SubnodeConfiguration config) {
+        int maxSize = Math.max(1, config.getInt("verification/cacheSize", 10000));
+        synchronized (CACHE) {
+            CACHE.put(config.getString("serviceAddress") + doi, new Status(resolvable));
+            Iterator<Status> iterator = CACHE.values().iterator();
+            while (CACHE.size() > maxSize) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * get the number of cached states
+     *
+     * @return
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * remove all cached states
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static class Status {
+        private final boolean resolvable;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Status(boolean resolvable) {
+            this.resolvable = resolvable;
+        }
+    }
+}
@@ -1,11 +1,5 @@
 package de.intranda.goobi.plugins;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-
 /**
  * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
  *
@@ -25,13 +19,12 @@ import java.util.ArrayList;
  *
  */
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.List;
 
-import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.ParseException;
 import org.goobi.beans.Process;
 import org.goobi.beans.Step;
 import org.goobi.production.enums.LogType;
@@ -39,44 +32,22 @@ import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
+import org.goobi.production.plugin.interfaces.IDelayPlugin;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
-import org.jdom2.transform.XSLTransformException;
-import org.jdom2.transform.XSLTransformer;
 
-import de.sub.goobi.config.ConfigPlugins;
-import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.UghHelper;
-import de.sub.goobi.helper.VariableReplacer;
-import de.sub.goobi.helper.exceptions.DAOException;
-import de.sub.goobi.helper.exceptions.SwapException;
-import de.sub.goobi.helper.exceptions.UghHelperException;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import ugh.dl.DocStruct;
-import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
-import ugh.dl.MetadataType;
-import ugh.dl.Person;
-import ugh.dl.Reference;
-import ugh.exceptions.PreferencesException;
-import ugh.exceptions.ReadException;
-import ugh.exceptions.UGHException;
-import ugh.exceptions.WriteException;
 
 @PluginImplementation
 @Log4j2
-public class DoiStepPlugin implements IStepPluginVersion2 {
+public class DoiStepPlugin implements IStepPluginVersion2, IDelayPlugin {
 
     private static final long serialVersionUID = -9093540848644429154L;
+    public static final String PLUGIN_TITLE = "intranda_step_doi";
     @Getter
-    private String title = "intranda_step_doi";
+    private String title = PLUGIN_TITLE;
     @Getter
     private Step step;
     @Getter
@@ -85,82 +56,44 @@ public class DoiStepPlugin implements IStepPluginVersion2 {
     private boolean allowTaskFinishButtons;
     private String returnPath;
     private SubnodeConfiguration config;
-    private Process p;
-    private transient Fileformat ff;
-    private transient VariableReplacer replacer;
+    private transient StepConfigurationCache.StepConfiguration stepConfiguration;
 
     @Override
     public void initialize(Step step, String returnPath) {
         this.returnPath = returnPath;
         this.step = step;
-        config = ConfigPlugins.getProjectAndStepConfig(title, step);
+        stepConfiguration = StepConfigurationCache.get(title, step);
+        config = stepConfiguration.getConfig();
+        DoiMetrics.configure(config);
+        if (config.getBoolean("async/@enabled", false)) {
+            // continue with the outboxes that were not finished before a restart, Goobi initializes its open delay steps from the start on
+            DoiOutboxWorker.start(config);
+        }
         log.info("Doi step plugin initialized");
     }
 
     @Override
     public PluginReturnValue run() {
-        boolean successful = false;
-
-        try {
-
-            // Open the metadata file for the process and prepare the VariableReplacer
-            p = step.getProzess();
-            ff = p.readMetadataFile();
-            replacer = new VariableReplacer(ff.getDigitalDocument(), p.getRegelsatz().getPreferences(), p, null);
-
-            // load topstruct
-            List<ContentField> anchorFields = new ArrayList<>();
-            DocStruct topstruct = ff.getDigitalDocument().getLogicalDocStruct();
-            if (topstruct.getType().isAnchor()) {
-                // add all existing metadata of anchor
-                if (topstruct.getAllMetadata() != null) {
-                    for (Metadata m : topstruct.getAllMetadata()) {
-                        if (StringUtils.isNotBlank(m.getValue())) {
-                            anchorFields.add(new ContentField("ANCHOR-METADATA-" + m.getType().getName(), m.getValue()));
-                        }
-                    }
-                }
-                // add all existing persons of anchor
-                if (topstruct.getAllPersons() != null) {
-                    for (Person per : topstruct.getAllPersons()) {
-                        if (StringUtils.isNotBlank(per.getDisplayname())) {
-                            anchorFields.add(new ContentField("ANCHOR-PERSON-" + per.getRole(), per.getDisplayname()));
-                        }
-                    }
-                }
-                topstruct = topstruct.getAllChildren().get(0);
-            }
-
-            // read catalogue identifier
-            MetadataType idType = p.getRegelsatz().getPreferences().getMetadataTypeByName("CatalogIDDigital");
-            String myId = getExistingMetadata(topstruct, idType);
-
-            // create or update doi for top element
-            successful = processElement(topstruct, myId, false, anchorFields);
-
-            if (successful) {
-                // get the list of all subelement types to register/update as well
-                List<String> subTypes = new ArrayList<>();
-                for (Object o : config.getList("structureType")) {
-                    subTypes.add((String) o);
-                }
-
-                // iterate through all subelements to see if these match to the searched types
-                if (!subTypes.isEmpty()) {
-                    List<DocStruct> subs = getAllSubElementsOfType(topstruct, subTypes);
-                    for (DocStruct ds : subs) {
-                        successful = processElement(ds, myId + "_" + (subs.indexOf(ds) + 1), true, anchorFields);
-                    }
-                }
-            }
-
-        } catch (UGHException | IOException | SwapException | JDOMException | UghHelperException e) {
-            log.error("Error while executing the DOI plugin", e);
-            Helper.addMessageToProcessJournal(getStep().getProcessId(), LogType.ERROR,
-                    "An error happend during the registration of DOIs: " + e.getMessage());
+        if (config.getBoolean("reconciliation/@enabled", false)) {
+            // the step reconciles the DOIs of all processes instead of registering the DOIs of its own process
+            return runReconciliation();
+        }
+        HttpClientPool.Statistics httpStatistics = HttpClientPool.getStatistics(config);
+        if (config.getBoolean("async/@enabled", false)) {
+            PluginReturnValue ret = runAsync();
+            DoiMetrics.writePrometheusFile();
+            return ret;
+        }
+        boolean successful;
+        if (config.getBoolean("batch/@enabled", false) && step.getProzess().getBatch() != null) {
+            // the DOIs of all processes of the batch are registered together
+            successful = DoiBatchRegistration.registerBatchOf(step, title);
+        } else {
+            successful = new DoiRegistration(step.getProzess(), stepConfiguration).register(null);
         }
 
-        log.info("Doi step plugin executed");
+        log.info("Doi step plugin executed: " + HttpClientPool.getStatistics(config).since(httpStatistics));
+        DoiMetrics.writePrometheusFile();
         if (!successful) {
             return PluginReturnValue.ERROR;
         }
@@ -168,355 +101,111 @@ public class DoiStepPlugin implements IStepPluginVersion2 {
     }
 
     /**
-     * Iterate through all sub elements of a given DocStruct
+     * prepare the DataCite documents of all elements and add them to the outbox of the process. The step waits until the outbox worker registered
+     * them in the background and closes it.
      *
-     * @param subTypes
      * @return
      */
-    private List<DocStruct> getAllSubElementsOfType(DocStruct parent, List<String> subTypes) {
-        List<DocStruct> found = new ArrayList<>();
-        for (DocStruct child : parent.getAllChildrenAsFlatList()) {
-            if (subTypes.contains(child.getType().getName())) {
-                found.add(child);
-            }
-        }
-        return found;
-    }
-
-    /**
-     * create or update a doi for a given structure element
-     * 
-     * @param struct
-     * @param myId
-     * @return
-     * @throws IOException
-     * @throws UGHException
-     * @throws SwapException
-     * @throws XSLTransformException
-     * @throws UghHelperException
-     */
-    private boolean processElement(DocStruct struct, String myId, boolean isSubElement, List<ContentField> anchorFields)
-            throws IOException, UGHException, SwapException, XSLTransformException, UghHelperException {
-        boolean successful = false;
-
-        // try to read existing DOI
-        String doiTypeName = config.getString("metadata", "DOI");
-        MetadataType doiType = p.getRegelsatz().getPreferences().getMetadataTypeByName(doiTypeName);
-        String myDoi = getExistingMetadata(struct, doiType);
-        boolean hadDoi = StringUtils.isNotBlank(myDoi);
-
-        // add the new or existing DOI as contentfield
-        if (!hadDoi) {
-            // prepare a new DOI name if not existing
-
-            String name = replacer.replace(config.getString("name"));
-            String prefix = replacer.replace(config.getString("prefix"));
-            String separator = config.getString("separator", "-");
-            String postfix = "";
-            if (StringUtils.isNotBlank(prefix)) {
-                postfix = prefix + separator;
-            }
-            if (StringUtils.isNotBlank(name)) {
-                postfix += name + separator;
-            }
-            myDoi = config.getString("base") + "/" + postfix + myId;
-        }
-
-        // create the list of all content fields with metadata replaced in it
-        List<ContentField> contentFields = createContentFieldList();
-        contentFields.add(new ContentField("GOOBI-DOI", myDoi));
-        contentFields.addAll(anchorFields);
-
-        // add the type of the subelement if it is one and the page range
-        if (isSubElement) {
-            contentFields.add(new ContentField("SUBELEMENT", struct.getType().getName()));
-
-            // get first and last assigned page
-            List<Reference> refs = struct.getAllToReferences("logical_physical");
-            if (refs != null && !refs.isEmpty()) {
-                MetadataType mdt = new UghHelper().getMetadataType(p.getRegelsatz().getPreferences(), "logicalPageNumber");
-
-                List<? extends Metadata> listStart = refs.get(0).getTarget().getAllMetadataByType(mdt);
-                List<? extends Metadata> listEnd = refs.get(refs.size() - 1).getTarget().getAllMetadataByType(mdt);
-
-                if (listStart != null && !listStart.isEmpty()) {
-                    contentFields.add(new ContentField("SUBELEMENT-PAGE-START", listStart.get(0).getValue()));
-                }
-                if (listEnd != null && !listEnd.isEmpty()) {
-                    contentFields.add(new ContentField("SUBELEMENT-PAGE-END", listEnd.get(0).getValue()));
-                }
+    private PluginReturnValue runAsync() {
+        Process p = step.getProzess();
+        Path folder = DoiOutboxWorker.getFolder(config);
+        try {
+            if (hasReadyOutbox()) {
+                Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "The DOIs of this process are still being registered in the background.");
+                DoiOutboxWorker.start(config);
+                return PluginReturnValue.WAIT;
             }
 
-        }
-
-        // add all existing metadata of docstruct
-        if (struct.getAllMetadata() != null) {
-            for (Metadata m : struct.getAllMetadata()) {
-                if (StringUtils.isNotBlank(m.getValue())) {
-                    contentFields.add(new ContentField("METADATA-" + m.getType().getName(), m.getValue()));
-                }
-            }
-        }
-        // add all existing persons of docstruct
-        if (struct.getAllPersons() != null) {
-            for (Person per : struct.getAllPersons()) {
-                if (StringUtils.isNotBlank(per.getDisplayname())) {
-                    contentFields.add(new ContentField("PERSON-" + per.getRole(), per.getDisplayname()));
-                }
+            DoiOutbox outbox = DoiOutbox.create(folder, p.getId(), step.getId());
+            DoiRegistration registration = new DoiRegistration(p, stepConfiguration);
+            registration.setOutbox(outbox);
+            if (!registration.register(null)) {
+                outbox.delete();
+                return PluginReturnValue.ERROR;
             }
-        }
-
-        // create an xml document to allow xslt transformation afterwards
-        Document doc = createXmlDocumentOfContent(contentFields);
-
-        // if debug mode is switched on write that xml file into Goobi temp folder
-        if (config.getBoolean("debugMode", false)) {
-            writeDocumentToFile(doc, "doi_in.xml");
-        }
-
-        // do the xslt transformation
-        Document datacitedoc = doXmlTransformation(doc);
-
-        // if debug mode is switched on write that xml file into Goobi temp folder
-        if (config.getBoolean("debugMode", false)) {
-            writeDocumentToFile(datacitedoc, "doi_out.xml");
-        }
-
-        // create or update DOI
-        if (!hadDoi) {
-            // register a complete new DOI
-            successful = createDoi(struct, myDoi, doiType, datacitedoc);
-        } else {
-            // update the existing DOI
-            updateDoi(myDoi, datacitedoc);
-            successful = true;
-        }
-
-        // check if doi is accessible
-        log.debug("DOI is accessible: " + HelperHttp.checkUrlBasicAuth("doi/" + myDoi, config));
-        return successful;
-    }
-
-    /**
-     * create doi and save it in the docstruct.
-     * 
-     * @param prefs
-     * @param iIndex
-     * @param anchor
-     * @param anchor
-     * 
-     * @return Returns the doi.
-     * @throws JDOMException
-     * @throws UGHException
-     * @throws DAOException
-     * @throws SwapException
-     * @throws InterruptedException
-     */
-    private boolean createDoi(DocStruct docstruct, String doi, MetadataType doiType, Document doc) throws IOException, UGHException, SwapException {
-
-        // draft for DOI
-        String result = HelperHttp.postXmlBasicAuth(doc, "metadata/" + doi, config);
-
-        // if drafting was successful write metadata or make it findable
-        if (StringUtils.isBlank(result)) {
-
-            // if draft is configured finish here
-            if (config.getBoolean("draft", false)) {
-                // Write DOI metadata into the docstruct.
-                Metadata md = new Metadata(doiType);
-                md.setValue(doi);
-                docstruct.addMetadata(md);
-                p.writeMetadataFile(ff);
-                Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "A new DOI was drafted: " + doi);
-
-                // if drafting was successful then make it findable
-            } else {
-                String viewer = config.getString("viewer");
-                String text = "doi=" + doi + "\n" + "url=" + viewer + doi;
-                result = HelperHttp.putTxtBasicAuth(text, "doi/" + doi, config);
-
-                // if findable then update METS file
-                if (StringUtils.isBlank(result)) {
-                    // Write DOI metadata into the docstruct.
-                    Metadata md = new Metadata(doiType);
-                    md.setValue(doi);
-                    docstruct.addMetadata(md);
-                    p.writeMetadataFile(ff);
-                    Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "A new DOI was registered: " + doi);
-                }
+            if (outbox.getEntries().isEmpty()) {
+                // nothing changed
+                outbox.delete();
+                return PluginReturnValue.FINISH;
             }
+            outbox.setReady();
+        } catch (IOException e) {
+            log.error("Error while adding the DOIs to the outbox", e);
+            Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, "The DOIs could not get added to the outbox: " + e.getMessage());
+            return PluginReturnValue.ERROR;
         }
-
-        // if no draft or not findable report error
-        if (StringUtils.isNotBlank(result)) {
-            Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, "A new DOI could not get registered: " + result);
-            return false;
-        }
-        return true;
+        DoiOutboxWorker.start(config);
+        return PluginReturnValue.WAIT;
     }
 
     /**
-     * Update an existing DOI
+     * check if the process has an outbox that the worker registers in the background
      *
-     * @param anchor
+     * @return
      * @throws IOException
-     * @throws ParseException
      */
-    private boolean updateDoi(String doi, Document doc) throws ParseException, IOException {
-
-        String result = HelperHttp.putXmlBasicAuth(doc, "metadata/" + doi, config);
-
-        // if draft is not configured and doi is not findable, make it findable
-        if (StringUtils.isBlank(result) && !config.getBoolean("draft", false) && !HelperHttp.checkUrlBasicAuth("doi/" + doi, config)) {
-            String viewer = config.getString("viewer");
-            String text = "doi=" + doi + "\n" + "url=" + viewer + doi;
-            result = HelperHttp.putTxtBasicAuth(text, "doi/" + doi, config);
-        }
-
-        // if no draft or not findable report error
-        if (StringUtils.isNotBlank(result)) {
-            Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, "The existing DOI could not get updated: " + result);
-            return false;
-        } else {
-            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "The existing DOI was updated: " + doi);
-            return true;
-        }
+    private boolean hasReadyOutbox() throws IOException {
+        Path file = DoiOutbox.getFile(DoiOutboxWorker.getFolder(config), step.getProzess().getId());
+        return Files.exists(file) && DoiOutbox.load(file).isReady();
     }
 
     /**
-     * If the element already has a DOI, return it, otherwise return null.
-     * 
-     * @param docstruct
+     * continue the reconciliation of the DOIs of the processes with the DOIs registered at DataCite. The summary of the run is written into the
+     * journal of the process of the step.
+     *
      * @return
      */
-    private String getExistingMetadata(DocStruct docstruct, MetadataType type) {
-        List<? extends Metadata> list = docstruct.getAllMetadataByType(type);
-        if (!list.isEmpty()) {
-            return list.get(0).getValue();
+    private PluginReturnValue runReconciliation() {
+        Process p = step.getProzess();
+        try {
+            DoiReconciliation.Summary summary = DoiReconciliation.reconcile(step, config);
+            String message = summary.isComplete() ? "The DOI reconciliation was finished: " : "The DOI reconciliation was paused: ";
+            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, message + summary);
+            return PluginReturnValue.FINISH;
+        } catch (IOException e) {
+            log.error("Error during the DOI reconciliation", e);
+            Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, "The DOI reconciliation failed: " + e.getMessage());
+            return PluginReturnValue.ERROR;
         }
-        return null;
     }
 
     /**
-     * create a list lf ContentField that contains each configured field with its preferred value in it the values are filled using the variable
-     * replacer
-     * 
-     * @return
-     * @throws ReadException
-     * @throws IOException
-     * @throws InterruptedException
-     * @throws PreferencesException
-     * @throws SwapException
-     * @throws DAOException
-     * @throws WriteException
+     * Goobi checks its open delay steps regularly and right after a restart. If the step is a delay step, the first check registers the DOIs or
+     * adds them to the outbox, the later checks only start the worker for the outbox in initialize. The worker closes the step itself.
+     *
+     * @return true if Goobi can close the step
      */
-    private List<ContentField> createContentFieldList() throws PreferencesException {
-        // Create a list of variables
-        List<ContentField> contentFields = new ArrayList<>();
-        String separator = "; ";
-        replacer.setSeparator(separator);
-
-        // run through all defined fields to fill their content
-        List<HierarchicalConfiguration> fields = config.configurationsAt("field");
-        for (HierarchicalConfiguration field : fields) {
-
-            // run through all data elements to get a field value
-            String val = null;
-            List<HierarchicalConfiguration> datas = field.configurationsAt("data");
-            for (HierarchicalConfiguration d : datas) {
-                String content = d.getString("@content");
-                String result = replacer.replace(content);
-                // if the content ist not empty and it is different from the variable use it
-                if (StringUtils.isNotBlank(result) && !result.equals(content)) {
-                    val = result;
-                    break;
-                }
-            }
-            // if no content was set yet then set the default if available
-            if (StringUtils.isBlank(val)) {
-                String thedefault = field.getString("@default");
-                if (!StringUtils.isBlank(thedefault)) {
-                    val = thedefault;
-                }
-            }
-            if (val != null) {
-                // if the field is repeatable create multiple ContentFields for each entry (separated by semicolon)
-                boolean repeatable = field.getBoolean("@repeatable", false);
-                if (!repeatable || !val.contains(separator)) {
-                    ContentField cf = new ContentField();
-                    cf.setName(field.getString("@name"));
-                    cf.setValue(val);
-                    contentFields.add(cf);
-                } else {
-                    String[] vlist = val.split(separator);
-                    for (String v : vlist) {
-                        ContentField cf = new ContentField();
-                        cf.setName(field.getString("@name"));
-                        cf.setValue(v);
-                        contentFields.add(cf);
-                    }
-                }
+    @Override
+    public boolean delayIsExhausted() {
+        try {
+            if (config.getBoolean("async/@enabled", false) && hasReadyOutbox()) {
+                return false;
             }
+        } catch (IOException e) {
+            log.error("Error while reading the DOI outbox", e);
+            return false;
         }
-
-        // find out publication type
-        DocStruct top = ff.getDigitalDocument().getLogicalDocStruct();
-        String topType = top.getType().getName();
-        if (top.getType().isAnchor() && top.getAllChildren() != null && !top.getAllChildren().isEmpty()) {
-            contentFields.add(new ContentField("GOOBI-ANCHOR-DOCTYPE", topType));
-            topType = top.getAllChildren().get(0).getType().getName();
+        PluginReturnValue ret = run();
+        if (ret == PluginReturnValue.ERROR) {
+            // otherwise the registration would be repeated with every check
+            GoobiOutboxTransport.setError(step);
         }
-        contentFields.add(new ContentField("GOOBI-DOCTYPE", topType));
-        return contentFields;
+        return ret == PluginReturnValue.FINISH;
     }
 
-    /**
-     * create an XML Document of all contentfields
-     * 
-     * @param contentFields
-     * @return
-     */
-    private Document createXmlDocumentOfContent(List<ContentField> contentFields) {
-        Element mainElement = new Element("goobi");
-        Document doc = new Document(mainElement);
-        for (ContentField c : contentFields) {
-            Element e = new Element(c.getName());
-            e.setText(c.getValue());
-            mainElement.addContent(e);
-        }
-        return doc;
+    @Override
+    public String getDelayMessage() {
+        return "The DOIs of this process are registered in the background.";
     }
 
-    /**
-     * do the xslt transformation and pass back the transformation result as xml document
-     * 
-     * @param doc
-     * @return
-     * @throws XSLTransformException
-     * @throws IOException
-     */
-    private Document doXmlTransformation(Document doc) throws XSLTransformException {
-        String xsltfile = config.getString("xslt");
-        String xsltpath = ConfigurationHelper.getInstance().getXsltFolder() + xsltfile;
-        XSLTransformer transformer;
-        transformer = new XSLTransformer(xsltpath);
-        return transformer.transform(doc);
+    @Override
+    public void setDelay(long number) {
+        // the delay ends when the worker finished the outbox
     }
 
-    /**
-     * write xml document into the file system
-     *
-     * @param doc
-     * @param filename
-     * @throws IOException
-     * @throws FileNotFoundException
-     */
-    private void writeDocumentToFile(Document doc, String filename) throws IOException {
-        XMLOutputter xmlOutputter = new XMLOutputter(Format.getPrettyFormat());
-        File f = new File(ConfigurationHelper.getInstance().getTemporaryFolder(), filename);
-        try (FileOutputStream fileOutputStream = new FileOutputStream(f)) {
-            xmlOutputter.output(doc, fileOutputStream);
-        }
+    @Override
+    public long getDelay() {
+        return 0;
     }
 
     @Override
@@ -0,0 +1,70 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.production.enums.LogType;
+
+import de.sub.goobi.helper.Helper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Checks a sample of the registered DOIs in the background some time after their registration and reports DOIs that cannot be resolved at
+ * DataCite to the process journal. The step does not wait for these checks.
+ */
+@Log4j2
+public class DoiVerifier {
+
+    // checks that are not started yet, if there are more the new DOIs are not sampled
+    private static final int MAX_PENDING = 1000;
+
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "doi-verification");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private DoiVerifier() {
+    }
+
+    /**
+     * schedule the verification of the DOI if it gets selected by the configured sample rate
+     *
+     * @param processId
+     * @param doi
+     * @param config
+     * @return true if the DOI will be verified
+     */
+    public static boolean submit(Integer processId, String doi, SubnodeConfiguration config) {
+        double sampleRate = config.getDouble("verification/sampleRate", 0.1);
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return false;
+        }
+        if (EXECUTOR.getQueue().size() >= MAX_PENDING) {
+            log.debug("Too many pending DOI verifications, skipping " + doi);
+            return false;
+        }
+        long delay = config.getLong("verification/delaySeconds", 30);
+        EXECUTOR.schedule(() -> verify(processId, doi, config), delay, TimeUnit.SECONDS);
+        return true;
+    }
+
+    private static void verify(Integer processId, String doi, SubnodeConfiguration config) {
+        try {
+            if (RegistryClient.forConfig(config).isResolvable(doi)) {
+                log.debug("DOI is accessible: " + doi);
+            } else {
+                Helper.addMessageToProcessJournal(processId, LogType.WARN, "The DOI could not get resolved at DataCite: " + doi);
+            }
+        } catch (IOException e) {
+            log.warn("Verification of DOI " + doi + " failed", e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+
+/**
+ * Immutable compiled form of the <code>field</code> definitions of the plugin configuration. The configuration is read once, afterwards the
+ * content fields can be created without accessing the configuration again.
+ */
+public class FieldMappingPlan {
+
+    /** separator between the values of repeatable metadata */
+    public static final String SEPARATOR = "; ";
+
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile(Pattern.quote(SEPARATOR));
+
+    @Getter
+    private final List<FieldMapping> fields;
+
+    private FieldMappingPlan(List<FieldMapping> fields) {
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * compile all <code>field</code> elements of the configuration
+     *
+     * @param config
+     * @return
+     */
+    public static FieldMappingPlan compile(HierarchicalConfiguration config) {
+        List<FieldMapping> fields = new ArrayList<>();
+        for (HierarchicalConfiguration field : config.configurationsAt("field")) {
+            List<String> contents = new ArrayList<>();
+            for (HierarchicalConfiguration d : field.configurationsAt("data")) {
+                contents.add(d.getString("@content"));
+            }
+            fields.add(new FieldMapping(field.getString("@name"), contents, field.getString("@default"), field.getBoolean("@repeatable", false)));
+        }
+        return new FieldMappingPlan(fields);
+    }
+
+    /**
+     * create the content fields with the values of the given resolver. Each field gets the first data content that could be resolved, or its
+     * default value otherwise.
+     *
+     * @param resolver
+     * @return
+     */
+    public List<ContentField> createContentFields(ContentResolver resolver) {
+        List<ContentField> contentFields = new ArrayList<>();
+        for (FieldMapping field : fields) {
+            String val = null;
+            for (String content : field.getContents()) {
+                String result = resolver.resolve(content);
+                if (StringUtils.isNotBlank(result)) {
+                    val = result;
+                    break;
+                }
+            }
+            // if no content was set yet then set the default if available
+            if (StringUtils.isBlank(val) && StringUtils.isNotBlank(field.getDefaultValue())) {
+                val = field.getDefaultValue();
+            }
+            if (val != null) {
+                // if the field is repeatable create multiple ContentFields for each entry
+                if (!field.isRepeatable() || !val.contains(SEPARATOR)) {
+                    contentFields.add(new ContentField(field.getName(), val));
+                } else {
+                    for (String v : SEPARATOR_PATTERN.split(val)) {
+                        contentFields.add(new ContentField(field.getName(), v));
+                    }
+                }
+            }
+        }
+        return contentFields;
+    }
+
+    @FunctionalInterface
+    public interface ContentResolver {
+        /**
+         * get the value of the content of a data element
+         *
+         * @param content
+         * @return the value or null if no value was found
+         */
+        String resolve(String content);
+    }
+
+    @Getter
+    public static class FieldMapping {
+        private final String name;
+        private final List<String> contents;
+        private final String defaultValue;
+        private final boolean repeatable;
+
+        private FieldMapping(String name, List<String> contents, String defaultValue, boolean repeatable) {
+            this.name = name;
+            this.contents = Collections.unmodifiableList(contents);
+            this.defaultValue = defaultValue;
+            this.repeatable = repeatable;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.LogType;
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+
+import de.sub.goobi.helper.CloseStepHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.enums.StepStatus;
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.StepManager;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.exceptions.UGHException;
+
+/**
+ * Sends the entries of the outbox of a process to DataCite, writes the DOIs into the METS file of the process and closes its step
+ */
+@Log4j2
+public class GoobiOutboxTransport implements DoiOutboxWorker.Transport {
+
+    private final Step step;
+    private final Process p;
+    private final SubnodeConfiguration config;
+
+    public GoobiOutboxTransport(int stepId) {
+        step = StepManager.getStepById(stepId);
+        p = step.getProzess();
+        config = StepConfigurationCache.get(DoiStepPlugin.PLUGIN_TITLE, step).getConfig();
+    }
+
+    @Override
+    public String send(OutboxEntry entry) throws IOException {
+        Document doc;
+        try {
+            doc = new SAXBuilder().build(new StringReader(entry.getDatacite()));
+        } catch (JDOMException e) {
+            return "The DataCite document is not valid: " + e.getMessage();
+        }
+
+        String error;
+        AdaptiveRateLimiter.setClient(String.valueOf(p.getId()));
+        DoiMetrics.setContext(p.getProjekt() != null ? p.getProjekt().getTitel() : null, entry.getStructType());
+        try {
+            RegistryClient registry = RegistryClient.forConfig(config);
+            error = entry.isNewDoi() ? registry.create(entry.getDoi(), doc) : registry.update(entry.getDoi(), doc);
+        } finally {
+            DoiMetrics.clearContext();
+            AdaptiveRateLimiter.clearClient();
+        }
+
+        if (error != null) {
+            String text = entry.isNewDoi() ? "A new DOI could not get registered: " : "The existing DOI could not get updated: ";
+            Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, text + error);
+            return error;
+        }
+        if (!entry.isNewDoi()) {
+            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "The existing DOI was updated: " + entry.getDoi());
+        } else if (config.getBoolean("draft", false)) {
+            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "A new DOI was drafted: " + entry.getDoi());
+        } else {
+            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "A new DOI was registered: " + entry.getDoi());
+        }
+        if (!config.getBoolean("draft", false)) {
+            DoiVerifier.submit(p.getId(), entry.getDoi(), config);
+        }
+        return null;
+    }
+
+    @Override
+    public void writeBack(List<OutboxEntry> entries) throws IOException {
+        try {
+            Fileformat ff = p.readMetadataFile();
+            DocStruct topstruct = ff.getDigitalDocument().getLogicalDocStruct();
+            DocStruct anchor = null;
+            if (topstruct.getType().isAnchor()) {
+                anchor = topstruct;
+                topstruct = topstruct.getAllChildren().get(0);
+            }
+            // same order as the positions of the outbox, with fast access by position
+            List<DocStruct> children = StructureIndex.flatten(topstruct);
+            MetadataType doiType = p.getRegelsatz().getPreferences().getMetadataTypeByName(config.getString("metadata", "DOI"));
+            DoiFingerprintStore fingerprints = new DoiFingerprintStore(Paths.get(p.getProcessDataDirectory(), DoiFingerprintStore.FILENAME));
+
+            for (OutboxEntry entry : entries) {
+                fingerprints.put(entry.getDoi(), entry.getFingerprint());
+                if (entry.isNewDoi()) {
+                    DocStruct struct = entry.getStructIndex() == 0 ? topstruct : null;
+                    if (entry.getStructIndex() == DoiElement.ANCHOR_POSITION) {
+                        struct = anchor;
+                    }
+                    if (entry.getStructIndex() > 0 && entry.getStructIndex() <= children.size()) {
+                        struct = children.get(entry.getStructIndex() - 1);
+                    }
+                    if (struct == null || !struct.getType().getName().equals(entry.getStructType())) {
+                        // the structure was changed while the DOI was registered
+                        Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR,
+                                "The DOI " + entry.getDoi() + " could not get saved in the METS file, the element does not exist anymore.");
+                    } else if (!hasDoi(struct, doiType, entry.getDoi())) {
+                        Metadata md = new Metadata(doiType);
+                        md.setValue(entry.getDoi());
+                        struct.addMetadata(md);
+                    }
+                }
+            }
+            p.writeMetadataFile(ff);
+            fingerprints.save();
+        } catch (UGHException | SwapException e) {
+            throw new IOException("The DOIs could not get saved in the METS file", e);
+        }
+    }
+
+    private static boolean hasDoi(DocStruct struct, MetadataType doiType, String doi) {
+        List<? extends Metadata> list = struct.getAllMetadataByType(doiType);
+        if (list != null) {
+            for (Metadata md : list) {
+                if (StringUtils.equals(doi, md.getValue())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void finish(DoiOutbox outbox, boolean successful) {
+        if (successful) {
+            Helper.addMessageToProcessJournal(p.getId(), LogType.INFO, "All DOIs were registered in the background.");
+            CloseStepHelper.closeStep(step, null);
+            return;
+        }
+        Helper.addMessageToProcessJournal(p.getId(), LogType.ERROR, "Not all DOIs could get registered in the background.");
+        setError(step);
+    }
+
+    /**
+     * set the step to error
+     *
+     * @param step
+     */
+    static void setError(Step step) {
+        step.setBearbeitungsstatusEnum(StepStatus.ERROR);
+        try {
+            StepManager.saveStep(step);
+        } catch (DAOException e) {
+            log.error("Error while saving the status of step " + step.getId(), e);
+        }
+    }
+}
@@ -1,26 +1,41 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpHeaders;
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.fluent.Executor;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.jdom2.Document;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
 
+import lombok.extern.log4j.Log4j2;
+
+@Log4j2
 public class HelperHttp {
 
+    private static final String JSON_API = "application/vnd.api+json";
+
     /**
      * Check if the URL works
      * 
@@ -50,15 +65,7 @@ public class HelperHttp {
      * @throws IOException
      */
     public static boolean checkUrlBasicAuth(String urlSuffix, SubnodeConfiguration config) throws ClientProtocolException, IOException {
-        String password = config.getString("password");
-        String user = config.getString("username");
-        String url = config.getString("serviceAddress") + urlSuffix;
-        Executor executor = Executor.newInstance().auth(user, password);
-        int responseCode = DoiRetryUtils.retry(new IOException("Failed after retries"), Duration.ofSeconds(5l), 4,
-                () -> executor.execute(Request.Get(url).connectTimeout(10000).socketTimeout(10000))
-                        .returnResponse()
-                        .getStatusLine()
-                        .getStatusCode());
+        int responseCode = getBasicAuth(urlSuffix, config).getStatusCode();
         if (responseCode != 200) {
             return false;
         } else {
@@ -66,6 +73,51 @@ public class HelperHttp {
         }
     }
 
+    /**
+     * call url using GET with basic auth and return the response
+     *
+     * @param urlSuffix
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult getBasicAuth(String urlSuffix, SubnodeConfiguration config) throws IOException {
+        HttpGet get = new HttpGet(config.getString("serviceAddress") + urlSuffix);
+        return execute(get, urlSuffix, config);
+    }
+
+    /**
+     * call url of the REST API using GET with basic auth and return the JSON:API response
+     *
+     * @param urlSuffix
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult getJsonBasicAuth(String urlSuffix, SubnodeConfiguration config) throws IOException {
+        HttpGet get = new HttpGet(config.getString("serviceAddress") + urlSuffix);
+        get.addHeader("Accept", JSON_API);
+        return execute(get, urlSuffix, config);
+    }
+
+    /**
+     * call url using GET with basic auth and read the JSON response of a successful request as stream, so that a big response is never kept in
+     * memory as a whole. The body of a failed request is returned in the result.
+     *
+     * @param url complete url, it can belong to another service of DataCite than the configured service address
+     * @param endpoint first part of the path for the metrics, e.g. <code>dois</code>
+     * @param config
+     * @param reader reads the response of a successful request, it is called again if the request is repeated
+     * @return
+     * @throws IOException
+     */
+    public static HttpResult getJsonStreamBasicAuth(String url, String endpoint, SubnodeConfiguration config, StreamReader reader)
+            throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader("Accept", JSON_API);
+        return execute(get, endpoint, config, reader);
+    }
+
     /**
      * call post url and send xml to it using basic auth
      *
@@ -77,29 +129,16 @@ public class HelperHttp {
      * @throws IOException
      */
     public static String postXmlBasicAuth(Document doc, String urlSuffix, SubnodeConfiguration config) throws ParseException, IOException {
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-        String xmlString = outputter.outputString(doc);
-        byte[] xmlStringAsArray = xmlString.getBytes(StandardCharsets.UTF_8);
-        String password = config.getString("password");
-        String user = config.getString("username");
+        logDocument(doc, urlSuffix);
         String url = config.getString("serviceAddress") + urlSuffix;
 
-        Executor executor = Executor.newInstance().auth(user, password);
-        Request r = Request.Post(url)
-                .addHeader("Content-Type", "application/xml;charset=UTF-8")
-                .useExpectContinue()
-                .connectTimeout(10000)
-                .socketTimeout(10000)
-                .bodyByteArray(xmlStringAsArray);
-
-        HttpResponse hr = DoiRetryUtils.retry(new IOException("Failed after retries"), Duration.ofSeconds(5l), 4,
-                () -> executor.execute(r).returnResponse());
-        HttpEntity entity = hr.getEntity();
-        String info = EntityUtils.toString(entity, "utf-8");
-        int responseCode = hr.getStatusLine().getStatusCode();
-
-        if (responseCode != 201) {
-            return info;
+        HttpPost post = new HttpPost(url);
+        post.addHeader("Content-Type", "application/xml;charset=UTF-8");
+        post.setEntity(new XmlDocumentEntity(doc));
+
+        HttpResult hr = execute(post, urlSuffix, config);
+        if (hr.getStatusCode() != 201) {
+            return hr.getBody();
         }
         return "";
     }
@@ -115,30 +154,17 @@ public class HelperHttp {
      * @throws IOException
      */
     public static String putXmlBasicAuth(Document doc, String urlSuffix, SubnodeConfiguration config) throws ParseException, IOException {
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-        String xmlString = outputter.outputString(doc);
-        byte[] xmlStringAsArray = xmlString.getBytes(StandardCharsets.UTF_8);
-        String password = config.getString("password");
-        String user = config.getString("username");
+        logDocument(doc, urlSuffix);
         String url = config.getString("serviceAddress") + urlSuffix;
-        Executor executor = Executor.newInstance().auth(user, password);
-
-        Request r = Request.Put(url)
-                .addHeader("Content-Type", "application/xml;charset=UTF-8")
-                .addHeader("charset", "UTF-8")
-                .useExpectContinue()
-                .connectTimeout(10000)
-                .socketTimeout(10000)
-                .bodyByteArray(xmlStringAsArray);
-
-        HttpResponse hr = DoiRetryUtils.retry(new IOException("Failed after retries"), Duration.ofSeconds(5l), 4,
-                () -> executor.execute(r).returnResponse());
-        HttpEntity entity = hr.getEntity();
-        String info = EntityUtils.toString(entity, "utf-8");
-        int responseCode = hr.getStatusLine().getStatusCode();
-
-        if (responseCode != 201) {
-            return info;
+
+        HttpPut put = new HttpPut(url);
+        put.addHeader("Content-Type", "application/xml;charset=UTF-8");
+        put.addHeader("charset", "UTF-8");
+        put.setEntity(new XmlDocumentEntity(doc));
+
+        HttpResult hr = execute(put, urlSuffix, config);
+        if (hr.getStatusCode() != 201) {
+            return hr.getBody();
         }
         return "";
     }
@@ -154,27 +180,119 @@ public class HelperHttp {
      * @throws IOException
      */
     public static String putTxtBasicAuth(String text, String urlSuffix, SubnodeConfiguration config) throws ParseException, IOException {
-        String password = config.getString("password");
-        String user = config.getString("username");
         String url = config.getString("serviceAddress") + urlSuffix;
-        Executor executor = Executor.newInstance().auth(user, password);
-        Request r = Request.Put(url)
-                .addHeader("Content-Type", "text/plain;charset=UTF-8")
-                .useExpectContinue()
-                .connectTimeout(10000)
-                .socketTimeout(10000)
-                .bodyString(text, ContentType.TEXT_PLAIN);
-
-        HttpResponse hr = DoiRetryUtils.retry(new IOException("Failed after retries"), Duration.ofSeconds(5l), 4,
-                () -> executor.execute(r).returnResponse());
-        HttpEntity entity = hr.getEntity();
-        String info = EntityUtils.toString(entity, "utf-8");
-        int responseCode = hr.getStatusLine().getStatusCode();
-
-        if (responseCode != 201) {
-            return info;
+        HttpPut put = new HttpPut(url);
+        put.addHeader("Content-Type", "text/plain;charset=UTF-8");
+        put.setEntity(new StringEntity(text, ContentType.TEXT_PLAIN));
+
+        HttpResult hr = execute(put, urlSuffix, config);
+        if (hr.getStatusCode() != 201) {
+            return hr.getBody();
         }
         return "";
     }
 
+    /**
+     * call put url and send a JSON:API document to it using basic auth
+     *
+     * @param json
+     * @param urlSuffix
+     * @param config
+     * @return the response, DataCite answers with 200 or 201 if the request was successful
+     * @throws IOException
+     */
+    public static HttpResult putJsonBasicAuth(byte[] json, String urlSuffix, SubnodeConfiguration config) throws IOException {
+        String url = config.getString("serviceAddress") + urlSuffix;
+        HttpPut put = new HttpPut(url);
+        put.setEntity(new ByteArrayEntity(json, ContentType.create(JSON_API, StandardCharsets.UTF_8)));
+        return execute(put, urlSuffix, config);
+    }
+
+    /**
+     * write the document pretty printed into the log, this is only done if debug logging is enabled
+     *
+     * @param doc
+     * @param urlSuffix
+     */
+    static void logDocument(Document doc, String urlSuffix) {
+        if (log.isDebugEnabled()) {
+            log.debug("Sending to " + urlSuffix + ":\n" + new XMLOutputter(Format.getPrettyFormat()).outputString(doc));
+        }
+    }
+
+    /**
+     * execute the request with the shared client of the configured service and retry it according to the configured retry policy. The response is
+     * always consumed completely so that the connection is given back to the pool.
+     *
+     * @param request
+     * @param urlSuffix
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    private static HttpResult execute(HttpUriRequest request, String urlSuffix, SubnodeConfiguration config) throws IOException {
+        return execute(request, urlSuffix, config, null);
+    }
+
+    /**
+     * execute the request like {@link #execute(HttpUriRequest, String, SubnodeConfiguration)}, but pass the response of a successful request to
+     * the given reader instead of returning it as body
+     *
+     * @param request
+     * @param urlSuffix
+     * @param config
+     * @param reader reader of the response or null to return it as body
+     * @return
+     * @throws IOException
+     */
+    private static HttpResult execute(HttpUriRequest request, String urlSuffix, SubnodeConfiguration config, StreamReader reader)
+            throws IOException {
+        CloseableHttpClient client = HttpClientPool.getClient(config).getHttpClient();
+        AdaptiveRateLimiter limiter = AdaptiveRateLimiter.forConfig(config);
+        // the endpoint is the method and the first part of the path, e.g. "PUT doi"
+        String endpoint = request.getMethod() + " " + StringUtils.substringBefore(urlSuffix, "/");
+        // end of the previous attempt, the time until the next attempt is the time slept before the retry
+        AtomicLong previousEnd = new AtomicLong();
+        return DoiRetryUtils.execute(config.getString("serviceAddress"), RetryPolicy.fromConfig(config), CircuitBreaker.forConfig(config), () -> {
+            long attemptStart = System.nanoTime();
+            if (previousEnd.get() != 0) {
+                DoiMetrics.record(DoiMetrics.Phase.HTTP_RETRY, endpoint, attemptStart - previousEnd.get());
+            }
+            // each attempt needs a permit of the shared rate limiter
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            long start = System.nanoTime();
+            DoiMetrics.record(DoiMetrics.Phase.RATE_LIMIT_WAIT, endpoint, start - attemptStart);
+            int status = 0;
+            try (CloseableHttpResponse response = client.execute(request)) {
+                status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                String info = "";
+                if (entity != null && reader != null && status == 200) {
+                    try (InputStream in = entity.getContent()) {
+                        reader.read(in);
+                    }
+                } else if (entity != null) {
+                    info = EntityUtils.toString(entity, "utf-8");
+                }
+                Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                return new HttpResult(status, info, retryAfter == null ? null : retryAfter.getValue());
+            } finally {
+                long end = System.nanoTime();
+                previousEnd.set(end);
+                DoiMetrics.record(DoiMetrics.Phase.HTTP, endpoint, end - start);
+                if (limiter != null) {
+                    limiter.onResponse(status, TimeUnit.NANOSECONDS.toMillis(end - start));
+                }
+            }
+        });
+    }
+
+    /**
+     * reads the response of a request as stream
+     */
+    public interface StreamReader {
+        void read(InputStream in) throws IOException;
+    }
 }
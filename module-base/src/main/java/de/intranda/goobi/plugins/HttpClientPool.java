@@ -0,0 +1,218 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide registry of pooled http clients. There is one client per service address and credential set which is shared by all elements, runs and
+ * concurrently running plugin instances, so that connections (including their TLS handshake) are reused and the basic auth credentials are sent
+ * preemptively instead of waiting for a 401 challenge.
+ */
+@Log4j2
+public class HttpClientPool {
+
+    private static final Map<String, PooledClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private HttpClientPool() {
+    }
+
+    /**
+     * get the shared client for the service address and credentials of the given configuration, create it if it does not exist yet
+     *
+     * @param config
+     * @return
+     */
+    public static PooledClient getClient(SubnodeConfiguration config) {
+        String serviceAddress = config.getString("serviceAddress");
+        String user = config.getString("username");
+        String password = config.getString("password");
+        String key = serviceAddress + "|" + user + "|" + DigestUtils.sha256Hex(String.valueOf(password));
+        PooledClient client = CLIENTS.computeIfAbsent(key, k -> new PooledClient(serviceAddress, user, password, config));
+        // pool limits can be changed in the configuration while the client is already in use
+        client.applyPoolLimits(config);
+        return client;
+    }
+
+    /**
+     * get the connection statistics of the client that is used for the given configuration
+     *
+     * @param config
+     * @return
+     */
+    public static Statistics getStatistics(SubnodeConfiguration config) {
+        return getClient(config).getStatistics();
+    }
+
+    /**
+     * close all clients and their connections, the next request creates a new client
+     */
+    public static void closeAll() {
+        for (PooledClient client : CLIENTS.values()) {
+            client.close();
+        }
+        CLIENTS.clear();
+    }
+
+    public static class PooledClient {
+        @Getter
+        private final CloseableHttpClient httpClient;
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final String serviceAddress;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong connectionsOpened = new AtomicLong();
+
+        private PooledClient(String serviceAddress, String user, String password, SubnodeConfiguration config) {
+            this.serviceAddress = serviceAddress;
+
+            // count each new connection, as each of them means a new TCP (and TLS) handshake
+            HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = new HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>() {
+                @Override
+                public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig connectionConfig) {
+                    connectionsOpened.incrementAndGet();
+                    return ManagedHttpClientConnectionFactory.INSTANCE.create(route, connectionConfig);
+                }
+            };
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                    .build();
+            connectionManager = new PoolingHttpClientConnectionManager(registry, connectionFactory);
+            connectionManager.setValidateAfterInactivity(2000);
+            applyPoolLimits(config);
+
+            int connectTimeout = config.getInt("http/connectTimeout", 10000);
+            int socketTimeout = config.getInt("http/socketTimeout", 10000);
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeout)
+                    .setSocketTimeout(socketTimeout)
+                    .setConnectionRequestTimeout(connectTimeout)
+                    .setExpectContinueEnabled(true)
+                    .build();
+
+            // keep connections alive as long as the server allows it, but not longer than configured
+            long keepAlive = config.getLong("http/keepAlive", 30) * 1000;
+            DefaultConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                    long duration = super.getKeepAliveDuration(response, context);
+                    if (duration <= 0 || duration > keepAlive) {
+                        return keepAlive;
+                    }
+                    return duration;
+                }
+            };
+
+            // send the credentials with each request instead of waiting for the challenge of the server
+            String credentials = Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .setDefaultHeaders(Collections.singletonList(new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + credentials)))
+                    .addInterceptorFirst((HttpRequestInterceptor) (request, context) -> requests.incrementAndGet())
+                    .evictExpiredConnections()
+                    .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                    .build();
+            log.debug("Created pooled http client for " + serviceAddress);
+        }
+
+        private void applyPoolLimits(SubnodeConfiguration config) {
+            int maxTotal = config.getInt("http/maxConnections", 20);
+            int maxPerRoute = config.getInt("http/maxConnectionsPerRoute", 10);
+            if (connectionManager.getMaxTotal() != maxTotal) {
+                connectionManager.setMaxTotal(maxTotal);
+            }
+            if (connectionManager.getDefaultMaxPerRoute() != maxPerRoute) {
+                connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            }
+        }
+
+        /**
+         * get a snapshot of the number of requests and newly opened connections of this client
+         *
+         * @return
+         */
+        public Statistics getStatistics() {
+            return new Statistics(serviceAddress, requests.get(), connectionsOpened.get());
+        }
+
+        private void close() {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Could not close http client for " + serviceAddress, e);
+            }
+        }
+    }
+
+    @Getter
+    public static class Statistics {
+        private final String serviceAddress;
+        private final long requests;
+        private final long connectionsOpened;
+
+        public Statistics(String serviceAddress, long requests, long connectionsOpened) {
+            this.serviceAddress = serviceAddress;
+            this.requests = requests;
+            this.connectionsOpened = connectionsOpened;
+        }
+
+        /**
+         * number of requests that were sent over an already established connection
+         *
+         * @return
+         */
+        public long getConnectionsReused() {
+            return Math.max(0, requests - connectionsOpened);
+        }
+
+        /**
+         * calculate the statistics between an earlier snapshot and this one
+         *
+         * @param earlier
+         * @return
+         */
+        public Statistics since(Statistics earlier) {
+            return new Statistics(serviceAddress, requests - earlier.requests, connectionsOpened - earlier.connectionsOpened);
+        }
+
+        @Override
+        public String toString() {
+            return requests + " requests to " + serviceAddress + " using " + connectionsOpened + " new connections (" + getConnectionsReused()
+                    + " reused)";
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package de.intranda.goobi.plugins;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class HttpResult {
+    private int statusCode;
+    private String body;
+    // value of the Retry-After header, if there was one
+    private String retryAfter;
+}
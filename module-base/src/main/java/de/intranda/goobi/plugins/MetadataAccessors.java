@@ -0,0 +1,162 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.helper.VariableReplacer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+
+/**
+ * Resolves the content of the <code>data</code> elements of the fields. Simple metadata expressions like <code>{meta.TitleDocMain}</code> or
+ * <code>{metas.SubjectTopic}</code> are compiled into accessors that read the values directly from the document, their metadata type is looked
+ * up in the ruleset only once. All other expressions (e.g. persons, process properties or mixed text) are resolved by the VariableReplacer.
+ *
+ * The accessors follow the rules of the VariableReplacer: without a level the value of the first child is used if it has one, otherwise the one
+ * of the top element.
+ */
+public class MetadataAccessors implements FieldMappingPlan.ContentResolver {
+
+    private static final Pattern EXPRESSION = Pattern.compile("^(metas?)\\.(?:(topstruct|firstchild)\\.)?([^.{}()\\s]+)$", Pattern.CASE_INSENSITIVE);
+
+    private final DocStruct topstruct;
+    private final DocStruct firstchild;
+    private final Prefs prefs;
+    private final VariableReplacer replacer;
+    private final String separator;
+
+    // compiled accessors of the contents, null for the contents that are resolved by the VariableReplacer
+    private final Map<String, Accessor> accessors = new HashMap<>();
+
+    public MetadataAccessors(DigitalDocument dd, Prefs prefs, VariableReplacer replacer, String separator) {
+        this.topstruct = dd.getLogicalDocStruct();
+        this.firstchild = topstruct.getAllChildren() != null && !topstruct.getAllChildren().isEmpty() ? topstruct.getAllChildren().get(0) : null;
+        this.prefs = prefs;
+        this.replacer = replacer;
+        this.separator = separator;
+    }
+
+    /**
+     * resolve the content of a data element
+     *
+     * @param content
+     * @return the value or null if no value was found
+     */
+    @Override
+    public String resolve(String content) {
+        Accessor accessor = accessors.computeIfAbsent(content, this::compile);
+        if (accessor != null) {
+            return accessor.read();
+        }
+        // the VariableReplacer returns the content unchanged or empty if it could not replace it
+        String result = replacer.replace(content);
+        return StringUtils.isNotBlank(result) && !result.equals(content) ? result : null;
+    }
+
+    /**
+     * parse a simple metadata expression
+     *
+     * @param content
+     * @return the expression or null if the content is no simple metadata expression
+     */
+    public static Expression parse(String content) {
+        if (content == null) {
+            return null;
+        }
+        // the expression is either written as {meta.Name} or $(meta.Name)
+        String expression = content.trim();
+        if (expression.startsWith("{") && expression.endsWith("}")) {
+            expression = expression.substring(1, expression.length() - 1);
+        } else if (expression.startsWith("$(") && expression.endsWith(")")) {
+            expression = expression.substring(2, expression.length() - 1);
+        } else {
+            return null;
+        }
+        Matcher m = EXPRESSION.matcher(expression);
+        if (!m.matches()) {
+            return null;
+        }
+        Level level = m.group(2) == null ? Level.ALL : Level.valueOf(m.group(2).toUpperCase());
+        return new Expression("metas".equalsIgnoreCase(m.group(1)), level, m.group(3));
+    }
+
+    private Accessor compile(String content) {
+        Expression expression = parse(content);
+        if (expression == null) {
+            return null;
+        }
+        MetadataType type = prefs.getMetadataTypeByName(expression.getMetadataName());
+        if (type == null || type.getIsPerson()) {
+            return null;
+        }
+        return new Accessor(expression, type);
+    }
+
+    private static List<String> getValues(DocStruct struct, MetadataType type, boolean all) {
+        List<String> values = new ArrayList<>();
+        if (struct == null) {
+            return values;
+        }
+        List<? extends Metadata> list = struct.getAllMetadataByType(type);
+        if (list != null) {
+            for (Metadata md : list) {
+                values.add(md.getValue());
+                if (!all) {
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    public enum Level {
+        ALL,
+        TOPSTRUCT,
+        FIRSTCHILD
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Expression {
+        private final boolean multipleValues;
+        private final Level level;
+        private final String metadataName;
+    }
+
+    @AllArgsConstructor
+    private class Accessor {
+        private final Expression expression;
+        private final MetadataType type;
+
+        private String read() {
+            boolean all = expression.isMultipleValues();
+            List<String> values;
+            switch (expression.getLevel()) {
+                case TOPSTRUCT:
+                    values = getValues(topstruct, type, all);
+                    break;
+                case FIRSTCHILD:
+                    values = getValues(firstchild, type, all);
+                    break;
+                default:
+                    values = getValues(firstchild, type, all);
+                    if (values.isEmpty()) {
+                        values = getValues(topstruct, type, all);
+                    }
+            }
+            String value = String.join(separator, values);
+            return StringUtils.isNotBlank(value) ? value : null;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Adds DOIs to the METS file without loading the document. The file is copied as it is and only the new <code>metadata</code> elements are
+ * inserted at the end of the goobi extension of the dmdSec of each element, everything else keeps its bytes. The elements are found by the ID of
+ * their div in the logical structure map, the type of the div must match, so that a file written by someone else in the meantime is not changed at
+ * the wrong place.
+ *
+ * If an element cannot be found or has no goobi extension the file is not changed at all and an IOException is thrown, the caller then writes the
+ * whole document instead.
+ *
+ * The new file replaces the old one with an atomic move. It gets the permissions, the owner and the group of the old file first, if they cannot be
+ * set the file is not changed either.
+ */
+public class MetsDoiWriter {
+
+    private static final Pattern ID = Pattern.compile("\\sID\\s*=\\s*([\"'])(.*?)\\1");
+    private static final Pattern ENCODING = Pattern.compile("\\sencoding\\s*=\\s*([\"'])(.*?)\\1");
+
+    private MetsDoiWriter() {
+    }
+
+    /**
+     * insert the metadata into the METS file, values the elements already have are not inserted again
+     *
+     * @param file
+     * @param metadataName name of the metadata, e.g. <code>DOI</code>
+     * @param insertions
+     * @return the number of inserted metadata
+     * @throws IOException if the file cannot be read or an element cannot be found, the file is unchanged then
+     */
+    public static int insert(Path file, String metadataName, List<Insertion> insertions) throws IOException {
+        // first pass: find the dmdSec of each element
+        MetsOutline outline = MetsOutline.read(file, Collections.singleton(metadataName));
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (Insertion insertion : insertions) {
+            MetsOutline.Structure structure = outline.getStructure(insertion.getDivId());
+            if (structure == null || !structure.getType().equals(insertion.getDivType())) {
+                throw new IOException("The element " + insertion.getDivId() + " of type " + insertion.getDivType() + " is not part of " + file);
+            }
+            if (structure.getDmdId() == null) {
+                throw new IOException("The element " + insertion.getDivId() + " of " + file + " has no metadata section");
+            }
+            if (structure.getMetadata().getOrDefault(metadataName, Collections.emptyList()).contains(insertion.getValue())) {
+                continue;
+            }
+            values.computeIfAbsent(structure.getDmdId(), k -> new ArrayList<>()).add(insertion.getValue());
+        }
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        // second pass: copy the file and insert the new metadata
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            int inserted;
+            try (Reader in = new InputStreamReader(Files.newInputStream(file),
+                    StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT));
+                    Writer out = new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8)) {
+                Copy copy = new Copy(in, out, metadataName, values);
+                copy.run();
+                inserted = copy.inserted;
+            }
+            if (!values.isEmpty()) {
+                throw new IOException("The metadata sections " + values.keySet() + " of " + file + " have no goobi extension");
+            }
+            copyFileAttributes(file, temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return inserted;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * give the temporary file the owner, the group and the permissions of the file it replaces, a temporary file is only readable by its owner
+     *
+     * @param file
+     * @param temp
+     * @throws IOException if the owner or the group cannot be set, e.g. because the file belongs to another user
+     */
+    static void copyFileAttributes(Path file, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        PosixFileAttributeView tempView = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        if (view == null || tempView == null) {
+            // not a POSIX file system
+            return;
+        }
+        PosixFileAttributes attributes = view.readAttributes();
+        PosixFileAttributes tempAttributes = tempView.readAttributes();
+        if (!attributes.owner().equals(tempAttributes.owner())) {
+            tempView.setOwner(attributes.owner());
+        }
+        if (!attributes.group().equals(tempAttributes.group())) {
+            tempView.setGroup(attributes.group());
+        }
+        // after the owner, changing it may reset some of the permissions
+        tempView.setPermissions(attributes.permissions());
+    }
+
+    /**
+     * a metadata for an element of the logical structure map
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Insertion {
+        // ID and TYPE of the div
+        private final String divId;
+        private final String divType;
+        private final String value;
+    }
+
+    /**
+     * copies the markup and the text as it is, only the start and end tags are looked at
+     */
+    private static class Copy {
+        private final Reader in;
+        private final Writer out;
+        private final String metadataName;
+        // values of each dmdSec that are not inserted yet
+        private final Map<String, List<String>> values;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int length;
+        private int inserted;
+
+        // ID of the dmdSec if it gets new metadata
+        private String dmdId;
+        // name of the goobi element of this dmdSec while it is open, its text is kept until the next tag to insert before the whitespace
+        private String goobiName;
+        private int goobiDepth;
+        private final StringBuilder text = new StringBuilder();
+        private String indent;
+
+        private Copy(Reader in, Writer out, String metadataName, Map<String, List<String>> values) {
+            this.in = in;
+            this.out = out;
+            this.metadataName = metadataName;
+            this.values = values;
+        }
+
+        private int read() throws IOException {
+            if (position == length) {
+                length = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        private void run() throws IOException {
+            boolean first = true;
+            int c;
+            while ((c = read()) != -1) {
+                if (c != '<') {
+                    if (goobiName != null) {
+                        text.append((char) c);
+                    } else {
+                        out.write(c);
+                    }
+                    continue;
+                }
+                StringBuilder markup = new StringBuilder("<");
+                int next = readInto(markup);
+                if (next == '?') {
+                    readUntil(markup, "?>");
+                    if (first) {
+                        checkDeclaration(markup);
+                    }
+                    writeMarkup(markup);
+                } else if (next == '!') {
+                    readSpecial(markup);
+                    writeMarkup(markup);
+                } else if (next == '/') {
+                    readTag(markup);
+                    endTag(markup);
+                } else {
+                    readTag(markup);
+                    startTag(markup);
+                }
+                first = false;
+            }
+        }
+
+        private int readInto(StringBuilder markup) throws IOException {
+            int c = read();
+            if (c == -1) {
+                throw new IOException("The METS file ends within a tag");
+            }
+            markup.append((char) c);
+            return c;
+        }
+
+        private void readUntil(StringBuilder markup, String end) throws IOException {
+            while (!endsWith(markup, end)) {
+                readInto(markup);
+            }
+        }
+
+        private void readSpecial(StringBuilder markup) throws IOException {
+            // comments and CDATA sections are copied without looking into them
+            while (markup.length() < 4) {
+                readInto(markup);
+            }
+            if ("<!--".contentEquals(markup)) {
+                readUntil(markup, "-->");
+                return;
+            }
+            while (markup.length() < 9 && "<![CDATA[".startsWith(markup.toString())) {
+                readInto(markup);
+            }
+            if (!"<![CDATA[".contentEquals(markup)) {
+                throw new IOException("The METS file contains a document type declaration");
+            }
+            readUntil(markup, "]]>");
+        }
+
+        private void readTag(StringBuilder markup) throws IOException {
+            // a '>' can be part of an attribute value
+            char quote = 0;
+            while (true) {
+                char c = (char) readInto(markup);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return;
+                }
+            }
+        }
+
+        private void startTag(StringBuilder markup) throws IOException {
+            String name = getName(markup, 1);
+            String localName = name.substring(name.indexOf(':') + 1);
+            boolean empty = markup.charAt(markup.length() - 2) == '/';
+            if (goobiName != null) {
+                if (goobiDepth == 0) {
+                    // the new metadata get the indentation of the last child
+                    indent = StringUtils.isBlank(text) ? text.toString() : indent;
+                }
+                if (!empty) {
+                    goobiDepth++;
+                }
+            }
+            writeMarkup(markup);
+            if ("dmdSec".equals(localName) && !empty) {
+                Matcher matcher = ID.matcher(markup);
+                dmdId = matcher.find() && values.containsKey(matcher.group(2)) ? matcher.group(2) : null;
+            } else if (dmdId != null && goobiName == null && "goobi".equals(localName)) {
+                if (empty) {
+                    throw new IOException("The goobi extension of the metadata section " + dmdId + " is empty");
+                }
+                goobiName = name;
+                goobiDepth = 0;
+                indent = null;
+            }
+        }
+
+        private void endTag(StringBuilder markup) throws IOException {
+            String name = getName(markup, 2);
+            if (goobiName != null) {
+                if (goobiDepth == 0 && name.equals(goobiName)) {
+                    insertMetadata(name.substring(0, name.indexOf(':') + 1));
+                    goobiName = null;
+                } else {
+                    goobiDepth--;
+                }
+            }
+            writeMarkup(markup);
+            if ("dmdSec".equals(name.substring(name.indexOf(':') + 1))) {
+                dmdId = null;
+            }
+        }
+
+        private void insertMetadata(String prefix) throws IOException {
+            for (String value : values.remove(dmdId)) {
+                out.write(StringUtils.defaultString(indent));
+                out.write("<" + prefix + "metadata name=\"" + escape(metadataName) + "\">" + escape(value) + "</" + prefix + "metadata>");
+                inserted++;
+            }
+        }
+
+        private void writeMarkup(StringBuilder markup) throws IOException {
+            if (text.length() > 0) {
+                out.append(text);
+                text.setLength(0);
+            }
+            out.append(markup);
+        }
+
+        private static void checkDeclaration(StringBuilder markup) throws IOException {
+            Matcher matcher = ENCODING.matcher(markup);
+            if (markup.indexOf("<?xml") == 0 && matcher.find() && !matcher.group(2).replace("-", "").equalsIgnoreCase("UTF8")) {
+                throw new IOException("The METS file is encoded in " + matcher.group(2) + " instead of UTF-8");
+            }
+        }
+
+        private static String getName(StringBuilder markup, int start) {
+            int end = start;
+            while (end < markup.length() && !Character.isWhitespace(markup.charAt(end)) && markup.charAt(end) != '/' && markup.charAt(end) != '>') {
+                end++;
+            }
+            return markup.substring(start, end);
+        }
+
+        private static boolean endsWith(StringBuilder markup, String end) {
+            int offset = markup.length() - end.length();
+            return offset >= 0 && markup.indexOf(end, offset) == offset;
+        }
+
+        private static String escape(String value) {
+            return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+    }
+}
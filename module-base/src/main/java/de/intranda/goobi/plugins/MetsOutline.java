@@ -0,0 +1,269 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+
+/**
+ * Outline of the logical structure of a METS file, read with a single StAX pass without loading the document. Only the structure elements, the
+ * requested metadata of their dmdSec and their first and last page are kept, so that the memory does not depend on the size of the other parts
+ * of the file. Persons and all other metadata are skipped.
+ *
+ * The page range is taken from the links of the structLink section: the pages with the lowest and the highest <code>ORDER</code> of the physical
+ * structure map, their <code>ORDERLABEL</code> is the logical page number.
+ */
+public class MetsOutline {
+
+    private static final String XLINK = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    // all logical structure elements in document order
+    @Getter
+    private final List<Structure> structures = new ArrayList<>();
+
+    private MetsOutline() {
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // METS files have no DTD, external entities are never resolved
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * read the outline of a METS file
+     *
+     * @param file
+     * @param metadataNames names of the metadata that are kept, e.g. <code>DOI</code>
+     * @return
+     * @throws IOException
+     */
+    public static MetsOutline read(Path file, Collection<String> metadataNames) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in, metadataNames);
+        }
+    }
+
+    /**
+     * read the outline of a METS document
+     *
+     * @param in
+     * @param metadataNames names of the metadata that are kept, e.g. <code>DOI</code>
+     * @return
+     * @throws IOException
+     */
+    public static MetsOutline read(InputStream in, Collection<String> metadataNames) throws IOException {
+        try {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+            try {
+                return new Parser(reader, new HashSet<>(metadataNames)).parse();
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("The METS file could not be read: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * get the structure element with the given ID
+     *
+     * @param id
+     * @return the element or null if there is none
+     */
+    public Structure getStructure(String id) {
+        for (Structure structure : structures) {
+            if (structure.getId().equals(id)) {
+                return structure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * a logical structure element
+     */
+    @Getter
+    public static class Structure {
+        // ID and TYPE of the div
+        private final String id;
+        private final String type;
+        // ID of the dmdSec with the metadata, null if the element has no metadata
+        private final String dmdId;
+        // 0 for the top element
+        private final int level;
+        private final Structure parent;
+        private Map<String, List<String>> metadata = Collections.emptyMap();
+        private String pageStart;
+        private String pageEnd;
+        // ORDER of the first and last page
+        private int firstOrder = Integer.MAX_VALUE;
+        private int lastOrder = Integer.MIN_VALUE;
+
+        private Structure(String id, String type, String dmdId, int level, Structure parent) {
+            this.id = id;
+            this.type = type;
+            this.dmdId = dmdId;
+            this.level = level;
+            this.parent = parent;
+        }
+
+        /**
+         * get the first value of a metadata
+         *
+         * @param name
+         * @return the value or null if the element does not have this metadata
+         */
+        public String getFirstValue(String name) {
+            List<String> values = metadata.get(name);
+            return values != null && !values.isEmpty() ? values.get(0) : null;
+        }
+
+        private void addPage(int order, String label) {
+            if (order < firstOrder) {
+                firstOrder = order;
+                pageStart = label;
+            }
+            if (order > lastOrder) {
+                lastOrder = order;
+                pageEnd = label;
+            }
+        }
+    }
+
+    /**
+     * the state of a single pass through the file
+     */
+    private static class Parser {
+        private final XMLStreamReader reader;
+        private final Set<String> metadataNames;
+        private final MetsOutline outline = new MetsOutline();
+
+        // requested metadata of each dmdSec
+        private final Map<String, Map<String, List<String>>> dmdMetadata = new HashMap<>();
+        private final Map<String, Structure> structuresById = new HashMap<>();
+        // ORDER and ORDERLABEL of each page of the physical structure map
+        private final Map<String, Integer> pageOrders = new HashMap<>();
+        private final Map<String, String> pageLabels = new HashMap<>();
+
+        private Parser(XMLStreamReader reader, Set<String> metadataNames) {
+            this.reader = reader;
+            this.metadataNames = metadataNames;
+        }
+
+        private MetsOutline parse() throws XMLStreamException {
+            String dmdId = null;
+            String structMapType = null;
+            Deque<Structure> divs = new ArrayDeque<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "dmdSec":
+                            dmdId = reader.getAttributeValue(null, "ID");
+                            break;
+                        case "metadata":
+                            if (dmdId != null) {
+                                readMetadata(dmdId);
+                            }
+                            break;
+                        case "structMap":
+                            structMapType = reader.getAttributeValue(null, "TYPE");
+                            break;
+                        case "div":
+                            if ("LOGICAL".equals(structMapType)) {
+                                divs.push(addStructure(divs.peek(), divs.size()));
+                            } else if ("PHYSICAL".equals(structMapType)) {
+                                addPage();
+                            }
+                            break;
+                        case "smLink":
+                            addLink();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("dmdSec".equals(name)) {
+                        dmdId = null;
+                    } else if ("structMap".equals(name)) {
+                        structMapType = null;
+                    } else if ("div".equals(name) && "LOGICAL".equals(structMapType)) {
+                        divs.pop();
+                    }
+                }
+            }
+            for (Structure structure : outline.structures) {
+                if (structure.dmdId != null && dmdMetadata.containsKey(structure.dmdId)) {
+                    structure.metadata = dmdMetadata.get(structure.dmdId);
+                }
+            }
+            return outline;
+        }
+
+        private void readMetadata(String dmdId) throws XMLStreamException {
+            String name = reader.getAttributeValue(null, "name");
+            if (!metadataNames.contains(name) || "person".equals(reader.getAttributeValue(null, "type"))) {
+                return;
+            }
+            String value = reader.getElementText();
+            dmdMetadata.computeIfAbsent(dmdId, k -> new HashMap<>()).computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+
+        private Structure addStructure(Structure parent, int level) {
+            // a div can refer to several dmdSecs, the metadata are in the first one
+            String dmdIds = reader.getAttributeValue(null, "DMDID");
+            String dmdId = StringUtils.isBlank(dmdIds) ? null : StringUtils.split(dmdIds)[0];
+            Structure structure = new Structure(reader.getAttributeValue(null, "ID"), reader.getAttributeValue(null, "TYPE"), dmdId, level, parent);
+            outline.structures.add(structure);
+            if (structure.id != null) {
+                structuresById.put(structure.id, structure);
+            }
+            return structure;
+        }
+
+        private void addPage() {
+            String id = reader.getAttributeValue(null, "ID");
+            String order = reader.getAttributeValue(null, "ORDER");
+            if (id != null && StringUtils.isNumeric(order)) {
+                pageOrders.put(id, Integer.valueOf(order));
+                pageLabels.put(id, reader.getAttributeValue(null, "ORDERLABEL"));
+            }
+        }
+
+        private void addLink() {
+            Structure structure = structuresById.get(reader.getAttributeValue(XLINK, "from"));
+            String page = reader.getAttributeValue(XLINK, "to");
+            Integer order = pageOrders.get(page);
+            if (structure != null && order != null) {
+                structure.addPage(order, pageLabels.get(page));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package de.intranda.goobi.plugins;
+
+import lombok.Data;
+
+/**
+ * A DOI in the outbox that is waiting for its registration at DataCite and the write back into the METS file
+ */
+@Data
+public class OutboxEntry {
+
+    public enum State {
+        // the entry was added to the outbox
+        QUEUED,
+        // the registration was started, the entry is sent again if the worker was stopped before it finished
+        SENT_STARTED,
+        // DataCite accepted the DOI, only the write back into the METS file is missing
+        SENT,
+        // the DOI was written into the METS file
+        DONE,
+        // DataCite rejected the DOI
+        FAILED
+    }
+
+    private final int sequence;
+    private final String doi;
+    private final boolean newDoi;
+    // position of the element: 0 is the top element, -1 its anchor, otherwise the position in the flat list of its children
+    private final int structIndex;
+    private final String structType;
+    private final String fingerprint;
+    // compact DataCite document
+    private final String datacite;
+
+    private State state = State.QUEUED;
+    private String message;
+}
@@ -0,0 +1,143 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Pipeline that prepares the payloads of many elements on a pool of cpu threads and registers them on a separate i/o pool. The number of elements
+ * that are communicating with the registry at the same time is limited.
+ *
+ * @param <I> the element description that gets prepared
+ * @param <P> the prepared element that gets registered
+ */
+@Log4j2
+public class RegistrationPipeline<I, P> implements AutoCloseable {
+
+    private final ExecutorService cpuPool;
+    private final ExecutorService ioPool;
+    private final Semaphore inFlight;
+
+    /**
+     * create a pipeline with the sizes defined in the <code>parallel</code> block of the configuration
+     *
+     * @param config
+     */
+    public RegistrationPipeline(SubnodeConfiguration config) {
+        this(config.getInt("parallel/threads", Runtime.getRuntime().availableProcessors()), config.getInt("parallel/maxRequests", 4),
+                config.getBoolean("parallel/virtualThreads", false));
+    }
+
+    public RegistrationPipeline(int cpuThreads, int maxRequests, boolean virtualThreads) {
+        cpuPool = Executors.newFixedThreadPool(Math.max(1, cpuThreads), namedThreads("doi-prepare"));
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        ioPool = virtual != null ? virtual : Executors.newFixedThreadPool(Math.max(1, maxRequests), namedThreads("doi-register"));
+        inFlight = new Semaphore(Math.max(1, maxRequests), true);
+    }
+
+    /**
+     * prepare and register all elements. Each element is handled independently, a failing element does not stop the others.
+     *
+     * @param elements
+     * @param preparer
+     * @param registrar
+     * @return true if all elements were registered successfully
+     */
+    public boolean run(List<I> elements, Preparer<I, P> preparer, Registrar<P> registrar) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(elements.size());
+        for (I element : elements) {
+            CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return preparer.prepare(element);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, cpuPool).thenApplyAsync(prepared -> {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                }
+                try {
+                    return registrar.register(prepared);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    inFlight.release();
+                }
+            }, ioPool).exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.error("Error while registering element " + element, cause);
+                registrar.failed(element, cause);
+                return false;
+            });
+            results.add(result);
+        }
+
+        // wait for all elements, the result is only successful if each element was successful
+        boolean successful = true;
+        for (CompletableFuture<Boolean> result : results) {
+            successful = result.join() && successful;
+        }
+        return successful;
+    }
+
+    @Override
+    public void close() {
+        cpuPool.shutdown();
+        ioPool.shutdown();
+    }
+
+    /**
+     * use virtual threads if the jvm supports them (java 21), otherwise null is returned
+     *
+     * @return
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            log.warn("Virtual threads are not available in this JVM, using a thread pool instead");
+            return null;
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @FunctionalInterface
+    public interface Preparer<I, P> {
+        P prepare(I element) throws Exception; //NOSONAR
+    }
+
+    public interface Registrar<P> {
+        boolean register(P prepared) throws Exception; //NOSONAR
+
+        /**
+         * called if preparing or registering an element failed with an exception
+         *
+         * @param element
+         * @param cause
+         */
+        default void failed(Object element, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.jdom2.Document;
+
+/**
+ * Client of the DataCite service that registers and updates the DOIs. The requests are sent either to the Metadata Store (MDS) or to the REST
+ * API, this is defined by the configuration parameter <code>api</code>.
+ */
+public interface RegistryClient {
+
+    /**
+     * get the client for the api of the given configuration
+     *
+     * @param config
+     * @return
+     */
+    static RegistryClient forConfig(SubnodeConfiguration config) {
+        if ("rest".equalsIgnoreCase(config.getString("api", "mds"))) {
+            return new DataCiteRest(config);
+        }
+        return new DataCiteMds(config);
+    }
+
+    SubnodeConfiguration getConfig();
+
+    /**
+     * send the metadata of a DOI. A new DOI exists as draft afterwards, unless the client publishes it with the same request.
+     *
+     * @param doi
+     * @param doc
+     * @param newDoi
+     * @return null if successful, otherwise the error message of DataCite
+     * @throws IOException
+     */
+    String sendMetadata(String doi, Document doc, boolean newDoi) throws IOException;
+
+    /**
+     * check if {@link #sendMetadata(String, Document, boolean)} already makes the DOI findable, so that it does not need to get published
+     * separately
+     *
+     * @return
+     */
+    boolean isPublishedWithMetadata();
+
+    /**
+     * set the url of a DOI, this makes it findable
+     *
+     * @param doi
+     * @return null if successful, otherwise the error message of DataCite
+     * @throws IOException
+     */
+    String publish(String doi) throws IOException;
+
+    /**
+     * ask DataCite if the DOI is findable
+     *
+     * @param doi
+     * @return
+     * @throws IOException
+     */
+    boolean isResolvable(String doi) throws IOException;
+
+    default boolean isDraft() {
+        return getConfig().getBoolean("draft", false);
+    }
+
+    /**
+     * register a new DOI: send its metadata and make it findable, unless drafts are configured
+     *
+     * @param doi
+     * @param doc
+     * @return null if successful, otherwise the error message of DataCite
+     * @throws IOException
+     */
+    default String create(String doi, Document doc) throws IOException {
+        String result = sendMetadata(doi, doc, true);
+        if (result == null && !isDraft() && !isPublishedWithMetadata()) {
+            result = publish(doi);
+        }
+        return result;
+    }
+
+    /**
+     * update the metadata of an existing DOI and make it findable if it is not findable yet and drafts are not configured
+     *
+     * @param doi
+     * @param doc
+     * @return null if successful, otherwise the error message of DataCite
+     * @throws IOException
+     */
+    default String update(String doi, Document doc) throws IOException {
+        String result = sendMetadata(doi, doc, false);
+        if (result == null && !isDraft() && !isPublishedWithMetadata() && !DoiStatusCache.isResolvable(doi, getConfig())) {
+            result = publish(doi);
+        }
+        return result;
+    }
+}
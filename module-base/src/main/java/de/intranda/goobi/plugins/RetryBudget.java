@@ -0,0 +1,60 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the number of retries that are sent to a service address in relation to the number of requests. Each request adds a part of a retry to
+ * the budget, each retry takes a whole one. This way retries cannot multiply the load while the service is struggling.
+ */
+public class RetryBudget {
+
+    private static final Map<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private final double maxTokens;
+    private double tokens;
+
+    public RetryBudget(double maxTokens) {
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * get the shared budget of the given service address
+     *
+     * @param endpoint
+     * @return
+     */
+    public static RetryBudget forEndpoint(String endpoint) {
+        return BUDGETS.computeIfAbsent(endpoint, e -> new RetryBudget(10));
+    }
+
+    /**
+     * reset all budgets
+     */
+    public static void resetAll() {
+        BUDGETS.clear();
+    }
+
+    /**
+     * a new request was sent, add the given part of a retry to the budget
+     *
+     * @param ratio
+     */
+    public synchronized void deposit(double ratio) {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * take a retry from the budget
+     *
+     * @return false if the budget is exhausted
+     */
+    public synchronized boolean withdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
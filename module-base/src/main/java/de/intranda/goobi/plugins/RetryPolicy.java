@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+
+import lombok.Getter;
+
+/**
+ * Describes when and how often a request to DataCite gets repeated. The wait time between two attempts grows exponentially and contains a random
+ * part, so that parallel requests do not retry at the same time.
+ */
+@Getter
+public class RetryPolicy {
+
+    private static final int[] DEFAULT_RETRYABLE_STATUS = { 408, 429, 500, 502, 503, 504 };
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final long maxRetryAfter;
+    private final double budgetRatio;
+    private final Set<Integer> retryableStatus = new HashSet<>();
+
+    /**
+     * @param maxAttempts number of attempts including the first one
+     * @param initialDelay wait time in milliseconds before the first retry
+     * @param maxDelay maximum wait time in milliseconds between two attempts
+     * @param maxRetryAfter maximum wait time in milliseconds that is accepted from a Retry-After header
+     * @param budgetRatio number of retries that each request adds to the retry budget of the service
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, long maxRetryAfter, double budgetRatio) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetryAfter = maxRetryAfter;
+        this.budgetRatio = budgetRatio;
+        for (int status : DEFAULT_RETRYABLE_STATUS) {
+            retryableStatus.add(status);
+        }
+    }
+
+    /**
+     * create the policy from the <code>retry</code> block of the configuration
+     *
+     * @param config
+     * @return
+     */
+    public static RetryPolicy fromConfig(SubnodeConfiguration config) {
+        RetryPolicy policy = new RetryPolicy(config.getInt("retry/maxAttempts", 4), config.getLong("retry/initialDelay", 1000),
+                config.getLong("retry/maxDelay", 30000), config.getLong("retry/maxRetryAfter", 120) * 1000, config.getDouble("retry/budgetRatio", 0.2));
+        if (config.containsKey("retry/status")) {
+            policy.retryableStatus.clear();
+            for (Object status : config.getList("retry/status")) {
+                policy.retryableStatus.add(Integer.parseInt(String.valueOf(status).trim()));
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * check if a response with this status code is worth another attempt
+     *
+     * @param statusCode
+     * @return
+     */
+    public boolean isRetryable(int statusCode) {
+        return retryableStatus.contains(statusCode);
+    }
+
+    /**
+     * calculate the wait time before the given retry (starting with 1). Half of the exponentially growing time is fixed, the other half is random.
+     *
+     * @param retry
+     * @return
+     */
+    public long getDelay(int retry) {
+        double exponential = initialDelay * Math.pow(2, retry - 1.0);
+        long delay = (long) Math.min(maxDelay, exponential);
+        long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+}
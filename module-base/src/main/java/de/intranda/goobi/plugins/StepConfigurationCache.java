@@ -0,0 +1,83 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide cache of the plugin configuration of each project and step together with its compiled field mapping plan and DataCite mapping. The configuration file is
+ * only read again if it was changed.
+ */
+@Log4j2
+public class StepConfigurationCache {
+
+    private static final Map<String, StepConfiguration> CACHE = new ConcurrentHashMap<>();
+
+    private StepConfigurationCache() {
+    }
+
+    /**
+     * get the configuration of the plugin for the project and step
+     *
+     * @param pluginName
+     * @param step
+     * @return
+     */
+    public static StepConfiguration get(String pluginName, Step step) {
+        long lastModified = getLastModified(pluginName);
+        String key = pluginName + "|" + step.getProzess().getProjekt().getTitel() + "|" + step.getTitel();
+        StepConfiguration cached = CACHE.get(key);
+        if (cached != null && lastModified >= 0 && cached.lastModified == lastModified) {
+            return cached;
+        }
+        log.debug("Loading configuration of " + pluginName + " for " + key);
+        StepConfiguration loaded = new StepConfiguration(ConfigPlugins.getProjectAndStepConfig(pluginName, step), lastModified);
+        CACHE.put(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * remove all cached configurations
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    private static long getLastModified(String pluginName) {
+        try {
+            Path file = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + pluginName + ".xml");
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (Exception e) {
+            // unknown modification time, the configuration is loaded every time
+            return -1;
+        }
+    }
+
+    public static class StepConfiguration {
+        @Getter
+        private final SubnodeConfiguration config;
+        @Getter
+        private final FieldMappingPlan fieldMappingPlan;
+        // only available if the native mapping is configured
+        @Getter
+        private final DataCiteMapper dataCiteMapper;
+        private final long lastModified;
+
+        public StepConfiguration(SubnodeConfiguration config, long lastModified) {
+            this.config = config;
+            this.fieldMappingPlan = FieldMappingPlan.compile(config);
+            this.dataCiteMapper = DataCiteMapper.isEnabled(config) ? new DataCiteMapper(config) : null;
+            this.lastModified = lastModified;
+        }
+    }
+}
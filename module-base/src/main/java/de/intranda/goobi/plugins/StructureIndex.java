@@ -0,0 +1,113 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.dl.Reference;
+
+/**
+ * Index of the sub elements of a structure element that get a DOI. It is built with a single traversal in document order, each sub element of
+ * one of the requested types gets its ordinal, its position in the flat list of all sub elements and its first and last page. The metadata type
+ * of the page numbers is looked up only once.
+ */
+public class StructureIndex {
+
+    private static final String PAGE_NUMBER = "logicalPageNumber";
+
+    @Getter
+    private final List<Entry> entries = new ArrayList<>();
+
+    private StructureIndex() {
+    }
+
+    /**
+     * find the sub elements of the given types
+     *
+     * @param parent
+     * @param types
+     * @param prefs
+     * @return
+     */
+    public static StructureIndex build(DocStruct parent, Collection<String> types, Prefs prefs) {
+        StructureIndex index = new StructureIndex();
+        Set<String> typeNames = new HashSet<>(types);
+        MetadataType pageType = prefs.getMetadataTypeByName(PAGE_NUMBER);
+        int position = 0;
+        for (DocStruct struct : flatten(parent)) {
+            position++;
+            if (typeNames.contains(struct.getType().getName())) {
+                Entry entry = new Entry(struct, index.entries.size() + 1, position, null, null);
+                if (pageType != null) {
+                    readPageRange(entry, pageType);
+                }
+                index.entries.add(entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * get all sub elements in document order, like {@link DocStruct#getAllChildrenAsFlatList()} but as a list with fast access by position
+     *
+     * @param parent
+     * @return
+     */
+    public static List<DocStruct> flatten(DocStruct parent) {
+        List<DocStruct> result = new ArrayList<>();
+        Deque<DocStruct> stack = new ArrayDeque<>();
+        pushChildren(stack, parent);
+        while (!stack.isEmpty()) {
+            DocStruct struct = stack.pop();
+            result.add(struct);
+            pushChildren(stack, struct);
+        }
+        return result;
+    }
+
+    private static void pushChildren(Deque<DocStruct> stack, DocStruct struct) {
+        List<DocStruct> children = struct.getAllChildren();
+        if (children != null) {
+            // in reverse order, so that the first child is taken first
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+    private static void readPageRange(Entry entry, MetadataType pageType) {
+        List<Reference> refs = entry.struct.getAllToReferences("logical_physical");
+        if (refs == null || refs.isEmpty()) {
+            return;
+        }
+        entry.pageStart = getFirstValue(refs.get(0).getTarget(), pageType);
+        entry.pageEnd = getFirstValue(refs.get(refs.size() - 1).getTarget(), pageType);
+    }
+
+    private static String getFirstValue(DocStruct struct, MetadataType type) {
+        List<? extends Metadata> list = struct.getAllMetadataByType(type);
+        return list != null && !list.isEmpty() ? list.get(0).getValue() : null;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final DocStruct struct;
+        // number of the element among the found elements, starting with 1
+        private final int ordinal;
+        // position in the flat list of all sub elements, starting with 1
+        private final int position;
+        private String pageStart;
+        private String pageEnd;
+    }
+}
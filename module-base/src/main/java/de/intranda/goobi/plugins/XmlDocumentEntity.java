@@ -0,0 +1,77 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.jdom2.Document;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Request entity that writes a jdom document compact and UTF-8 encoded directly into the connection, without creating a string or byte array of
+ * the document first. The document can be written again for a retry.
+ */
+public class XmlDocumentEntity extends AbstractHttpEntity {
+
+    private final Document document;
+
+    public XmlDocumentEntity(Document document) {
+        this.document = document;
+        setContentType("application/xml;charset=UTF-8");
+        setChunked(true);
+    }
+
+    /**
+     * get the format without any indentation and line breaks. Only the ends of the texts are trimmed, white space inside of a text like a line
+     * break in an abstract is kept.
+     *
+     * @return
+     */
+    public static Format getCompactFormat() {
+        return Format.getRawFormat().setTextMode(Format.TextMode.TRIM).setEncoding("UTF-8");
+    }
+
+    /**
+     * write the document without any indentation and line breaks into the stream
+     *
+     * @param doc
+     * @param out
+     * @throws IOException
+     */
+    public static void writeCompact(Document doc, OutputStream out) throws IOException {
+        new XMLOutputter(getCompactFormat()).output(doc, out);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // only needed if someone wants to read the entity, the request itself uses writeTo
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeCompact(document, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        writeCompact(document, outstream);
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
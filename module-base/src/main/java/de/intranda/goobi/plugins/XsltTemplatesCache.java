@@ -0,0 +1,178 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.jdom2.Document;
+import org.jdom2.transform.JDOMResult;
+import org.jdom2.transform.JDOMSource;
+import org.jdom2.transform.XSLTransformException;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JVM wide cache of compiled xslt stylesheets. Each stylesheet is compiled only once into {@link Templates} and compiled again only if the
+ * modification time of the file changes. Each transformation gets its own cheap {@link Transformer} from the cached {@link Templates}.
+ */
+@Log4j2
+public class XsltTemplatesCache {
+
+    private static final Map<String, CachedTemplates> CACHE = new ConcurrentHashMap<>();
+
+    private XsltTemplatesCache() {
+    }
+
+    /**
+     * transform the document with the given stylesheet and pass back the transformation result as xml document
+     *
+     * @param doc
+     * @param xsltPath
+     * @return
+     * @throws XSLTransformException
+     */
+    public static Document transform(Document doc, String xsltPath) throws XSLTransformException {
+        try {
+            Transformer transformer = getTemplates(xsltPath).newTransformer();
+            JDOMResult result = new JDOMResult();
+            transformer.transform(new JDOMSource(doc), result);
+            return result.getDocument();
+        } catch (TransformerException e) {
+            throw new XSLTransformException("Could not perform transformation with " + xsltPath, e);
+        }
+    }
+
+    /**
+     * get the compiled stylesheet for the given path, compile it if it is not cached yet or if the file was changed since it was compiled
+     *
+     * @param xsltPath
+     * @return
+     * @throws TransformerConfigurationException
+     */
+    public static Templates getTemplates(String xsltPath) throws TransformerConfigurationException {
+        long lastModified = getLastModified(xsltPath);
+        CachedTemplates cached = CACHE.get(xsltPath);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.templates;
+        }
+        try {
+            cached = CACHE.compute(xsltPath, (path, current) -> {
+                // another thread may have compiled it in the meantime
+                if (current != null && current.lastModified == lastModified) {
+                    return current;
+                }
+                try {
+                    return new CachedTemplates(compile(path), lastModified);
+                } catch (TransformerConfigurationException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof TransformerConfigurationException) {
+                throw (TransformerConfigurationException) e.getCause();
+            }
+            throw e;
+        }
+        return cached.templates;
+    }
+
+    /**
+     * remove all compiled stylesheets from the cache
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    private static Templates compile(String xsltPath) throws TransformerConfigurationException {
+        Templates precompiled = loadPrecompiled(xsltPath);
+        if (precompiled != null) {
+            return precompiled;
+        }
+        log.debug("Compiling stylesheet " + xsltPath);
+        // same factory lookup as the jdom XSLTransformer, which means saxon if it is on the classpath
+        TransformerFactory factory = TransformerFactory.newInstance();
+        return factory.newTemplates(new StreamSource(Paths.get(xsltPath).toFile()));
+    }
+
+    /**
+     * load a stylesheet that was compiled with saxon already (a sef file next to the stylesheet). This is only possible if saxon is available,
+     * otherwise null is returned.
+     *
+     * @param xsltPath
+     * @return
+     */
+    private static Templates loadPrecompiled(String xsltPath) {
+        Path sefFile = getPrecompiledFile(xsltPath);
+        if (sefFile == null) {
+            return null;
+        }
+        URI sef = sefFile.toUri();
+        try {
+            // use reflection, as saxon is not a compile time dependency of the plugin
+            Class<?> processorClass = Class.forName("net.sf.saxon.s9api.Processor");
+            Object processor = processorClass.getConstructor(boolean.class).newInstance(false);
+            Object compiler = processorClass.getMethod("newXsltCompiler").invoke(processor);
+            Object executable = compiler.getClass().getMethod("loadExecutablePackage", URI.class).invoke(compiler, sef);
+            Class<?> executableClass = Class.forName("net.sf.saxon.s9api.XsltExecutable");
+            Templates templates = (Templates) Class.forName("net.sf.saxon.jaxp.TemplatesImpl").getConstructor(executableClass).newInstance(executable);
+            log.debug("Using precompiled stylesheet " + sef);
+            return templates;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Precompiled stylesheet " + sef + " cannot be used, compiling " + xsltPath + " instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * get the sef file next to the stylesheet, if it was compiled after the last change of the stylesheet
+     *
+     * @param xsltPath
+     * @return the sef file or null if there is none or if it is older than the stylesheet
+     */
+    static Path getPrecompiledFile(String xsltPath) {
+        Path sefFile = Paths.get(xsltPath + ".sef");
+        if (!Files.isRegularFile(sefFile)) {
+            return null;
+        }
+        try {
+            if (Files.getLastModifiedTime(sefFile).compareTo(Files.getLastModifiedTime(Paths.get(xsltPath))) > 0) {
+                return sefFile;
+            }
+        } catch (IOException e) {
+            // let the compilation report the missing stylesheet
+            return null;
+        }
+        log.warn("Precompiled stylesheet " + sefFile + " is older than " + xsltPath + " and is ignored");
+        return null;
+    }
+
+    private static long getLastModified(String xsltPath) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(xsltPath)).toMillis();
+        } catch (IOException e) {
+            // let the compilation report the missing file
+            return -1;
+        }
+    }
+
+    private static class CachedTemplates {
+        private final Templates templates;
+        private final long lastModified;
+
+        private CachedTemplates(Templates templates, long lastModified) {
+            this.templates = templates;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AdaptiveRateLimiterTest {
+
+    @After
+    public void tearDown() {
+        AdaptiveRateLimiter.resetAll();
+    }
+
+    @Test
+    public void testLimitIsOnlyUsedIfEnabled() throws Exception {
+        assertNull(AdaptiveRateLimiter.forConfig(TestConfigs.createConfig("http://localhost/")));
+        assertNull(AdaptiveRateLimiter.forConfig(TestConfigs.createConfig("http://localhost/", "<rateLimit enabled=\"false\"/>")));
+        assertNotNull(AdaptiveRateLimiter.forConfig(TestConfigs.createConfig("http://localhost/", "<rateLimit enabled=\"true\"/>")));
+    }
+
+    @Test
+    public void testThrottlingHalvesRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 0.5, 50, 2000);
+        limiter.onResponse(429, 100);
+        assertEquals(5, limiter.getRate(), 0.001);
+        // further 429 responses of the same burst do not reduce the rate again
+        limiter.onResponse(429, 100);
+        assertEquals(5, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void testSuccessIncreasesRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 0.5, 50, 2000);
+        for (int i = 0; i < 10; i++) {
+            limiter.onResponse(201, 100);
+        }
+        assertTrue(limiter.getRate() > 10.9);
+        assertTrue(limiter.getRate() < 11.1);
+    }
+
+    @Test
+    public void testSlowResponsesDecreaseRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 0.5, 50, 2000);
+        limiter.onResponse(201, 5000);
+        assertEquals(9, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void testRateStaysInLimits() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 0.5, 2, 2000);
+        for (int i = 0; i < 100; i++) {
+            limiter.onResponse(201, 10);
+        }
+        assertEquals(2, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void testRateIsLimited() throws Exception {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(50, 0.5, 50, 2000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire("process");
+        }
+        // the first permit is given immediately, the following ten need 20 ms each
+        assertTrue((System.nanoTime() - start) / 1000000 >= 190);
+    }
+
+    @Test
+    public void testSmallProcessIsNotStarved() throws Exception {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(100, 0.5, 100, 2000);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        // a large volume with 20 waiting requests
+        for (int i = 0; i < 20; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    started.await();
+                    limiter.acquire("volume");
+                    order.add("volume");
+                } catch (Exception e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        started.countDown();
+        Thread.sleep(30);
+
+        // a monograph with a single request arrives later
+        Thread monograph = new Thread(() -> {
+            try {
+                limiter.acquire("monograph");
+                order.add("monograph");
+            } catch (Exception e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        monograph.start();
+        monograph.join();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        // the monograph got the turn right after the next request of the volume instead of waiting for all of them
+        assertTrue(order.indexOf("monograph") < 10);
+    }
+}
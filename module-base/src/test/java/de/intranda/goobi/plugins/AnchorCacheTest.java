@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnchorCacheTest {
+
+    private List<ContentField> anchorFields;
+
+    @Before
+    public void setUp() {
+        AnchorCache.clear();
+        anchorFields = new ArrayList<>();
+        anchorFields.add(new ContentField("ANCHOR-METADATA-TitleDocMain", "Jahrbuch der Stadt"));
+        anchorFields.add(new ContentField("ANCHOR-METADATA-CatalogIDDigital", "PPN987654321"));
+        anchorFields.add(new ContentField("ANCHOR-PERSON-Author", "Doe, Jane"));
+        anchorFields.add(new ContentField("ANCHOR-PERSON-Author", "Roe, Richard"));
+    }
+
+    @After
+    public void tearDown() {
+        AnchorCache.clear();
+    }
+
+    @Test
+    public void testVolumesShareTheAnchor() {
+        AnchorCache.Anchor anchor = AnchorCache.get("PPN987654321", anchorFields, 10);
+        anchor.setRegistered("10.33510/go-goobi-PPN987654321");
+
+        // the next volume has the same anchor, but its own copy of the fields
+        AnchorCache.Anchor cached = AnchorCache.get("PPN987654321", new ArrayList<>(anchorFields), 10);
+        assertSame(anchor, cached);
+        assertEquals("10.33510/go-goobi-PPN987654321", cached.getRegisteredDoi());
+    }
+
+    @Test
+    public void testChangedAnchorIsInvalidated() {
+        AnchorCache.Anchor anchor = AnchorCache.get("PPN987654321", anchorFields, 10);
+        anchor.setRegistered("10.33510/go-goobi-PPN987654321");
+
+        List<ContentField> changed = new ArrayList<>(anchorFields);
+        changed.set(0, new ContentField("ANCHOR-METADATA-TitleDocMain", "Jahrbuch der Stadt und des Landes"));
+        AnchorCache.Anchor replaced = AnchorCache.get("PPN987654321", changed, 10);
+        assertNotSame(anchor, replaced);
+        assertNull(replaced.getRegisteredDoi());
+        assertEquals(1, AnchorCache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAnchorIsRemoved() {
+        AnchorCache.Anchor first = AnchorCache.get("PPN1", anchorFields, 2);
+        AnchorCache.get("PPN2", anchorFields, 2);
+        // the first anchor was used after the second one
+        assertSame(first, AnchorCache.get("PPN1", anchorFields, 2));
+        AnchorCache.Anchor second = AnchorCache.get("PPN3", anchorFields, 2);
+        assertEquals(2, AnchorCache.size());
+        assertSame(first, AnchorCache.get("PPN1", anchorFields, 2));
+        assertNotSame(second, AnchorCache.get("PPN2", anchorFields, 2));
+    }
+
+    @Test
+    public void testAnchorDocumentFields() throws Exception {
+        List<ContentField> processFields = new ArrayList<>();
+        processFields.add(new ContentField("LANGUAGE", "ger"));
+        processFields.add(new ContentField("TITLE", "Die Geschichte der Stadt"));
+        processFields.add(new ContentField("CREATOR", "Anonymous"));
+        processFields.add(new ContentField("PUBLISHER", "Stadtverlag"));
+        processFields.add(new ContentField("NUMBER", "12"));
+        processFields.add(new ContentField("GOOBI-ANCHOR-DOCTYPE", "Periodical"));
+        processFields.add(new ContentField("GOOBI-DOCTYPE", "PeriodicalVolume"));
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost/",
+                "<anchor><doi enabled=\"true\"><field name=\"TITLE\" source=\"ANCHOR-METADATA-TitleDocMain\"/>"
+                        + "<field name=\"CREATOR\" source=\"ANCHOR-PERSON-Author\"/>"
+                        + "<field name=\"SERIES\" source=\"ANCHOR-METADATA-PublicationSeries\"/></doi></anchor>");
+
+        List<ContentField> fields = DoiRegistration.createAnchorDocumentFields(processFields, anchorFields, "Periodical", config);
+        assertEquals(Arrays.asList(new ContentField("LANGUAGE", "ger"), new ContentField("TITLE", "Jahrbuch der Stadt"),
+                new ContentField("CREATOR", "Doe, Jane"), new ContentField("CREATOR", "Roe, Richard"), new ContentField("PUBLISHER", "Stadtverlag"),
+                new ContentField("GOOBI-DOCTYPE", "Periodical")), fields);
+    }
+}
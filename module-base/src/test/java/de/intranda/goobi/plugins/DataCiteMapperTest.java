@@ -0,0 +1,117 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataCiteMapperTest {
+
+    private Path xsltFile;
+    private DataCiteMapper mapper;
+
+    @Before
+    public void setUp() throws Exception {
+        // the stylesheet that is shipped with the plugin
+        xsltFile = Paths.get("../install/doi.xsl");
+        if (!Files.exists(xsltFile)) {
+            xsltFile = Paths.get("install/doi.xsl");
+        }
+        mapper = new DataCiteMapper(TestConfigs.createConfig("http://localhost/", "<mapping mode=\"native\"/>"));
+    }
+
+    private static List<ContentField> createTopElementFields() {
+        List<ContentField> fields = new ArrayList<>();
+        fields.add(new ContentField("LANGUAGE", "ger"));
+        fields.add(new ContentField("TITLE", "Die Geschichte der Stadt"));
+        fields.add(new ContentField("ANCHORTITLE", "Jahrbuch der Stadt"));
+        fields.add(new ContentField("IDENTIFIER", "PPN123456789"));
+        fields.add(new ContentField("PUBLICATIONYEAR", "1923"));
+        fields.add(new ContentField("CREATOR", "Doe, Jane"));
+        fields.add(new ContentField("CREATOR", "Anonymous"));
+        fields.add(new ContentField("PUBLISHER", "Stadtverlag"));
+        fields.add(new ContentField("NUMBER", "12"));
+        fields.add(new ContentField("SUBJECT", "Geschichte"));
+        fields.add(new ContentField("SUBJECT", "Stadt"));
+        fields.add(new ContentField("GOOBI-ANCHOR-DOCTYPE", "Periodical"));
+        fields.add(new ContentField("GOOBI-DOCTYPE", "PeriodicalVolume"));
+        fields.add(new ContentField("GOOBI-DOI", "10.33510/PPN123456789"));
+        return fields;
+    }
+
+    private static List<ContentField> createSubElementFields() {
+        List<ContentField> fields = createTopElementFields();
+        fields.removeIf(f -> "GOOBI-DOI".equals(f.getName()));
+        fields.add(new ContentField("GOOBI-DOI", "10.33510/PPN123456789_1"));
+        fields.add(new ContentField("SUBELEMENT", "Article"));
+        fields.add(new ContentField("SUBELEMENT-PAGE-START", "3"));
+        fields.add(new ContentField("SUBELEMENT-PAGE-END", "17"));
+        fields.add(new ContentField("METADATA-TitleDocMain", "Ein Artikel"));
+        fields.add(new ContentField("PERSON-Author", "Roe, Richard"));
+        return fields;
+    }
+
+    private static Document createGoobiDocument(List<ContentField> fields) {
+        Element main = new Element("goobi");
+        for (ContentField field : fields) {
+            main.addContent(new Element(field.getName()).setText(field.getValue()));
+        }
+        return new Document(main);
+    }
+
+    private static String compact(Document doc) {
+        return new XMLOutputter(Format.getCompactFormat()).outputString(doc);
+    }
+
+    private void assertSameAsXslt(List<ContentField> fields) throws Exception {
+        Document expected = XsltTemplatesCache.transform(createGoobiDocument(fields), xsltFile.toString());
+        assertEquals(compact(expected), compact(mapper.createDocument(fields)));
+    }
+
+    @Test
+    public void testEnabled() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost/");
+        assertFalse(DataCiteMapper.isEnabled(config));
+        config = TestConfigs.createConfig("http://localhost/", "<mapping mode=\"native\"/>");
+        assertTrue(DataCiteMapper.isEnabled(config));
+    }
+
+    @Test
+    public void testTopElementIsSameAsXslt() throws Exception {
+        assertSameAsXslt(createTopElementFields());
+    }
+
+    @Test
+    public void testSubElementIsSameAsXslt() throws Exception {
+        assertSameAsXslt(createSubElementFields());
+    }
+
+    @Test
+    public void testAnchorDoiIsSameAsXslt() throws Exception {
+        List<ContentField> fields = createTopElementFields();
+        fields.add(new ContentField("ANCHOR-DOI", "10.33510/go-goobi-PPN987654321"));
+        assertSameAsXslt(fields);
+    }
+
+    @Test
+    public void testMissingFieldsAreSameAsXslt() throws Exception {
+        List<ContentField> fields = new ArrayList<>();
+        fields.add(new ContentField("GOOBI-DOI", "10.33510/PPN1"));
+        assertSameAsXslt(fields);
+        fields.add(new ContentField("SUBELEMENT", "Article"));
+        assertSameAsXslt(fields);
+    }
+}
@@ -0,0 +1,197 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.IOUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class DataCiteRestTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+    private String address;
+    // method and path of each request
+    private List<String> requests = new CopyOnWriteArrayList<>();
+    private List<JsonNode> jsonBodies = new CopyOnWriteArrayList<>();
+    // path and Accept header of each GET request
+    private List<String> getHeaders = new CopyOnWriteArrayList<>();
+    private Set<String> findable = ConcurrentHashMap.newKeySet();
+
+    /**
+     * fake of DataCite that answers to the requests of the MDS and of the REST API
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            requests.add(method + " " + path);
+            if ("GET".equals(method)) {
+                getHeaders.add(path + " " + exchange.getRequestHeaders().getFirst("Accept"));
+            }
+            if (path.startsWith("/dois/")) {
+                String doi = path.substring("/dois/".length());
+                if ("GET".equals(method)) {
+                    String state = findable.contains(doi) ? "findable" : "draft";
+                    respond(exchange, 200, "{\"data\":{\"id\":\"" + doi + "\",\"attributes\":{\"state\":\"" + state + "\"}}}");
+                    return;
+                }
+                JsonNode json = MAPPER.readTree(body);
+                jsonBodies.add(json);
+                if (doi.endsWith("invalid")) {
+                    respond(exchange, 422, "{\"errors\":[{\"source\":\"xml\",\"title\":\"Missing title\"}]}");
+                    return;
+                }
+                if ("publish".equals(json.path("data").path("attributes").path("event").asText())) {
+                    findable.add(doi);
+                }
+                respond(exchange, 201, "{}");
+            } else if (path.startsWith("/doi/")) {
+                String doi = path.substring("/doi/".length());
+                if ("GET".equals(method)) {
+                    // the MDS only answers with text
+                    String accept = exchange.getRequestHeaders().getFirst("Accept");
+                    if (accept != null && accept.contains("json")) {
+                        respond(exchange, 406, "");
+                        return;
+                    }
+                    respond(exchange, findable.contains(doi) ? 200 : 404, "");
+                    return;
+                }
+                findable.add(doi);
+                respond(exchange, 201, "OK");
+            } else {
+                respond(exchange, 201, "OK");
+            }
+        });
+        server.start();
+        address = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        HttpClientPool.closeAll();
+        server.stop(0);
+    }
+
+    private static Document createDocument() {
+        return new Document(new Element("resource"));
+    }
+
+    @Test
+    public void testClientIsSelectedByConfiguration() throws Exception {
+        assertTrue(RegistryClient.forConfig(TestConfigs.createConfig(address)) instanceof DataCiteMds);
+        assertTrue(RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api>")) instanceof DataCiteRest);
+    }
+
+    @Test
+    public void testCreateIsPublishedWithOneRequest() throws Exception {
+        RegistryClient client = RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api>"));
+        assertNull(client.create("10.33510/go-goobi-rest-1", createDocument()));
+
+        assertEquals(1, requests.size());
+        assertEquals("PUT /dois/10.33510/go-goobi-rest-1", requests.get(0));
+        JsonNode data = jsonBodies.get(0).path("data");
+        assertEquals("dois", data.path("type").asText());
+        JsonNode attributes = data.path("attributes");
+        assertEquals("10.33510/go-goobi-rest-1", attributes.path("doi").asText());
+        assertEquals("publish", attributes.path("event").asText());
+        assertEquals("https://viewer.example.org/resolver?identifier=10.33510/go-goobi-rest-1", attributes.path("url").asText());
+        String xml = new String(Base64.getDecoder().decode(attributes.path("xml").asText()), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("resource"));
+        assertTrue(client.isResolvable("10.33510/go-goobi-rest-1"));
+    }
+
+    @Test
+    public void testDraftIsNotPublished() throws Exception {
+        RegistryClient client = RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api><draft>true</draft>"));
+        assertNull(client.create("10.33510/go-goobi-rest-2", createDocument()));
+
+        assertEquals(1, requests.size());
+        JsonNode attributes = jsonBodies.get(0).path("data").path("attributes");
+        assertTrue(attributes.path("event").isMissingNode());
+        assertTrue(attributes.path("url").isMissingNode());
+        assertFalse(client.isResolvable("10.33510/go-goobi-rest-2"));
+    }
+
+    @Test
+    public void testErrorsAreReported() throws Exception {
+        RegistryClient client = RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api>"));
+        assertEquals("xml: Missing title", client.create("10.33510/go-goobi-invalid", createDocument()));
+    }
+
+    @Test
+    public void testRoundTripsComparedToMds() throws Exception {
+        SubnodeConfiguration mdsConfig = TestConfigs.createConfig(address);
+        RegistryClient mds = RegistryClient.forConfig(mdsConfig);
+        RegistryClient rest = RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api>"));
+
+        // new DOIs and updates of DOIs that are not findable yet
+        for (int i = 1; i <= 10; i++) {
+            assertNull(mds.create("10.33510/go-goobi-mds-new-" + i, createDocument()));
+            assertNull(mds.update("10.33510/go-goobi-mds-old-" + i, createDocument()));
+        }
+        int mdsRequests = requests.size();
+        requests.clear();
+        for (int i = 1; i <= 10; i++) {
+            assertNull(rest.create("10.33510/go-goobi-rest-new-" + i, createDocument()));
+            assertNull(rest.update("10.33510/go-goobi-rest-old-" + i, createDocument()));
+        }
+        int restRequests = requests.size();
+
+        assertEquals(50, mdsRequests);
+        assertEquals(20, restRequests);
+        assertTrue(restRequests * 2 <= mdsRequests);
+    }
+
+    @Test
+    public void testResolvableCheckHeaders() throws Exception {
+        findable.add("10.33510/go-goobi-1");
+        RegistryClient mds = RegistryClient.forConfig(TestConfigs.createConfig(address));
+        RegistryClient rest = RegistryClient.forConfig(TestConfigs.createConfig(address, "<api>rest</api>"));
+
+        assertTrue(mds.isResolvable("10.33510/go-goobi-1"));
+        assertFalse(mds.isResolvable("10.33510/go-goobi-2"));
+        assertTrue(rest.isResolvable("10.33510/go-goobi-1"));
+
+        // only the REST API gets asked for JSON:API
+        assertEquals(3, getHeaders.size());
+        assertEquals("/doi/10.33510/go-goobi-1 null", getHeaders.get(0));
+        assertEquals("/doi/10.33510/go-goobi-2 null", getHeaders.get(1));
+        assertEquals("/dois/10.33510/go-goobi-1 application/vnd.api+json", getHeaders.get(2));
+    }
+}
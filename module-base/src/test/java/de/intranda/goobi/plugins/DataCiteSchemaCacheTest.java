@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class DataCiteSchemaCacheTest {
+
+    private static final Namespace KERNEL_4 = Namespace.getNamespace("http://datacite.org/schema/kernel-4");
+
+    private Document doc;
+
+    @Before
+    public void setUp() throws Exception {
+        List<ContentField> fields = new ArrayList<>();
+        fields.add(new ContentField("TITLE", "Die Geschichte der Stadt"));
+        fields.add(new ContentField("PUBLICATIONYEAR", "1923"));
+        fields.add(new ContentField("CREATOR", "Doe, Jane"));
+        fields.add(new ContentField("PUBLISHER", "Stadtverlag"));
+        fields.add(new ContentField("LANGUAGE", "ger"));
+        fields.add(new ContentField("GOOBI-DOCTYPE", "Monograph"));
+        fields.add(new ContentField("GOOBI-DOI", "10.33510/PPN123456789"));
+        DataCiteMapper mapper = new DataCiteMapper(TestConfigs.createConfig("http://localhost/", "<mapping mode=\"native\"/>"));
+        doc = mapper.createDocument(fields);
+    }
+
+    private Element getChild(String name) {
+        return doc.getRootElement().getChild(name, KERNEL_4);
+    }
+
+    @Test
+    public void testValidDocument() throws Exception {
+        assertTrue(DataCiteSchemaCache.validate(doc, "", 10).isEmpty());
+    }
+
+    @Test
+    public void testValidSubElementDocument() throws Exception {
+        List<ContentField> fields = new ArrayList<>();
+        fields.add(new ContentField("TITLE", "Jahrbuch der Stadt"));
+        fields.add(new ContentField("PUBLICATIONYEAR", "1923"));
+        fields.add(new ContentField("PUBLISHER", "Stadtverlag"));
+        fields.add(new ContentField("NUMBER", "12"));
+        fields.add(new ContentField("GOOBI-DOI", "10.33510/PPN123456789_1"));
+        fields.add(new ContentField("SUBELEMENT", "Article"));
+        fields.add(new ContentField("SUBELEMENT-PAGE-START", "3"));
+        fields.add(new ContentField("SUBELEMENT-PAGE-END", "17"));
+        fields.add(new ContentField("METADATA-TitleDocMain", "Ein Artikel"));
+        DataCiteMapper mapper = new DataCiteMapper(TestConfigs.createConfig("http://localhost/", "<mapping mode=\"native\"/>"));
+        List<String> errors = DataCiteSchemaCache.validate(mapper.createDocument(fields), "", 10);
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testInvalidPublicationYear() throws Exception {
+        getChild("publicationYear").setText("- NO FORMAT DEFINED -");
+        List<String> errors = DataCiteSchemaCache.validate(doc, "", 10);
+        assertTrue(errors.size() > 0);
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("publicationYear")));
+    }
+
+    @Test
+    public void testInvalidResourceType() throws Exception {
+        getChild("resourceType").setAttribute("resourceTypeGeneral", "Monograph");
+        List<String> errors = DataCiteSchemaCache.validate(doc, "", 10);
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("Monograph")));
+    }
+
+    @Test
+    public void testMissingMandatoryProperty() throws Exception {
+        doc.getRootElement().removeChild("titles", KERNEL_4);
+        List<String> errors = DataCiteSchemaCache.validate(doc, "", 10);
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("titles")));
+    }
+
+    @Test
+    public void testIncludedTypesAreChecked() throws Exception {
+        // the controlled lists are defined in the includes of the schema
+        getChild("contributors").getChild("contributor", KERNEL_4).setAttribute("contributorType", "Host");
+        getChild("titles").getChild("title", KERNEL_4).setAttribute("titleType", "MainTitle");
+        List<String> errors = DataCiteSchemaCache.validate(doc, "", 10);
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("Host")));
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("MainTitle")));
+    }
+
+    @Test
+    public void testInvalidIdentifier() throws Exception {
+        getChild("identifier").setText("PPN123456789");
+        List<String> errors = DataCiteSchemaCache.validate(doc, "", 10);
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("PPN123456789")));
+    }
+
+    @Test
+    public void testValidationStopsAfterMaxErrors() throws Exception {
+        getChild("publicationYear").setText("unknown");
+        getChild("resourceType").setAttribute("resourceTypeGeneral", "Monograph");
+        getChild("publisher").setText("");
+        // the first error and the note that the validation stopped
+        assertEquals(2, DataCiteSchemaCache.validate(doc, "", 1).size());
+    }
+
+    @Test
+    public void testSchemaIsCompiledOnce() throws Exception {
+        assertSame(DataCiteSchemaCache.getSchema(""), DataCiteSchemaCache.getSchema(""));
+    }
+
+    @Test(expected = SAXException.class)
+    public void testMissingSchemaFile() throws Exception {
+        DataCiteSchemaCache.validate(doc, "/does/not/exist/metadata.xsd", 10);
+    }
+}
@@ -0,0 +1,112 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DebugCaptureTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("doi_debug");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private SubnodeConfiguration createConfig(String debugXml) throws Exception {
+        return TestConfigs.createConfig("http://localhost/",
+                "<debugMode>true</debugMode><debug><folder>" + folder + "</folder>" + debugXml + "</debug>");
+    }
+
+    private List<String> getArchives() throws Exception {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testDisabledWithoutDebugMode() throws Exception {
+        assertNull(DebugCapture.open(TestConfigs.createConfig("http://localhost/"), 42));
+    }
+
+    @Test
+    public void testDocumentsAreArchivedPerElement() throws Exception {
+        DebugCapture capture = DebugCapture.open(createConfig(""), 42);
+        assertTrue(capture.sample());
+        capture.add("PPN42_1", "doi_in.xml", new Document(new Element("goobi")));
+        capture.add("PPN42_1", "doi_out.xml", new Document(new Element("resource")));
+        capture.add("PPN42/2", "doi_in.xml", new Document(new Element("goobi")));
+        Path archive = capture.close().get(10, TimeUnit.SECONDS);
+
+        assertTrue(archive.getFileName().toString().startsWith("doi_debug_42_"));
+        assertEquals(Collections.singletonList(archive.getFileName().toString()), getArchives());
+        List<String> entries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                entries.add(entry.getName());
+            }
+        }
+        assertEquals(3, entries.size());
+        assertTrue(entries.contains("PPN42_1/doi_in.xml"));
+        assertTrue(entries.contains("PPN42_1/doi_out.xml"));
+        assertTrue(entries.contains("PPN42_2/doi_in.xml"));
+    }
+
+    @Test
+    public void testNoArchiveWithoutSampledElements() throws Exception {
+        DebugCapture capture = DebugCapture.open(createConfig("<sampleRate>0</sampleRate>"), 42);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(capture.sample());
+        }
+        assertNull(capture.close().get(10, TimeUnit.SECONDS));
+        assertTrue(getArchives().isEmpty());
+    }
+
+    @Test
+    public void testOldestArchivesAreDeleted() throws Exception {
+        long now = System.currentTimeMillis();
+        Path expired = Files.createFile(folder.resolve(DebugCapture.FILE_PREFIX + "1_expired.zip"));
+        Files.setLastModifiedTime(expired, FileTime.fromMillis(now - TimeUnit.DAYS.toMillis(10)));
+        Path older = Files.createFile(folder.resolve(DebugCapture.FILE_PREFIX + "2_older.zip"));
+        Files.setLastModifiedTime(older, FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(2)));
+        Path newer = Files.createFile(folder.resolve(DebugCapture.FILE_PREFIX + "3_newer.zip"));
+        Files.setLastModifiedTime(newer, FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(1)));
+        Path other = Files.createFile(folder.resolve("other.zip"));
+
+        DebugCapture capture = DebugCapture.open(createConfig("<maxFiles>2</maxFiles><maxAge>7</maxAge>"), 42);
+        capture.add("PPN42_1", "doi_in.xml", new Document(new Element("goobi")));
+        Path archive = capture.close().get(10, TimeUnit.SECONDS);
+
+        assertTrue(Files.exists(archive));
+        assertTrue(Files.exists(newer));
+        assertFalse(Files.exists(older));
+        assertFalse(Files.exists(expired));
+        assertTrue(Files.exists(other));
+    }
+}
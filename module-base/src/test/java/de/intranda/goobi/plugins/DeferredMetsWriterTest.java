@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeferredMetsWriterTest {
+
+    private Path metsFile;
+    private byte[] metsContent;
+
+    @Before
+    public void setUp() throws IOException {
+        metsFile = Files.createTempFile("meta", ".xml");
+        // synthetic METS file of a large volume with 2000 structure elements
+        StringBuilder sb = new StringBuilder("<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\">\n");
+        for (int i = 1; i <= 2000; i++) {
+            sb.append("  <mets:dmdSec ID=\"DMDLOG_").append(i).append("\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData>")
+                    .append("<goobi:metadata name=\"TitleDocMain\">Article ").append(i).append("</goobi:metadata>")
+                    .append("</mets:xmlData></mets:mdWrap></mets:dmdSec>\n");
+        }
+        sb.append("</mets:mets>\n");
+        metsContent = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(metsFile);
+    }
+
+    private DeferredMetsWriter createWriter(int checkpointInterval) {
+        return new DeferredMetsWriter(() -> Files.write(metsFile, metsContent), checkpointInterval);
+    }
+
+    private void register(DeferredMetsWriter writer, int dois) throws Exception {
+        for (int i = 0; i < dois; i++) {
+            writer.change(() -> {
+            });
+        }
+        writer.flush();
+    }
+
+    @Test
+    public void testSingleWriteAtEndOfRun() throws Exception {
+        DeferredMetsWriter writer = createWriter(0);
+        register(writer, 300);
+        assertEquals(1, writer.getWriteCount());
+        assertEquals(0, writer.getPendingChanges());
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        DeferredMetsWriter writer = createWriter(20);
+        for (int i = 0; i < 45; i++) {
+            writer.change(() -> {
+            });
+        }
+        // two checkpoints were reached, five changes are not written yet
+        assertEquals(2, writer.getWriteCount());
+        assertEquals(5, writer.getPendingChanges());
+        writer.flush();
+        assertEquals(3, writer.getWriteCount());
+    }
+
+    @Test
+    public void testNoWriteWithoutChanges() throws Exception {
+        DeferredMetsWriter writer = createWriter(20);
+        writer.flush();
+        assertEquals(0, writer.getWriteCount());
+    }
+
+    @Test
+    public void testWriteCountOfStrategies() throws Exception {
+        int dois = 300;
+        DeferredMetsWriter perDoi = createWriter(1);
+        register(perDoi, dois);
+        DeferredMetsWriter checkpoints = createWriter(50);
+        register(checkpoints, dois);
+        DeferredMetsWriter deferred = createWriter(0);
+        register(deferred, dois);
+
+        assertEquals(dois, perDoi.getWriteCount());
+        assertEquals(6, checkpoints.getWriteCount());
+        assertEquals(1, deferred.getWriteCount());
+        assertEquals(metsContent.length, Files.size(metsFile));
+    }
+}
@@ -0,0 +1,246 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.Step;
+import org.jdom2.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+public class DoiBatchRegistrationTest {
+
+    private Path folder;
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("doi_batch");
+        prefs = TestDocuments.loadPrefs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void testResultIsTakenOnce() {
+        DoiBatchRegistration.storeResult(4711, true);
+        DoiBatchRegistration.storeResult(4712, false);
+        assertTrue(DoiBatchRegistration.takeResult(4711));
+        assertFalse(DoiBatchRegistration.takeResult(4712));
+        // a later run of the step registers the process again
+        assertNull(DoiBatchRegistration.takeResult(4711));
+    }
+
+    @Test
+    public void testUnknownProcess() {
+        assertNull(DoiBatchRegistration.takeResult(4713));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(DoiBatchRegistration.register(Collections.emptyList(), "intranda_step_doi").isEmpty());
+    }
+
+    @Test
+    public void testProcessesAreRegisteredTogether() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost/",
+                "<draft>true</draft><mapping mode=\"native\"/><structureType>Chapter</structureType>"
+                        + "<batch enabled=\"true\"><processes>2</processes></batch>");
+        StepConfigurationCache.StepConfiguration stepConfiguration = new StepConfigurationCache.StepConfiguration(config, -1);
+        // the top element of the third process is rejected, so its chapters are not registered
+        FakeRegistry registry = new FakeRegistry(config, "10.33510/PPN3");
+        List<String> journal = new CopyOnWriteArrayList<>();
+
+        List<TestProcess> processes = new ArrayList<>();
+        List<Step> steps = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            TestProcess process = new TestProcess(id, TestDocuments.createMonograph(prefs, "PPN" + id, 2));
+            processes.add(process);
+            steps.add(new TestStep(process));
+        }
+
+        Map<Integer, Boolean> results = DoiBatchRegistration.register(steps, config, step -> {
+            DoiRegistration registration = new DoiRegistration(step.getProzess(), stepConfiguration, registry);
+            registration.setJournal((processId, type, message) -> journal.add(processId + ": " + message));
+            return registration;
+        });
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(1));
+        assertTrue(results.get(2));
+        assertFalse(results.get(3));
+        assertEquals(7, registry.dois.size());
+        assertTrue(registry.dois.containsAll(Arrays.asList("10.33510/PPN1", "10.33510/PPN1_1", "10.33510/PPN1_2",
+                "10.33510/PPN2", "10.33510/PPN2_1", "10.33510/PPN2_2", "10.33510/PPN3")));
+
+        // the DOIs of each process are saved in its own METS file
+        for (TestProcess process : processes.subList(0, 2)) {
+            assertTrue(process.writes.get() > 0);
+            DocStruct top = process.document.getLogicalDocStruct();
+            assertEquals("10.33510/PPN" + process.getId(),
+                    DoiRegistration.getExistingMetadata(top, prefs.getMetadataTypeByName("DOI")));
+            assertEquals("10.33510/PPN" + process.getId() + "_2",
+                    DoiRegistration.getExistingMetadata(top.getAllChildren().get(1), prefs.getMetadataTypeByName("DOI")));
+        }
+        assertNull(DoiRegistration.getExistingMetadata(processes.get(2).document.getLogicalDocStruct(), prefs.getMetadataTypeByName("DOI")));
+        assertTrue(journal.contains("3: A new DOI could not get registered: rejected"));
+    }
+
+    /**
+     * registry that accepts all DOIs except the given ones
+     */
+    private static class FakeRegistry implements RegistryClient {
+        private final SubnodeConfiguration config;
+        private final List<String> rejected;
+        private final List<String> dois = new CopyOnWriteArrayList<>();
+
+        private FakeRegistry(SubnodeConfiguration config, String... rejected) {
+            this.config = config;
+            this.rejected = Arrays.asList(rejected);
+        }
+
+        @Override
+        public SubnodeConfiguration getConfig() {
+            return config;
+        }
+
+        @Override
+        public String sendMetadata(String doi, Document doc, boolean newDoi) throws IOException {
+            dois.add(doi);
+            return rejected.contains(doi) ? "rejected" : null;
+        }
+
+        @Override
+        public boolean isPublishedWithMetadata() {
+            return true;
+        }
+
+        @Override
+        public String publish(String doi) throws IOException {
+            return null;
+        }
+
+        @Override
+        public boolean isResolvable(String doi) throws IOException {
+            return true;
+        }
+    }
+
+    /**
+     * process with a document in memory and its own data folder
+     */
+    private class TestProcess extends Process {
+        private final Integer id;
+        private final DigitalDocument document;
+        private final AtomicInteger writes = new AtomicInteger();
+
+        private TestProcess(Integer id, DigitalDocument document) throws IOException {
+            this.id = id;
+            this.document = document;
+            Files.createDirectories(folder.resolve(String.valueOf(id)));
+        }
+
+        @Override
+        public Integer getId() {
+            return id;
+        }
+
+        @Override
+        public String getTitel() {
+            return "process_" + id;
+        }
+
+        @Override
+        public Project getProjekt() {
+            return new Project() {
+                @Override
+                public String getTitel() {
+                    return "Test";
+                }
+            };
+        }
+
+        @Override
+        public Ruleset getRegelsatz() {
+            return new Ruleset() {
+                @Override
+                public Prefs getPreferences() {
+                    return prefs;
+                }
+            };
+        }
+
+        @Override
+        public Fileformat readMetadataFile() {
+            try {
+                MetsMods mets = new MetsMods(prefs);
+                mets.setDigitalDocument(document);
+                return mets;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean writeMetadataFile(Fileformat ff) {
+            writes.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public String getProcessDataDirectory() {
+            return folder.resolve(String.valueOf(id)).toString() + "/";
+        }
+    }
+
+    private static class TestStep extends Step {
+        private final Process process;
+
+        private TestStep(Process process) {
+            this.process = process;
+        }
+
+        @Override
+        public Process getProzess() {
+            return process;
+        }
+
+        @Override
+        public Integer getProcessId() {
+            return process.getId();
+        }
+
+        @Override
+        public String getTitel() {
+            return "Register DOIs";
+        }
+    }
+}
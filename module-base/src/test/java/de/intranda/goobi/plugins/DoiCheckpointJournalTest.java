@@ -0,0 +1,119 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.DoiCheckpointJournal.Phase;
+
+public class DoiCheckpointJournalTest {
+
+    private Path folder;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("doi_checkpoints");
+        file = folder.resolve(DoiCheckpointJournal.FILENAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Test
+    public void testPhasesAreRestored() throws Exception {
+        try (DoiCheckpointJournal journal = new DoiCheckpointJournal(file)) {
+            journal.record("10.33510/PPN42_1", Phase.BUILT, "a");
+            journal.record("10.33510/PPN42_1", Phase.POSTED, "a");
+            journal.record("10.33510/PPN42_2", Phase.BUILT, "b");
+            journal.record("10.33510/PPN42_2", Phase.POSTED, "b");
+            journal.record("10.33510/PPN42_2", Phase.URL_SET, "b");
+        }
+
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        assertEquals(Phase.POSTED, journal.getPhase("10.33510/PPN42_1", "a"));
+        assertEquals(Phase.URL_SET, journal.getPhase("10.33510/PPN42_2", "b"));
+        assertTrue(journal.hasReached("10.33510/PPN42_2", "b", Phase.POSTED));
+        assertFalse(journal.hasReached("10.33510/PPN42_1", "a", Phase.URL_SET));
+        assertNull(journal.getPhase("10.33510/PPN42_3", "c"));
+        assertFalse(journal.isFinished("10.33510/PPN42_2", "b"));
+    }
+
+    @Test
+    public void testChangedPayloadStartsFromTheBeginning() throws Exception {
+        try (DoiCheckpointJournal journal = new DoiCheckpointJournal(file)) {
+            journal.record("10.33510/PPN42_1", Phase.POSTED, "a");
+        }
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        assertNull(journal.getPhase("10.33510/PPN42_1", "changed"));
+        assertFalse(journal.hasReached("10.33510/PPN42_1", "changed", Phase.POSTED));
+    }
+
+    @Test
+    public void testMetsWrittenOnlyForAddedDois() throws Exception {
+        try (DoiCheckpointJournal journal = new DoiCheckpointJournal(file)) {
+            journal.record("10.33510/PPN42_1", Phase.URL_SET, "a");
+            journal.record("10.33510/PPN42_2", Phase.URL_SET, "b");
+            journal.awaitMets("10.33510/PPN42_1");
+            journal.metsWritten();
+            // the second DOI was added after the METS file was written
+            journal.awaitMets("10.33510/PPN42_2");
+        }
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        assertTrue(journal.isFinished("10.33510/PPN42_1", "a"));
+        // the element was changed since it was saved
+        assertFalse(journal.isFinished("10.33510/PPN42_1", "c"));
+        assertEquals(Phase.METS_WRITTEN, journal.getPhase("10.33510/PPN42_1", "a"));
+        assertFalse(journal.isFinished("10.33510/PPN42_2", "b"));
+        assertEquals(Phase.URL_SET, journal.getPhase("10.33510/PPN42_2", "b"));
+    }
+
+    @Test
+    public void testIncompleteLastLineIsIgnored() throws Exception {
+        try (DoiCheckpointJournal journal = new DoiCheckpointJournal(file)) {
+            journal.record("10.33510/PPN42_1", Phase.POSTED, "a");
+        }
+        Files.write(file, "URL_SET MTAuMz".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        assertEquals(Phase.POSTED, journal.getPhase("10.33510/PPN42_1", "a"));
+    }
+
+    @Test
+    public void testCompactionAfterFailedRun() throws Exception {
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        for (int i = 1; i <= 10; i++) {
+            journal.record("10.33510/PPN42_" + i, Phase.BUILT, "f" + i);
+            journal.record("10.33510/PPN42_" + i, Phase.POSTED, "f" + i);
+            journal.record("10.33510/PPN42_" + i, Phase.URL_SET, "f" + i);
+        }
+        journal.complete(false);
+
+        assertEquals(10, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+        DoiCheckpointJournal compacted = new DoiCheckpointJournal(file);
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(Phase.URL_SET, compacted.getPhase("10.33510/PPN42_" + i, "f" + i));
+        }
+    }
+
+    @Test
+    public void testDeletedAfterSuccessfulRun() throws Exception {
+        DoiCheckpointJournal journal = new DoiCheckpointJournal(file);
+        journal.record("10.33510/PPN42_1", Phase.POSTED, "a");
+        journal.complete(true);
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,47 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DoiFingerprintStoreTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("doi");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(folder.resolve(DoiFingerprintStore.FILENAME));
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void testFingerprintsSurviveRuns() throws Exception {
+        DoiFingerprintStore store = new DoiFingerprintStore(folder.resolve(DoiFingerprintStore.FILENAME));
+        assertFalse(store.isUnchanged("10.33510/go-goobi-1", "abc"));
+        store.put("10.33510/go-goobi-1", "abc");
+        store.save();
+
+        DoiFingerprintStore reloaded = new DoiFingerprintStore(folder.resolve(DoiFingerprintStore.FILENAME));
+        assertTrue(reloaded.isUnchanged("10.33510/go-goobi-1", "abc"));
+        assertFalse(reloaded.isUnchanged("10.33510/go-goobi-1", "def"));
+        assertFalse(reloaded.isUnchanged("10.33510/go-goobi-2", "abc"));
+    }
+
+    @Test
+    public void testNothingWrittenWithoutChanges() throws Exception {
+        DoiFingerprintStore store = new DoiFingerprintStore(folder.resolve(DoiFingerprintStore.FILENAME));
+        store.save();
+        assertFalse(Files.exists(folder.resolve(DoiFingerprintStore.FILENAME)));
+    }
+}
@@ -0,0 +1,136 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class DoiMetricsTest {
+
+    @Before
+    public void setUp() {
+        DoiMetrics.resetAll();
+    }
+
+    @After
+    public void tearDown() {
+        DoiMetrics.clearContext();
+        DoiMetrics.resetAll();
+        HttpClientPool.closeAll();
+    }
+
+    private static DoiMetrics.Timer getTimer(DoiMetrics.Phase phase, String structureType, String endpoint) {
+        for (DoiMetrics.Timer timer : DoiMetrics.getTimers()) {
+            if (timer.getPhase() == phase && timer.getStructureType().equals(structureType) && timer.getEndpoint().equals(endpoint)) {
+                return timer;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testTimersAreTaggedByContext() throws Exception {
+        DoiMetrics.setContext("Project A", "Article");
+        DoiMetrics.record(DoiMetrics.Phase.XSLT, TimeUnit.MILLISECONDS.toNanos(4));
+        DoiMetrics.record(DoiMetrics.Phase.XSLT, TimeUnit.MILLISECONDS.toNanos(2));
+        DoiMetrics.setContext("Project A", "Chapter");
+        DoiMetrics.record(DoiMetrics.Phase.XSLT, TimeUnit.MILLISECONDS.toNanos(1));
+
+        DoiMetrics.Timer article = getTimer(DoiMetrics.Phase.XSLT, "Article", "");
+        assertEquals("Project A", article.getProject());
+        assertEquals(2, article.getCount());
+        assertEquals(6.0, article.getTotalMillis(), 0.001);
+        assertEquals(4.0, article.getMaxMillis(), 0.001);
+        assertEquals(3.0, article.getMeanMillis(), 0.001);
+        assertEquals(1, getTimer(DoiMetrics.Phase.XSLT, "Chapter", "").getCount());
+    }
+
+    @Test
+    public void testTimersAreAvailableInJmx() throws Exception {
+        DoiMetrics.setContext("Project A", "Article");
+        DoiMetrics.record(DoiMetrics.Phase.METS_WRITE, TimeUnit.MILLISECONDS.toNanos(3));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(DoiMetrics.JMX_DOMAIN + ":type=DoiMetrics,phase=mets_write,project=" + ObjectName.quote("Project A")
+                + ",structureType=" + ObjectName.quote("Article"));
+        assertEquals(1L, server.getAttribute(name, "Count"));
+        assertEquals(3.0, (Double) server.getAttribute(name, "TotalMillis"), 0.001);
+
+        DoiMetrics.resetAll();
+        assertTrue(!server.isRegistered(name));
+    }
+
+    @Test
+    public void testPrometheusFormat() throws Exception {
+        DoiMetrics.setContext("Project \"A\"", "Article");
+        DoiMetrics.record(DoiMetrics.Phase.HTTP, "PUT doi", TimeUnit.MILLISECONDS.toNanos(250));
+
+        StringWriter out = new StringWriter();
+        DoiMetrics.writePrometheus(out);
+        String text = out.toString();
+        String labels = "{phase=\"http\",project=\"Project \\\"A\\\"\",structure_type=\"Article\",endpoint=\"PUT doi\"}";
+        assertTrue(text, text.contains("# TYPE goobi_doi_phase_seconds summary\n"));
+        assertTrue(text, text.contains("goobi_doi_phase_seconds_count" + labels + " 1\n"));
+        assertTrue(text, text.contains("goobi_doi_phase_seconds_sum" + labels + " 0.250000\n"));
+        assertTrue(text, text.contains("goobi_doi_phase_seconds_max" + labels + " 0.250000\n"));
+    }
+
+    @Test
+    public void testRequestsAndRetriesAreMeasured() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            // the first request is throttled
+            int status = requests.incrementAndGet() == 1 ? 503 : 200;
+            byte[] body = "OK".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/",
+                    "<retry><initialDelay>20</initialDelay></retry><rateLimit enabled=\"false\"/>");
+            DoiMetrics.setContext("Project A", "Article");
+            assertTrue(HelperHttp.checkUrlBasicAuth("doi/10.33510/go-goobi-metrics-1", config));
+        } finally {
+            server.stop(0);
+        }
+
+        assertEquals(2, getTimer(DoiMetrics.Phase.HTTP, "Article", "GET doi").getCount());
+        DoiMetrics.Timer retry = getTimer(DoiMetrics.Phase.HTTP_RETRY, "Article", "GET doi");
+        assertEquals(1, retry.getCount());
+        assertTrue(retry.getTotalMillis() >= 10);
+    }
+
+    @Test
+    public void testRunSummary() {
+        DoiMetrics.RunSummary summary = new DoiMetrics.RunSummary();
+        summary.addElement("10.33510/go-goobi-1", TimeUnit.MILLISECONDS.toNanos(100));
+        summary.addElement("10.33510/go-goobi-2", TimeUnit.MILLISECONDS.toNanos(300));
+        summary.addElement("10.33510/go-goobi-3", TimeUnit.MILLISECONDS.toNanos(200));
+
+        assertEquals(3, summary.getElementCount());
+        assertEquals(600, summary.getHttpMillis());
+        assertEquals("10.33510/go-goobi-2", summary.getSlowestElement());
+        assertEquals("3 elements, 600 ms of requests to DataCite, slowest element 10.33510/go-goobi-2 with 300 ms", summary.toString());
+    }
+}
@@ -0,0 +1,208 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DoiOutboxTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("doi_outbox");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private DoiOutbox createOutbox(int entries) throws IOException {
+        DoiOutbox outbox = DoiOutbox.create(folder, 42, 4711);
+        for (int i = 1; i <= entries; i++) {
+            outbox.add("10.33510/PPN42_" + i, i % 2 == 1, i, "Article", "fingerprint" + i, "<resource>" + i + " \u00e4\u00f6\u00fc</resource>");
+        }
+        outbox.setReady();
+        return outbox;
+    }
+
+    /**
+     * fake of DataCite and the METS file, it counts the requests and the written DOIs and can be killed like a stopped worker
+     */
+    private static class CountingTransport implements DoiOutboxWorker.Transport {
+        private final Map<String, Integer> requests;
+        private final Map<String, Integer> mets;
+        private int killAtRequest = -1;
+        private boolean killAfterRequest;
+        private boolean killAtWriteBack;
+        private int sent;
+        private Boolean finished;
+
+        private CountingTransport(Map<String, Integer> requests, Map<String, Integer> mets) {
+            this.requests = requests;
+            this.mets = mets;
+        }
+
+        @Override
+        public String send(OutboxEntry entry) {
+            sent++;
+            if (sent == killAtRequest && !killAfterRequest) {
+                throw new KilledException();
+            }
+            requests.merge(entry.getDoi(), 1, Integer::sum);
+            if (sent == killAtRequest) {
+                throw new KilledException();
+            }
+            return null;
+        }
+
+        @Override
+        public void writeBack(List<OutboxEntry> entries) {
+            if (killAtWriteBack) {
+                throw new KilledException();
+            }
+            for (OutboxEntry entry : entries) {
+                mets.putIfAbsent(entry.getDoi(), 1);
+            }
+        }
+
+        @Override
+        public void finish(DoiOutbox outbox, boolean successful) {
+            finished = successful;
+        }
+    }
+
+    private static class KilledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private void killAndReplay(CountingTransport first, Map<String, Integer> requests, Map<String, Integer> mets) throws IOException {
+        DoiOutbox outbox = createOutbox(10);
+        try {
+            DoiOutboxWorker.drain(outbox, first);
+            fail("worker was not killed");
+        } catch (KilledException e) {
+            // the worker died, only the journal is left
+        }
+        assertNull(first.finished);
+
+        DoiOutbox replayed = DoiOutbox.load(DoiOutbox.getFile(folder, 42));
+        CountingTransport second = new CountingTransport(requests, mets);
+        assertTrue(DoiOutboxWorker.drain(replayed, second));
+        assertTrue(second.finished);
+        assertFalse(Files.exists(DoiOutbox.getFile(folder, 42)));
+
+        // no DOI is lost
+        assertEquals(10, requests.size());
+        assertEquals(10, mets.size());
+    }
+
+    @Test
+    public void testJournalIsReplayed() throws Exception {
+        DoiOutbox outbox = createOutbox(3);
+        List<OutboxEntry> entries = outbox.getEntries(OutboxEntry.State.QUEUED);
+        outbox.mark(entries.get(0), OutboxEntry.State.SENT_STARTED, null);
+        outbox.mark(entries.get(0), OutboxEntry.State.SENT, null);
+        outbox.mark(entries.get(1), OutboxEntry.State.FAILED, "rejected by DataCite");
+
+        DoiOutbox replayed = DoiOutbox.load(DoiOutbox.getFile(folder, 42));
+        assertEquals(4711, replayed.getStepId());
+        assertTrue(replayed.isReady());
+        List<OutboxEntry> sent = replayed.getEntries(OutboxEntry.State.SENT);
+        assertEquals(1, sent.size());
+        assertEquals("10.33510/PPN42_1", sent.get(0).getDoi());
+        assertTrue(sent.get(0).isNewDoi());
+        assertEquals("<resource>1 \u00e4\u00f6\u00fc</resource>", sent.get(0).getDatacite());
+        assertEquals("rejected by DataCite", replayed.getEntries(OutboxEntry.State.FAILED).get(0).getMessage());
+        assertEquals(1, replayed.getEntries(OutboxEntry.State.QUEUED).size());
+    }
+
+    @Test
+    public void testIncompleteLastLineIsIgnored() throws Exception {
+        createOutbox(2);
+        Path file = DoiOutbox.getFile(folder, 42);
+        Files.write(file, "DONE 1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        DoiOutbox replayed = DoiOutbox.load(file);
+        assertEquals(2, replayed.getEntries(OutboxEntry.State.QUEUED).size());
+    }
+
+    @Test
+    public void testOutboxIsOnlyDrainedWhenReady() throws Exception {
+        DoiOutbox outbox = DoiOutbox.create(folder, 42, 4711);
+        outbox.add("10.33510/PPN42_1", true, 0, "Monograph", "fingerprint", "<resource/>");
+        CountingTransport transport = new CountingTransport(new HashMap<>(), new HashMap<>());
+        assertFalse(DoiOutboxWorker.drain(outbox, transport));
+        assertNull(transport.finished);
+    }
+
+    @Test
+    public void testKilledBeforeRequest() throws Exception {
+        Map<String, Integer> requests = new HashMap<>();
+        Map<String, Integer> mets = new HashMap<>();
+        CountingTransport first = new CountingTransport(requests, mets);
+        first.killAtRequest = 5;
+        killAndReplay(first, requests, mets);
+        // no DOI was sent twice
+        for (Integer count : requests.values()) {
+            assertEquals(1, count.intValue());
+        }
+    }
+
+    @Test
+    public void testKilledDuringRequest() throws Exception {
+        Map<String, Integer> requests = new HashMap<>();
+        Map<String, Integer> mets = new HashMap<>();
+        CountingTransport first = new CountingTransport(requests, mets);
+        first.killAtRequest = 5;
+        first.killAfterRequest = true;
+        killAndReplay(first, requests, mets);
+        // only the request that was running when the worker died is repeated, all accepted DOIs are not sent again
+        for (Map.Entry<String, Integer> entry : requests.entrySet()) {
+            assertEquals(entry.getKey().endsWith("_5") ? 2 : 1, entry.getValue().intValue());
+        }
+    }
+
+    @Test
+    public void testKilledDuringWriteBack() throws Exception {
+        Map<String, Integer> requests = new HashMap<>();
+        Map<String, Integer> mets = new HashMap<>();
+        CountingTransport first = new CountingTransport(requests, mets);
+        first.killAtWriteBack = true;
+        killAndReplay(first, requests, mets);
+        // all DOIs were accepted before, they are only written into the METS file again
+        for (Integer count : requests.values()) {
+            assertEquals(1, count.intValue());
+        }
+    }
+
+    @Test
+    public void testRejectedDoiFailsTheStep() throws Exception {
+        DoiOutbox outbox = createOutbox(3);
+        CountingTransport transport = new CountingTransport(new HashMap<>(), new HashMap<>()) {
+            @Override
+            public String send(OutboxEntry entry) {
+                return entry.getSequence() == 2 ? "invalid metadata" : super.send(entry);
+            }
+        };
+        assertTrue(DoiOutboxWorker.drain(outbox, transport));
+        assertFalse(transport.finished);
+        assertEquals(2, transport.mets.size());
+    }
+}
@@ -0,0 +1,224 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class DoiReconciliationTest {
+
+    private static final String VIEWER = "https://viewer.example.org/resolver?identifier=";
+
+    private HttpServer server;
+    private String address;
+    private Path folder;
+    // DOI, state and url of each registered DOI
+    private List<String[]> registry = new ArrayList<>();
+    // cursor of each request
+    private List<String> cursors = new CopyOnWriteArrayList<>();
+
+    /**
+     * stub of the listing of the REST API, the cursor is the index of the first DOI of the page
+     */
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("doi_reconciliation");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/dois", exchange -> {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!"10.33510".equals(query.get("prefix"))) {
+                respond(exchange, 400, "{\"errors\":[{\"title\":\"Unknown prefix\"}]}");
+                return;
+            }
+            String cursor = query.get("page[cursor]");
+            cursors.add(cursor);
+            int start = "1".equals(cursor) ? 0 : Integer.parseInt(cursor.substring(1));
+            int size = Integer.parseInt(query.get("page[size]"));
+            StringBuilder json = new StringBuilder("{\"data\":[");
+            for (int i = start; i < Math.min(start + size, registry.size()); i++) {
+                String[] doi = registry.get(i);
+                String url = doi[2] == null ? "null" : "\"" + doi[2] + "\"";
+                json.append(i > start ? "," : "").append("{\"id\":\"").append(doi[0]).append("\",\"type\":\"dois\",\"attributes\":{\"doi\":\"")
+                        .append(doi[0]).append("\",\"state\":\"").append(doi[1]).append("\",\"url\":").append(url)
+                        .append(",\"titles\":[{\"title\":\"Title\"}]},\"relationships\":{\"client\":{\"data\":{\"id\":\"goobi\"}}}}");
+            }
+            json.append("],\"meta\":{\"total\":").append(registry.size()).append("},\"links\":{\"self\":\"ignored\"");
+            if (start + size < registry.size()) {
+                json.append(",\"next\":\"").append(address).append("dois?prefix=10.33510&page%5Bcursor%5D=c").append(start + size)
+                        .append("&page%5Bsize%5D=").append(size).append("\"");
+            }
+            json.append("}}");
+            respond(exchange, 200, json.toString());
+        });
+        server.start();
+        address = "http://localhost:" + server.getAddress().getPort() + "/";
+
+        registry.add(new String[] { "10.33510/go-1", "findable", VIEWER + "10.33510/GO-1" });
+        registry.add(new String[] { "10.33510/go-2", "draft", null });
+        registry.add(new String[] { "10.33510/go-3", "findable", "https://old.example.org/10.33510/go-3" });
+        registry.add(new String[] { "10.33510/go-4", "registered", VIEWER + "10.33510/go-4" });
+        registry.add(new String[] { "10.33510/other-1", "findable", "https://other.example.org/" });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        HttpClientPool.closeAll();
+        server.stop(0);
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        for (String pair : query.split("&")) {
+            String[] parts = pair.split("=", 2);
+            values.put(URLDecoder.decode(parts[0], "UTF-8"), URLDecoder.decode(parts[1], "UTF-8"));
+        }
+        return values;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private DoiReconciliation createReconciliation() throws Exception {
+        SubnodeConfiguration config =
+                TestConfigs.createConfig(address, "<api>rest</api><reconciliation><pageSize>2</pageSize></reconciliation>");
+        return new DoiReconciliation(config, folder);
+    }
+
+    private static List<DoiReconciliation.LocalDoi> createLocalDois() {
+        return Arrays.asList(new DoiReconciliation.LocalDoi("10.33510/GO-1", 1), new DoiReconciliation.LocalDoi("10.33510/go-2", 1),
+                new DoiReconciliation.LocalDoi("10.33510/go-3", 2), new DoiReconciliation.LocalDoi("10.33510/go-4", 2),
+                new DoiReconciliation.LocalDoi("10.33510/go-5", 3));
+    }
+
+    private List<String> readLines(String filename) throws IOException {
+        return Files.readAllLines(folder.resolve(filename), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDriftReportAndRepairQueue() throws Exception {
+        DoiReconciliation.Summary summary = createReconciliation().run(createLocalDois(), 0);
+
+        assertTrue(summary.isComplete());
+        assertEquals(3, summary.getPages());
+        assertEquals(5, summary.getRegistryDois());
+        assertEquals(Arrays.asList("1", "c2", "c4"), cursors);
+
+        List<String> report = readLines(DoiReconciliation.REPORT_FILE);
+        assertEquals(6, report.size());
+        assertTrue(report.contains("10.33510/go-2\t1\tDRAFT\tdraft\t"));
+        assertTrue(report.contains("10.33510/go-3\t2\tWRONG_URL\tfindable\thttps://old.example.org/10.33510/go-3"));
+        assertTrue(report.contains("10.33510/go-4\t2\tHIDDEN\tregistered\t" + VIEWER + "10.33510/go-4"));
+        assertTrue(report.contains("10.33510/other-1\t\tUNKNOWN\tfindable\thttps://other.example.org/"));
+        assertTrue(report.contains("10.33510/go-5\t3\tMISSING\t\t"));
+
+        assertEquals(Arrays.asList("action\tprocess\tdoi", "PUBLISH\t1\t10.33510/go-2", "PUBLISH\t2\t10.33510/go-3", "REGISTER\t2\t10.33510/go-4",
+                "REGISTER\t3\t10.33510/go-5"), readLines(DoiReconciliation.QUEUE_FILE));
+        assertFalse(Files.exists(folder.resolve(DoiReconciliation.STATE_FILE)));
+    }
+
+    @Test
+    public void testContinuesFromSavedCursor() throws Exception {
+        DoiReconciliation.Summary summary = createReconciliation().run(createLocalDois(), 1);
+        assertFalse(summary.isComplete());
+        assertTrue(Files.exists(folder.resolve(DoiReconciliation.STATE_FILE)));
+        assertFalse(Files.exists(folder.resolve(DoiReconciliation.REPORT_FILE)));
+
+        // a new instance continues with the second page
+        summary = createReconciliation().run(createLocalDois(), 0);
+        assertTrue(summary.isComplete());
+        assertEquals(3, summary.getPages());
+        assertEquals(5, summary.getRegistryDois());
+        assertEquals(Arrays.asList("1", "c2", "c4"), cursors);
+        assertEquals(6, readLines(DoiReconciliation.REPORT_FILE).size());
+
+        // the next run starts with the first page again
+        createReconciliation().run(createLocalDois(), 1);
+        assertEquals("1", cursors.get(3));
+    }
+
+    @Test
+    public void testLocalDoisAreReadOncePerPass() throws Exception {
+        AtomicInteger reads = new AtomicInteger();
+        DoiReconciliation.LocalDoiSource source = () -> {
+            reads.incrementAndGet();
+            return createLocalDois();
+        };
+        createReconciliation().run(source, 1);
+        createReconciliation().run(source, 1);
+        DoiReconciliation.Summary summary = createReconciliation().run(source, 0);
+        assertTrue(summary.isComplete());
+        assertEquals(1, reads.get());
+        // the same report as with a single run
+        List<String> report = readLines(DoiReconciliation.REPORT_FILE);
+        assertEquals(6, report.size());
+        assertTrue(report.contains("10.33510/go-3\t2\tWRONG_URL\tfindable\thttps://old.example.org/10.33510/go-3"));
+        assertTrue(report.contains("10.33510/go-5\t3\tMISSING\t\t"));
+        assertFalse(Files.exists(folder.resolve(DoiReconciliation.LOCAL_FILE)));
+
+        // the next pass reads them again
+        createReconciliation().run(source, 1);
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testDraftsAreExpectedIfConfigured() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig(address, "<api>rest</api><draft>true</draft>");
+        DoiReconciliation reconciliation = new DoiReconciliation(config, folder);
+        DoiReconciliation.LocalDoi local = new DoiReconciliation.LocalDoi("10.33510/go-2", 1);
+        assertNull(reconciliation.compare(new DataCiteListing.Entry("10.33510/go-2", "draft", null), local));
+    }
+
+    @Test
+    public void testListingAddressOfMds() throws Exception {
+        assertEquals("https://api.test.datacite.org/",
+                DataCiteListing.getServiceAddress(TestConfigs.createConfig("https://mds.test.datacite.org/")));
+        String reconciliation = "<reconciliation><serviceAddress>https://api.example.org/</serviceAddress></reconciliation>";
+        assertEquals("https://api.example.org/",
+                DataCiteListing.getServiceAddress(TestConfigs.createConfig("https://mds.test.datacite.org/", reconciliation)));
+    }
+
+    @Test
+    public void testParsePageSkipsOtherFields() throws Exception {
+        String json = "{\"meta\":{\"total\":1,\"states\":[{\"id\":\"findable\"}]},\"data\":[{\"attributes\":{\"identifiers\":[],"
+                + "\"state\":\"findable\",\"url\":\"https://viewer.example.org/\",\"doi\":\"10.33510/go-1\"},\"id\":\"10.33510/go-1\"}],"
+                + "\"links\":{\"self\":\"https://api.datacite.org/dois\"}}";
+        List<DataCiteListing.Entry> entries = new ArrayList<>();
+        String next = DataCiteListing.parsePage(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), entries::add);
+        assertNull(next);
+        assertEquals(1, entries.size());
+        assertEquals("10.33510/go-1", entries.get(0).getDoi());
+        assertEquals("findable", entries.get(0).getState());
+        assertEquals("https://viewer.example.org/", entries.get(0).getUrl());
+    }
+}
@@ -0,0 +1,182 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DoiRetryUtilsTest {
+
+    private static final String ENDPOINT = "https://mds.test.datacite.org/";
+
+    private RetryPolicy policy = new RetryPolicy(4, 1, 10, 2000, 1);
+
+    @After
+    public void tearDown() {
+        RetryBudget.resetAll();
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void testRetryableStatusIsRepeated() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000),
+                () -> calls.incrementAndGet() < 3 ? new HttpResult(503, "down", "0") : new HttpResult(201, "OK", null));
+        assertEquals(201, result.getStatusCode());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testClientErrorIsNotRepeated() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000), () -> {
+            calls.incrementAndGet();
+            return new HttpResult(422, "invalid xml", null);
+        });
+        assertEquals(422, result.getStatusCode());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testLastResponseAfterAllAttempts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000), () -> {
+            calls.incrementAndGet();
+            return new HttpResult(500, "error", null);
+        });
+        assertEquals(500, result.getStatusCode());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testRetryAfterIsRespected() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000),
+                () -> calls.incrementAndGet() == 1 ? new HttpResult(429, "slow down", "1") : new HttpResult(201, "OK", null));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    public void testExceptionKeepsCause() throws Exception {
+        IOException cause = new IOException("connection reset");
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000), () -> {
+                throw cause;
+            });
+            fail("exception expected");
+        } catch (IOException e) {
+            assertEquals(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void testUnknownHostIsNotRepeated() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, new CircuitBreaker(ENDPOINT, 10, 1000), () -> {
+                calls.incrementAndGet();
+                throw new UnknownHostException("mds.test.datacite.org");
+            });
+            fail("exception expected");
+        } catch (UnknownHostException e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testOpenCircuitFailsFast() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(ENDPOINT, 2, 60000);
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> {
+                calls.incrementAndGet();
+                return new HttpResult(503, "down", null);
+            });
+            fail("exception expected");
+        } catch (IOException e) {
+            // the circuit opened after the second failure
+            assertEquals(2, calls.get());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> new HttpResult(201, "OK", null));
+            fail("exception expected");
+        } catch (IOException e) {
+            assertEquals(2, calls.get());
+        }
+    }
+
+    @Test
+    public void testCircuitClosesAfterRecovery() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(ENDPOINT, 1, 10);
+        breaker.recordFailure();
+        Thread.sleep(20);
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> new HttpResult(201, "OK", null));
+        assertEquals(201, result.getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testCircuitIsSettledAfterFailedTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(ENDPOINT, 1, 10);
+        breaker.recordFailure();
+        Thread.sleep(20);
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> {
+                throw new UnknownHostException("mds.test.datacite.org");
+            });
+            fail("exception expected");
+        } catch (UnknownHostException e) {
+            // the trial failed, the circuit is open again
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+        Thread.sleep(20);
+        try {
+            DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> {
+                throw new IllegalStateException("no connection");
+            });
+            fail("exception expected");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+        // the next trial is allowed after the open time
+        Thread.sleep(20);
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> new HttpResult(201, "OK", null));
+        assertEquals(201, result.getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testTooManyRequestsDoNotOpenCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(ENDPOINT, 2, 60000);
+        HttpResult result = DoiRetryUtils.execute(ENDPOINT, policy, breaker, () -> new HttpResult(429, "slow down", "0"));
+        assertEquals(429, result.getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testRetryBudgetLimitsRetries() throws Exception {
+        RetryPolicy smallBudget = new RetryPolicy(100, 1, 1, 2000, 0);
+        AtomicInteger calls = new AtomicInteger();
+        DoiRetryUtils.execute(ENDPOINT, smallBudget, new CircuitBreaker(ENDPOINT, 1000, 1000), () -> {
+            calls.incrementAndGet();
+            return new HttpResult(503, "down", null);
+        });
+        // the initial budget allows ten retries
+        assertEquals(11, calls.get());
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120000, DoiRetryUtils.parseRetryAfter("120"));
+        assertEquals(0, DoiRetryUtils.parseRetryAfter(null));
+        assertEquals(0, DoiRetryUtils.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+}
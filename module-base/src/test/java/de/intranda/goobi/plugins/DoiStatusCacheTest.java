@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class DoiStatusCacheTest {
+
+    private HttpServer server;
+    private AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            // only the first DOI is registered
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().endsWith("-1") ? 200 : 404, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        HttpClientPool.closeAll();
+        DoiStatusCache.clear();
+        server.stop(0);
+    }
+
+    @Test
+    public void testStatusIsRequestedOnce() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/");
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-1", config));
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-1", config));
+        assertFalse(DoiStatusCache.isResolvable("10.33510/go-goobi-2", config));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testKnownStatusIsNotRequested() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/");
+        DoiStatusCache.setResolvable("10.33510/go-goobi-3", true, config);
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-3", config));
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/",
+                "<verification><cacheSize>2</cacheSize></verification>");
+        DoiStatusCache.setResolvable("10.33510/go-goobi-4", true, config);
+        DoiStatusCache.setResolvable("10.33510/go-goobi-5", true, config);
+        // the first status was used most recently and is kept
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-4", config));
+        DoiStatusCache.setResolvable("10.33510/go-goobi-6", true, config);
+        assertEquals(2, DoiStatusCache.size());
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-4", config));
+        assertEquals(0, requests.get());
+        assertFalse(DoiStatusCache.isResolvable("10.33510/go-goobi-5", config));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testExpiredStatusIsRequestedAgain() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/",
+                "<verification><cacheSeconds>0</cacheSeconds></verification>");
+        DoiStatusCache.setResolvable("10.33510/go-goobi-1", false, config);
+        Thread.sleep(5);
+        assertTrue(DoiStatusCache.isResolvable("10.33510/go-goobi-1", config));
+        assertEquals(1, requests.get());
+    }
+}
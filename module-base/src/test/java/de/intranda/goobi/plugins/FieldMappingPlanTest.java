@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.Test;
+
+public class FieldMappingPlanTest {
+
+    private static final String FIELDS = "<field name=\"TITLE\" default=\"- UNKNOWN TITLE -\"><data content=\"{meta.TitleDocMainShort}\"/>"
+            + "<data content=\"{meta.TitleDocMain}\"/></field>"
+            + "<field name=\"CREATOR\" default=\"- NO CREATOR DEFINED -\" repeatable=\"true\"><data content=\"{metas.Author}\"/></field>"
+            + "<field name=\"NUMBER\"><data content=\"{meta.CurrentNo}\"/></field>";
+
+    private static List<ContentField> createFields(Map<String, String> values) throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost/", FIELDS);
+        FieldMappingPlan plan = FieldMappingPlan.compile(config);
+        return plan.createContentFields(values::get);
+    }
+
+    private static void assertField(String name, String value, ContentField field) {
+        assertEquals(name, field.getName());
+        assertEquals(value, field.getValue());
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        FieldMappingPlan plan = FieldMappingPlan.compile(TestConfigs.createConfig("http://localhost/", FIELDS));
+        assertEquals(3, plan.getFields().size());
+        assertEquals("TITLE", plan.getFields().get(0).getName());
+        assertEquals(2, plan.getFields().get(0).getContents().size());
+        assertTrue(plan.getFields().get(1).isRepeatable());
+    }
+
+    @Test
+    public void testFirstReplacedDataIsUsed() throws Exception {
+        Map<String, String> values = new HashMap<>();
+        values.put("{meta.TitleDocMain}", "Main title");
+        values.put("{metas.Author}", "Doe, Jane; Roe, Richard");
+        List<ContentField> fields = createFields(values);
+
+        assertEquals(3, fields.size());
+        assertField("TITLE", "Main title", fields.get(0));
+        assertField("CREATOR", "Doe, Jane", fields.get(1));
+        assertField("CREATOR", "Roe, Richard", fields.get(2));
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        List<ContentField> fields = createFields(new HashMap<>());
+        // the field without default is left out
+        assertEquals(2, fields.size());
+        assertField("TITLE", "- UNKNOWN TITLE -", fields.get(0));
+        assertField("CREATOR", "- NO CREATOR DEFINED -", fields.get(1));
+    }
+}
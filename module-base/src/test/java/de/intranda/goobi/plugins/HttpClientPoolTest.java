@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpClientPoolTest {
+
+    private HttpServer server;
+    private List<String> authHeaders = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            authHeaders.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            byte[] body = "https://viewer.example.org/".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        HttpClientPool.closeAll();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/");
+        HttpClientPool.Statistics before = HttpClientPool.getStatistics(config);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(HelperHttp.checkUrlBasicAuth("doi/10.33510/go-goobi-" + i, config));
+        }
+        HttpClientPool.Statistics stats = HttpClientPool.getStatistics(config).since(before);
+        assertEquals(10, stats.getRequests());
+        assertEquals(1, stats.getConnectionsOpened());
+        assertEquals(9, stats.getConnectionsReused());
+    }
+
+    @Test
+    public void testCredentialsAreSentPreemptively() throws Exception {
+        SubnodeConfiguration config = TestConfigs.createConfig("http://localhost:" + server.getAddress().getPort() + "/");
+        HelperHttp.checkUrlBasicAuth("doi/10.33510/go-goobi-1", config);
+        assertEquals(1, authHeaders.size());
+        assertEquals("Basic VVNFUjpQQVNTV09SRA==", authHeaders.get(0));
+    }
+
+    @Test
+    public void testSameClientForSameService() throws Exception {
+        String address = "http://localhost:" + server.getAddress().getPort() + "/";
+        assertTrue(HttpClientPool.getClient(TestConfigs.createConfig(address)) == HttpClientPool.getClient(TestConfigs.createConfig(address)));
+    }
+}
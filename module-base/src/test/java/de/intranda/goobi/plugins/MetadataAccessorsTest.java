@@ -0,0 +1,47 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetadataAccessorsTest {
+
+    @Test
+    public void testSimpleExpressions() {
+        MetadataAccessors.Expression expression = MetadataAccessors.parse("{meta.TitleDocMain}");
+        assertFalse(expression.isMultipleValues());
+        assertEquals(MetadataAccessors.Level.ALL, expression.getLevel());
+        assertEquals("TitleDocMain", expression.getMetadataName());
+
+        expression = MetadataAccessors.parse("{metas.SubjectTopic}");
+        assertTrue(expression.isMultipleValues());
+        assertEquals("SubjectTopic", expression.getMetadataName());
+
+        expression = MetadataAccessors.parse("$(meta.CatalogIDDigital)");
+        assertEquals("CatalogIDDigital", expression.getMetadataName());
+    }
+
+    @Test
+    public void testLevels() {
+        MetadataAccessors.Expression expression = MetadataAccessors.parse("{meta.topstruct.TitleDocMain}");
+        assertEquals(MetadataAccessors.Level.TOPSTRUCT, expression.getLevel());
+        assertEquals("TitleDocMain", expression.getMetadataName());
+
+        expression = MetadataAccessors.parse("{meta.firstchild.CurrentNo}");
+        assertEquals(MetadataAccessors.Level.FIRSTCHILD, expression.getLevel());
+        assertEquals("CurrentNo", expression.getMetadataName());
+    }
+
+    @Test
+    public void testOtherExpressionsAreNotCompiled() {
+        assertNull(MetadataAccessors.parse(null));
+        assertNull(MetadataAccessors.parse("{process.Title}"));
+        assertNull(MetadataAccessors.parse("{meta.TitleDocMain} ({meta.CurrentNo})"));
+        assertNull(MetadataAccessors.parse("Title: {meta.TitleDocMain}"));
+        assertNull(MetadataAccessors.parse("{meta.TitleDocMain)"));
+        assertNull(MetadataAccessors.parse("{meta.unknownlevel.TitleDocMain}"));
+    }
+}
@@ -0,0 +1,168 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetsDoiWriterTest {
+
+    private static final String METS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\" "
+            + "xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n"
+            + "  <!-- <goobi:goobi> in a comment -->\n"
+            + "  <mets:dmdSec ID=\"DMDLOG_0000\">\n"
+            + "    <mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension>\n"
+            + "      <goobi:goobi>\n"
+            + "        <goobi:metadata name=\"TitleDocMain\">Stadt &amp; Land &gt; Übersicht</goobi:metadata>\n"
+            + "        <goobi:metadata name=\"DOI\">10.33510/go-1</goobi:metadata>\n"
+            + "        <goobi:metadata name=\"Author\" type=\"person\"><goobi:lastName>Doe</goobi:lastName></goobi:metadata>\n"
+            + "      </goobi:goobi>\n"
+            + "    </mods:extension></mods:mods></mets:xmlData></mets:mdWrap>\n"
+            + "  </mets:dmdSec>\n"
+            + "  <mets:dmdSec ID='DMDLOG_0001'>\n"
+            + "    <mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension>\n"
+            + "      <goobi:goobi>\n"
+            + "        <goobi:metadata name=\"TitleDocMain\"><![CDATA[Kapitel </goobi:goobi>]]></goobi:metadata>\n"
+            + "      </goobi:goobi>\n"
+            + "    </mods:extension></mods:mods></mets:xmlData></mets:mdWrap>\n"
+            + "  </mets:dmdSec>\n"
+            + "  <mets:structMap TYPE=\"LOGICAL\">\n"
+            + "    <mets:div ID=\"LOG_0000\" TYPE=\"Monograph\" DMDID=\"DMDLOG_0000\" ADMID=\"AMD\">\n"
+            + "      <mets:div ID=\"LOG_0001\" TYPE=\"Chapter\" DMDID=\"DMDLOG_0001\" LABEL=\"a &gt; b\"/>\n"
+            + "      <mets:div ID=\"LOG_0002\" TYPE=\"Chapter\"/>\n"
+            + "    </mets:div>\n"
+            + "  </mets:structMap>\n"
+            + "  <mets:structMap TYPE=\"PHYSICAL\">\n"
+            + "    <mets:div ID=\"PHYS_0000\" TYPE=\"BoundBook\">\n"
+            + "      <mets:div ID=\"PHYS_0001\" ORDER=\"1\" ORDERLABEL=\"I\" TYPE=\"page\"/>\n"
+            + "      <mets:div ID=\"PHYS_0002\" ORDER=\"2\" ORDERLABEL=\"1\" TYPE=\"page\"/>\n"
+            + "      <mets:div ID=\"PHYS_0003\" ORDER=\"3\" ORDERLABEL=\"2\" TYPE=\"page\"/>\n"
+            + "    </mets:div>\n"
+            + "  </mets:structMap>\n"
+            + "  <mets:structLink>\n"
+            + "    <mets:smLink xlink:from=\"LOG_0000\" xlink:to=\"PHYS_0001\"/>\n"
+            + "    <mets:smLink xlink:from=\"LOG_0000\" xlink:to=\"PHYS_0002\"/>\n"
+            + "    <mets:smLink xlink:from=\"LOG_0000\" xlink:to=\"PHYS_0003\"/>\n"
+            + "    <mets:smLink xlink:from=\"LOG_0001\" xlink:to=\"PHYS_0003\"/>\n"
+            + "    <mets:smLink xlink:from=\"LOG_0001\" xlink:to=\"PHYS_0002\"/>\n"
+            + "  </mets:structLink>\n"
+            + "</mets:mets>\n";
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("meta", ".xml");
+        Files.write(file, METS.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private String readFile() throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testOutline() throws Exception {
+        MetsOutline outline = MetsOutline.read(file, Arrays.asList("DOI", "TitleDocMain", "Author"));
+        assertEquals(3, outline.getStructures().size());
+
+        MetsOutline.Structure top = outline.getStructure("LOG_0000");
+        assertEquals("Monograph", top.getType());
+        assertEquals(0, top.getLevel());
+        assertEquals("10.33510/go-1", top.getFirstValue("DOI"));
+        assertEquals("Stadt & Land > Übersicht", top.getFirstValue("TitleDocMain"));
+        assertNull(top.getFirstValue("Author"));
+        assertEquals("I", top.getPageStart());
+        assertEquals("2", top.getPageEnd());
+
+        MetsOutline.Structure chapter = outline.getStructure("LOG_0001");
+        assertEquals(1, chapter.getLevel());
+        assertEquals(top, chapter.getParent());
+        assertEquals("Kapitel </goobi:goobi>", chapter.getFirstValue("TitleDocMain"));
+        assertEquals("1", chapter.getPageStart());
+        assertEquals("2", chapter.getPageEnd());
+
+        assertNull(outline.getStructure("LOG_0002").getDmdId());
+    }
+
+    @Test
+    public void testInsertPreservesTheRestOfTheFile() throws Exception {
+        int inserted = MetsDoiWriter.insert(file, "DOI", Arrays.asList(new MetsDoiWriter.Insertion("LOG_0001", "Chapter", "10.33510/go-1_1"),
+                new MetsDoiWriter.Insertion("LOG_0000", "Monograph", "10.33510/go-1")));
+        assertEquals(1, inserted);
+
+        String expected = METS.replace("<![CDATA[Kapitel </goobi:goobi>]]></goobi:metadata>\n",
+                "<![CDATA[Kapitel </goobi:goobi>]]></goobi:metadata>\n        <goobi:metadata name=\"DOI\">10.33510/go-1_1</goobi:metadata>\n");
+        assertEquals(expected, readFile());
+        assertEquals("10.33510/go-1_1", MetsOutline.read(file, Collections.singleton("DOI")).getStructure("LOG_0001").getFirstValue("DOI"));
+
+        // the DOI is not inserted twice
+        assertEquals(0, MetsDoiWriter.insert(file, "DOI", Arrays.asList(new MetsDoiWriter.Insertion("LOG_0001", "Chapter", "10.33510/go-1_1"))));
+        assertEquals(expected, readFile());
+    }
+
+    @Test
+    public void testInsertKeepsPermissionsAndOwner() throws Exception {
+        PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (view == null) {
+            // not a POSIX file system
+            return;
+        }
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-rw-r--"));
+        PosixFileAttributes before = view.readAttributes();
+
+        assertEquals(1, MetsDoiWriter.insert(file, "DOI", Arrays.asList(new MetsDoiWriter.Insertion("LOG_0001", "Chapter", "10.33510/go-1_1"))));
+
+        PosixFileAttributes after = Files.getFileAttributeView(file, PosixFileAttributeView.class).readAttributes();
+        assertEquals(before.permissions(), after.permissions());
+        assertEquals(before.owner(), after.owner());
+        assertEquals(before.group(), after.group());
+    }
+
+    @Test
+    public void testUnknownElementLeavesFileUnchanged() throws Exception {
+        assertInsertFails(new MetsDoiWriter.Insertion("LOG_0003", "Chapter", "10.33510/go-1_3"));
+        // the type of the div does not match
+        assertInsertFails(new MetsDoiWriter.Insertion("LOG_0001", "Article", "10.33510/go-1_1"));
+        // the div has no metadata section
+        assertInsertFails(new MetsDoiWriter.Insertion("LOG_0002", "Chapter", "10.33510/go-1_2"));
+    }
+
+    @Test
+    public void testOtherEncodingIsRejected() throws Exception {
+        Files.write(file, METS.replace("UTF-8", "ISO-8859-1").getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            MetsDoiWriter.insert(file, "DOI", Arrays.asList(new MetsDoiWriter.Insertion("LOG_0001", "Chapter", "10.33510/go-1_1")));
+            fail();
+        } catch (IOException e) {
+            assertEquals(METS.replace("UTF-8", "ISO-8859-1"), new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private void assertInsertFails(MetsDoiWriter.Insertion insertion) throws IOException {
+        try {
+            MetsDoiWriter.insert(file, "DOI", Arrays.asList(insertion));
+            fail();
+        } catch (IOException e) {
+            assertEquals(METS, readFile());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RegistrationPipelineTest {
+
+    private static List<Integer> elements(int count) {
+        List<Integer> elements = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            elements.add(i);
+        }
+        return elements;
+    }
+
+    @Test
+    public void testAllSuccessful() {
+        try (RegistrationPipeline<Integer, String> pipeline = new RegistrationPipeline<>(4, 4, false)) {
+            assertTrue(pipeline.run(elements(50), i -> "element_" + i, prepared -> true));
+        }
+    }
+
+    @Test
+    public void testSingleFailureIsNotOverwritten() {
+        try (RegistrationPipeline<Integer, Integer> pipeline = new RegistrationPipeline<>(4, 4, false)) {
+            // only the first element fails, all later ones are successful
+            assertFalse(pipeline.run(elements(50), i -> i, prepared -> prepared != 1));
+        }
+    }
+
+    @Test
+    public void testExceptionIsReported() {
+        List<Object> failed = new ArrayList<>();
+        try (RegistrationPipeline<Integer, Integer> pipeline = new RegistrationPipeline<>(2, 2, false)) {
+            boolean result = pipeline.run(elements(10), i -> {
+                if (i == 5) {
+                    throw new IllegalStateException("broken element");
+                }
+                return i;
+            }, new RegistrationPipeline.Registrar<Integer>() {
+                @Override
+                public boolean register(Integer prepared) {
+                    return true;
+                }
+
+                @Override
+                public void failed(Object element, Throwable cause) {
+                    synchronized (failed) {
+                        failed.add(element);
+                    }
+                }
+            });
+            assertFalse(result);
+        }
+        assertEquals(1, failed.size());
+        assertEquals(5, failed.get(0));
+    }
+
+    @Test
+    public void testMaximumRequestsInFlight() {
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        try (RegistrationPipeline<Integer, Integer> pipeline = new RegistrationPipeline<>(4, 3, false)) {
+            pipeline.run(elements(30), i -> i, prepared -> {
+                int now = current.incrementAndGet();
+                maximum.accumulateAndGet(now, Math::max);
+                Thread.sleep(5);
+                current.decrementAndGet();
+                return true;
+            });
+        }
+        assertTrue(maximum.get() <= 3);
+    }
+}
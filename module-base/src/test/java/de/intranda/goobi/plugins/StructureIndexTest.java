@@ -0,0 +1,141 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.sub.goobi.helper.UghHelper;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.dl.Reference;
+
+public class StructureIndexTest {
+
+    private Prefs prefs;
+    private DocStruct top;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = TestDocuments.loadPrefs();
+        DigitalDocument dd = TestDocuments.createMonograph(prefs, "PPN1", 0);
+        top = dd.getLogicalDocStruct();
+
+        // chapters with nested chapters and articles, some of them without pages
+        DocStruct chapter1 = TestDocuments.addChild(dd, prefs, top, "Chapter", "Chapter 1");
+        TestDocuments.addPage(dd, prefs, chapter1, "1");
+        DocStruct article1 = TestDocuments.addChild(dd, prefs, chapter1, "Article", "Article 1");
+        TestDocuments.addPage(dd, prefs, article1, "1");
+        TestDocuments.addPage(dd, prefs, article1, "2");
+        DocStruct chapter11 = TestDocuments.addChild(dd, prefs, chapter1, "Chapter", "Chapter 1.1");
+        DocStruct article2 = TestDocuments.addChild(dd, prefs, chapter11, "Article", "Article 2");
+        TestDocuments.addPage(dd, prefs, article2, "3");
+        TestDocuments.addChild(dd, prefs, chapter11, "Article", "Article 3");
+        TestDocuments.addChild(dd, prefs, top, "Article", "Article 4");
+        DocStruct chapter2 = TestDocuments.addChild(dd, prefs, top, "Chapter", "Chapter 2");
+        DocStruct chapter21 = TestDocuments.addChild(dd, prefs, chapter2, "Chapter", "Chapter 2.1");
+        DocStruct article5 = TestDocuments.addChild(dd, prefs, chapter21, "Article", "Article 5");
+        TestDocuments.addPage(dd, prefs, article5, "4");
+        TestDocuments.addPage(dd, prefs, article5, "5");
+        TestDocuments.addPage(dd, prefs, article5, "6");
+    }
+
+    @Test
+    public void testFlattenIsInDocumentOrder() {
+        List<DocStruct> expected = top.getAllChildrenAsFlatList();
+        List<DocStruct> flat = StructureIndex.flatten(top);
+        assertEquals(expected.size(), flat.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), flat.get(i));
+        }
+    }
+
+    @Test
+    public void testFlattenWithoutChildren() throws Exception {
+        DigitalDocument dd = TestDocuments.createMonograph(prefs, "PPN2", 0);
+        assertEquals(0, StructureIndex.flatten(dd.getLogicalDocStruct()).size());
+    }
+
+    @Test
+    public void testArticlesAreSameAsBefore() throws Exception {
+        assertSameAsBefore(Collections.singletonList("Article"));
+
+        List<StructureIndex.Entry> entries = StructureIndex.build(top, Collections.singletonList("Article"), prefs).getEntries();
+        assertEquals(5, entries.size());
+        assertEquals("1", entries.get(0).getPageStart());
+        assertEquals("2", entries.get(0).getPageEnd());
+        assertEquals(2, entries.get(0).getPosition());
+        assertNull(entries.get(2).getPageStart());
+        assertEquals("4", entries.get(4).getPageStart());
+        assertEquals("6", entries.get(4).getPageEnd());
+        assertEquals(9, entries.get(4).getPosition());
+    }
+
+    @Test
+    public void testChaptersAndArticlesAreSameAsBefore() throws Exception {
+        assertSameAsBefore(Arrays.asList("Chapter", "Article"));
+    }
+
+    @Test
+    public void testUnknownTypeIsNotFound() {
+        assertEquals(0, StructureIndex.build(top, Collections.singletonList("Map"), prefs).getEntries().size());
+    }
+
+    private void assertSameAsBefore(List<String> types) throws Exception {
+        List<DocStruct> flat = top.getAllChildrenAsFlatList();
+        List<DocStruct> expected = getAllSubElementsOfType(top, types);
+        List<StructureIndex.Entry> entries = StructureIndex.build(top, types, prefs).getEntries();
+        assertEquals(expected.size(), entries.size());
+        for (int i = 0; i < expected.size(); i++) {
+            DocStruct struct = expected.get(i);
+            StructureIndex.Entry entry = entries.get(i);
+            assertSame(struct, entry.getStruct());
+            assertEquals(i + 1, entry.getOrdinal());
+            assertEquals(flat.indexOf(struct) + 1, entry.getPosition());
+            String[] pages = getPageRange(struct);
+            assertEquals(pages[0], entry.getPageStart());
+            assertEquals(pages[1], entry.getPageEnd());
+        }
+    }
+
+    /*
+     * the search, positions and page ranges as the plugin determined them before there was the index
+     */
+
+    private static List<DocStruct> getAllSubElementsOfType(DocStruct parent, List<String> subTypes) {
+        List<DocStruct> found = new ArrayList<>();
+        for (DocStruct child : parent.getAllChildrenAsFlatList()) {
+            if (subTypes.contains(child.getType().getName())) {
+                found.add(child);
+            }
+        }
+        return found;
+    }
+
+    private String[] getPageRange(DocStruct struct) throws Exception {
+        String[] pages = new String[2];
+        List<Reference> refs = struct.getAllToReferences("logical_physical");
+        if (refs != null && !refs.isEmpty()) {
+            MetadataType mdt = new UghHelper().getMetadataType(prefs, "logicalPageNumber");
+            List<? extends Metadata> listStart = refs.get(0).getTarget().getAllMetadataByType(mdt);
+            List<? extends Metadata> listEnd = refs.get(refs.size() - 1).getTarget().getAllMetadataByType(mdt);
+            if (listStart != null && !listStart.isEmpty()) {
+                pages[0] = listStart.get(0).getValue();
+            }
+            if (listEnd != null && !listEnd.isEmpty()) {
+                pages[1] = listEnd.get(0).getValue();
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,45 @@
+package de.intranda.goobi.plugins;
+
+import java.io.StringReader;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+/**
+ * Plugin configurations for the tests, with the test credentials, the test prefix and a viewer address
+ */
+final class TestConfigs {
+
+    private TestConfigs() {
+    }
+
+    /**
+     * create the configuration of the plugin for the given service address
+     *
+     * @param serviceAddress
+     * @return
+     * @throws Exception
+     */
+    static SubnodeConfiguration createConfig(String serviceAddress) throws Exception {
+        return createConfig(serviceAddress, "");
+    }
+
+    /**
+     * create the configuration of the plugin for the given service address
+     *
+     * @param serviceAddress
+     * @param additionalXml further elements inside of the config element
+     * @return
+     * @throws Exception
+     */
+    static SubnodeConfiguration createConfig(String serviceAddress, String additionalXml) throws Exception {
+        String xml = "<config_plugin><config><serviceAddress>" + serviceAddress + "</serviceAddress>"
+                + "<username>USER</username><password>PASSWORD</password><base>10.33510</base>"
+                + "<viewer>https://viewer.example.org/resolver?identifier=</viewer>" + additionalXml + "</config></config_plugin>";
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        xmlConfig.load(new StringReader(xml));
+        return xmlConfig.configurationAt("config");
+    }
+}
@@ -0,0 +1,106 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.UGHException;
+
+/**
+ * Documents of the tests, their types are defined in the ruleset of the test resources
+ */
+final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    /**
+     * load the ruleset of the tests
+     *
+     * @return
+     * @throws IOException
+     * @throws PreferencesException
+     */
+    static Prefs loadPrefs() throws IOException, PreferencesException {
+        // UGH only reads rulesets from files
+        Path file = Files.createTempFile("ruleset", ".xml");
+        try (InputStream in = TestDocuments.class.getResourceAsStream("/ruleset.xml")) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            Prefs prefs = new Prefs();
+            prefs.loadPrefs(file.toString());
+            return prefs;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * create a monograph with the given catalogue identifier and number of chapters
+     *
+     * @param prefs
+     * @param identifier
+     * @param chapters
+     * @return
+     * @throws UGHException
+     */
+    static DigitalDocument createMonograph(Prefs prefs, String identifier, int chapters) throws UGHException {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct top = dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        dd.setLogicalDocStruct(top);
+        dd.setPhysicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook")));
+        addMetadata(prefs, top, "TitleDocMain", "Monograph " + identifier);
+        addMetadata(prefs, top, "CatalogIDDigital", identifier);
+        for (int i = 1; i <= chapters; i++) {
+            addChild(dd, prefs, top, "Chapter", "Chapter " + i);
+        }
+        return dd;
+    }
+
+    /**
+     * add a sub element with a title
+     *
+     * @param dd
+     * @param prefs
+     * @param parent
+     * @param type
+     * @param title
+     * @return the new sub element
+     * @throws UGHException
+     */
+    static DocStruct addChild(DigitalDocument dd, Prefs prefs, DocStruct parent, String type, String title) throws UGHException {
+        DocStruct child = dd.createDocStruct(prefs.getDocStrctTypeByName(type));
+        addMetadata(prefs, child, "TitleDocMain", title);
+        parent.addChild(child);
+        return child;
+    }
+
+    /**
+     * add a page to the physical structure and link it with the element
+     *
+     * @param dd
+     * @param prefs
+     * @param element
+     * @param number physical and logical page number
+     * @throws UGHException
+     */
+    static void addPage(DigitalDocument dd, Prefs prefs, DocStruct element, String number) throws UGHException {
+        DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
+        addMetadata(prefs, page, "physPageNumber", number);
+        addMetadata(prefs, page, "logicalPageNumber", number);
+        dd.getPhysicalDocStruct().addChild(page);
+        element.addReferenceTo(page, "logical_physical");
+    }
+
+    static void addMetadata(Prefs prefs, DocStruct struct, String type, String value) throws UGHException {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        struct.addMetadata(md);
+    }
+}
@@ -0,0 +1,63 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.Test;
+
+public class XmlDocumentEntityTest {
+
+    private static Document createDocument() {
+        Element resource = new Element("resource");
+        Element titles = new Element("titles");
+        titles.addContent(new Element("title").setText("Ein Titel mit Umlauten: \u00e4\u00f6\u00fc"));
+        resource.addContent(titles);
+        return new Document(resource);
+    }
+
+    @Test
+    public void testEntityIsRepeatable() throws IOException {
+        XmlDocumentEntity entity = new XmlDocumentEntity(createDocument());
+        assertTrue(entity.isRepeatable());
+        assertFalse(entity.isStreaming());
+        assertEquals(-1, entity.getContentLength());
+        assertEquals("application/xml;charset=UTF-8", entity.getContentType().getValue());
+
+        // a retry has to send exactly the same bytes again
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        entity.writeTo(first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        entity.writeTo(second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+        assertArrayEquals(first.toByteArray(), IOUtils.toByteArray(entity.getContent()));
+    }
+
+    @Test
+    public void testOutputIsCompact() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XmlDocumentEntity(createDocument()).writeTo(out);
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<resource><titles><title>"));
+        assertTrue(xml.contains("\u00e4\u00f6\u00fc"));
+        assertFalse(xml.contains("  <"));
+    }
+
+    @Test
+    public void testWhiteSpaceInsideOfTextIsKept() throws IOException {
+        Element resource = new Element("resource");
+        resource.addContent(new Element("description").setText("  Erste Zeile\nzweite  Zeile mit   Abstand  "));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XmlDocumentEntity(new Document(resource)).writeTo(out);
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<description>Erste Zeile\nzweite  Zeile mit   Abstand</description>"));
+    }
+}
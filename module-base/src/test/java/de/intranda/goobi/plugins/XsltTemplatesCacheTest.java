@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.xml.transform.Templates;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XsltTemplatesCacheTest {
+
+    private static final String XSLT = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:template match=\"/\"><resource><xsl:value-of select=\"//GOOBI-DOI\"/></resource></xsl:template></xsl:stylesheet>";
+
+    private Path xsltFile;
+
+    @Before
+    public void setUp() throws Exception {
+        xsltFile = Files.createTempFile("doi", ".xsl");
+        Files.write(xsltFile, XSLT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        XsltTemplatesCache.clear();
+        Files.deleteIfExists(xsltFile);
+        Files.deleteIfExists(getSefFile());
+    }
+
+    private Path getSefFile() {
+        return xsltFile.resolveSibling(xsltFile.getFileName() + ".sef");
+    }
+
+    @Test
+    public void testTemplatesAreCompiledOnce() throws Exception {
+        Templates first = XsltTemplatesCache.getTemplates(xsltFile.toString());
+        Templates second = XsltTemplatesCache.getTemplates(xsltFile.toString());
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testTemplatesAreReloadedAfterChange() throws Exception {
+        Templates first = XsltTemplatesCache.getTemplates(xsltFile.toString());
+        Files.setLastModifiedTime(xsltFile, FileTime.fromMillis(Files.getLastModifiedTime(xsltFile).toMillis() + 5000));
+        Templates second = XsltTemplatesCache.getTemplates(xsltFile.toString());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testOnlyNewerPrecompiledStylesheetIsUsed() throws Exception {
+        assertNull(XsltTemplatesCache.getPrecompiledFile(xsltFile.toString()));
+
+        long modified = Files.getLastModifiedTime(xsltFile).toMillis();
+        Path sef = Files.createFile(getSefFile());
+        Files.setLastModifiedTime(sef, FileTime.fromMillis(modified + 5000));
+        assertEquals(sef, XsltTemplatesCache.getPrecompiledFile(xsltFile.toString()));
+
+        // the stylesheet was edited after it was compiled
+        Files.setLastModifiedTime(xsltFile, FileTime.fromMillis(modified + 10000));
+        assertNull(XsltTemplatesCache.getPrecompiledFile(xsltFile.toString()));
+    }
+}
@@ -0,0 +1,100 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the JSON results of a JMH run with a baseline. A benchmark is a regression if its average time is larger than the one of the baseline
+ * by more than the tolerance. If there is no baseline yet, the results become the baseline.
+ *
+ * Usage: <code>BaselineComparison results.json baseline.json [tolerance in percent, default 10]</code>
+ */
+public class BaselineComparison {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison results.json baseline.json [tolerance in percent]");
+            System.exit(2);
+        }
+        Path results = Paths.get(args[0]);
+        Path baseline = Paths.get(args[1]);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        if (!Files.exists(baseline)) {
+            Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("No baseline found, the results were saved as baseline in " + baseline);
+            return;
+        }
+        int regressions = compare(readScores(baseline.toFile()), readScores(results.toFile()), tolerance);
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmarks are slower than the baseline by more than " + tolerance + " %");
+            System.exit(1);
+        }
+        System.out.println("All benchmarks are within " + tolerance + " % of the baseline");
+    }
+
+    /**
+     * print the comparison of each benchmark
+     *
+     * @param baseline
+     * @param results
+     * @param tolerance in percent
+     * @return number of regressions
+     */
+    static int compare(Map<String, Double> baseline, Map<String, Double> results, double tolerance) {
+        int regressions = 0;
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double before = baseline.get(result.getKey());
+            if (before == null) {
+                System.out.println(String.format(Locale.ROOT, "NEW   %-80s %12.3f", result.getKey(), result.getValue()));
+                continue;
+            }
+            double change = (result.getValue() - before) / before * 100;
+            String status = "OK   ";
+            if (change > tolerance) {
+                status = "SLOW ";
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%s %-80s %12.3f %12.3f %+8.1f %%", status, result.getKey(), before, result.getValue(),
+                    change));
+        }
+        return regressions;
+    }
+
+    /**
+     * read the scores of a JMH result file, the key of a score is the name of the benchmark and its parameters
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static Map<String, Double> readScores(File file) throws IOException {
+        Map<String, Double> scores = new TreeMap<>();
+        for (JsonNode run : MAPPER.readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = run.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            scores.put(key.toString(), run.path("primaryMetric").path("score").asDouble());
+        }
+        return scores;
+    }
+}
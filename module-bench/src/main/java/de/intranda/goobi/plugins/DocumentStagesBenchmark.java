@@ -0,0 +1,129 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.jdom2.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the stages that create and serialize the documents of an element: the goobi document, the DataCite document by xsl
+ * transformation or by the native mapping and the request bodies. They start with the content fields of an article of the synthetic monograph
+ * as the shipped configuration creates them, so they do not depend on the size of the document and need no UGH document.
+ *
+ * The configuration and the xsl file are read from the <code>install</code> folder, therefore the benchmarks are started in the root folder of
+ * the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentStagesBenchmark {
+
+    private static final String DOI = "10.33510/go-goobi-bench-1";
+
+    @Param("install/plugin_intranda_step_doi.xml")
+    public String configFile;
+
+    @Param("install/doi.xsl")
+    public String xsltFile;
+
+    private DataCiteMapper dataCiteMapper;
+    private String xsltPath;
+    private String viewer;
+
+    private List<ContentField> elementFields;
+    private Document goobiDocument;
+    private Document dataciteDocument;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration(configFile);
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        SubnodeConfiguration config = xmlConfig.configurationAt("config[1]");
+        dataCiteMapper = new DataCiteMapper(config);
+        viewer = config.getString("viewer");
+        xsltPath = Paths.get(xsltFile).toAbsolutePath().toString();
+
+        elementFields = createElementFields();
+        goobiDocument = goobiDocument();
+        dataciteDocument = xsltTransformation();
+    }
+
+    /**
+     * create the fields of an article of the synthetic monograph
+     *
+     * @return
+     */
+    static List<ContentField> createElementFields() {
+        List<ContentField> fields = new ArrayList<>();
+        // fields of the process
+        fields.add(new ContentField("LANGUAGE", "ger"));
+        fields.add(new ContentField("TITLE", "Synthetic monograph with 1000 sub elements"));
+        fields.add(new ContentField("ANCHORTITLE", "Synthetic monograph with 1000 sub elements"));
+        fields.add(new ContentField("ANCHORSUBTITLE", "Benchmark of the DOI registration"));
+        fields.add(new ContentField("IDENTIFIER", "bench_1000"));
+        fields.add(new ContentField("FORMAT", "Print"));
+        fields.add(new ContentField("PUBLICATIONYEAR", "2024"));
+        fields.add(new ContentField("CREATOR", "Doe, Jane"));
+        fields.add(new ContentField("PUBLISHER", "intranda GmbH"));
+        fields.add(new ContentField("SERIES", "Goobi benchmarks"));
+        fields.add(new ContentField("SUBJECT", "Performance"));
+        fields.add(new ContentField("SUBJECT", "Digital libraries"));
+        fields.add(new ContentField("GOOBI-DOCTYPE", "Monograph"));
+        // fields of the article
+        fields.add(new ContentField("GOOBI-DOI", DOI));
+        fields.add(new ContentField("SUBELEMENT", SyntheticDocuments.ARTICLE));
+        fields.add(new ContentField("SUBELEMENT-PAGE-START", "999"));
+        fields.add(new ContentField("SUBELEMENT-PAGE-END", "1000"));
+        fields.add(new ContentField("METADATA-TitleDocMain", "Sub element 500 of the synthetic monograph"));
+        fields.add(new ContentField("PERSON-Author", "Author 500, Given"));
+        return fields;
+    }
+
+    @Benchmark
+    public Document goobiDocument() {
+        return DoiRegistration.createXmlDocumentOfContent(elementFields);
+    }
+
+    @Benchmark
+    public Document xsltTransformation() throws Exception {
+        return XsltTemplatesCache.transform(goobiDocument, xsltPath);
+    }
+
+    @Benchmark
+    public Document nativeMapping() {
+        return dataCiteMapper.createDocument(elementFields);
+    }
+
+    @Benchmark
+    public int serializeMdsBody() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        XmlDocumentEntity.writeCompact(dataciteDocument, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] serializeRestBody() throws Exception {
+        return DataCiteRest.createJson(DOI, dataciteDocument, true, viewer);
+    }
+}
@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.sub.goobi.helper.VariableReplacer;
+import ugh.dl.DigitalDocument;
+import ugh.dl.Prefs;
+
+/**
+ * Benchmarks of the stages of a registration that read the UGH document: the field list of the process, the fields of the element and the index
+ * of the sub elements. The stages work on the sub element in the middle of a synthetic monograph, the number of its sub elements is a parameter.
+ * The stages that follow are measured by {@link DocumentStagesBenchmark}.
+ *
+ * The configuration is read from the <code>install</code> folder, therefore the benchmarks are started in the root folder of the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementStagesBenchmark {
+
+    private static final String DOI = "10.33510/go-goobi-bench-1";
+
+    @Param({ "10", "1000", "10000" })
+    public int subElements;
+
+    @Param("install/plugin_intranda_step_doi.xml")
+    public String configFile;
+
+    private Prefs prefs;
+    private DigitalDocument dd;
+    private FieldMappingPlan fieldMappingPlan;
+    private VariableReplacer replacer;
+    private List<String> subTypes = Collections.singletonList(SyntheticDocuments.ARTICLE);
+
+    private DoiElement element;
+    private List<ContentField> processFields;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration(configFile);
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        SubnodeConfiguration config = xmlConfig.configurationAt("config[1]");
+        fieldMappingPlan = FieldMappingPlan.compile(config);
+
+        prefs = SyntheticDocuments.loadPrefs();
+        dd = SyntheticDocuments.create(prefs, subElements);
+        // the shipped configuration only uses metadata and persons, so no process is needed
+        replacer = new VariableReplacer(dd, prefs, null, null);
+
+        List<StructureIndex.Entry> entries = structureIndex().getEntries();
+        StructureIndex.Entry entry = entries.get(entries.size() / 2);
+        element = new DoiElement(entry.getStruct(), "bench_" + entry.getOrdinal(), true);
+        element.setPosition(entry.getPosition());
+        element.setPageStart(entry.getPageStart());
+        element.setPageEnd(entry.getPageEnd());
+        processFields = processFieldList();
+    }
+
+    @Benchmark
+    public List<ContentField> processFieldList() {
+        return DoiRegistration.createContentFieldList(fieldMappingPlan, dd, prefs, replacer);
+    }
+
+    @Benchmark
+    public List<ContentField> elementFields() {
+        List<ContentField> contentFields = new ArrayList<>(processFields);
+        contentFields.add(new ContentField("GOOBI-DOI", DOI));
+        DoiRegistration.addElementFields(contentFields, element);
+        return contentFields;
+    }
+
+    @Benchmark
+    public StructureIndex structureIndex() {
+        return StructureIndex.build(dd.getLogicalDocStruct(), subTypes, prefs);
+    }
+}
@@ -0,0 +1,181 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.apache.commons.io.FileUtils;
+import org.goobi.production.enums.LogType;
+
+import ugh.dl.Prefs;
+
+/**
+ * End-to-end load test of the registration against the in-process {@link MockMdsServer}. Each step registers the DOIs of a synthetic process
+ * with the same code the step plugin runs, including rate limit, retries, circuit breaker, fingerprints, checkpoints and deferred METS writes.
+ * At the end the throughput, the requests per element and the latencies of the steps are reported.
+ *
+ * The options are given as <code>name=value</code>:
+ * <ul>
+ * <li>processes: number of processes (20)</li>
+ * <li>subElements: number of sub elements of each process, every fifth is a chapter without DOI (100)</li>
+ * <li>steps: number of steps that run at the same time (1)</li>
+ * <li>latency: response time of the mock in milliseconds (20)</li>
+ * <li>errorRate, throttleRate, resetRate: part of the requests that are answered with 500, with 429 or whose connection is closed (0)</li>
+ * <li>retryAfter: seconds of the Retry-After header of the 429 responses (1)</li>
+ * <li>config: configuration file (install/plugin_intranda_step_doi.xml)</li>
+ * <li>config.{key}: value of a key of the configuration, e.g. <code>config.parallel/@enabled=true</code></li>
+ * </ul>
+ */
+public class LoadTest {
+
+    private static final String CONFIG_PREFIX = "config.";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index < 1) {
+                System.err.println("Options must be given as name=value: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        int processes = Integer.parseInt(options.getOrDefault("processes", "20"));
+        int subElements = Integer.parseInt(options.getOrDefault("subElements", "100"));
+        int steps = Integer.parseInt(options.getOrDefault("steps", "1"));
+
+        Path folder = Files.createTempDirectory("doi_loadtest");
+        int exitCode;
+        try (MockMdsServer mds = new MockMdsServer(64)) {
+            mds.setLatencyMillis(Long.parseLong(options.getOrDefault("latency", "20")));
+            mds.setErrorRate(Double.parseDouble(options.getOrDefault("errorRate", "0")));
+            mds.setThrottleRate(Double.parseDouble(options.getOrDefault("throttleRate", "0")));
+            mds.setResetRate(Double.parseDouble(options.getOrDefault("resetRate", "0")));
+            mds.setRetryAfterSeconds(Integer.parseInt(options.getOrDefault("retryAfter", "1")));
+
+            SubnodeConfiguration config = createConfig(options, mds.getAddress());
+            DoiMetrics.configure(config);
+            StepConfigurationCache.StepConfiguration stepConfiguration = new StepConfigurationCache.StepConfiguration(config, 0);
+            Prefs prefs = SyntheticDocuments.loadPrefs();
+
+            AtomicInteger journalErrors = new AtomicInteger();
+            DoiRegistration.ProcessJournal journal = (processId, type, message) -> {
+                if (type == LogType.ERROR) {
+                    journalErrors.incrementAndGet();
+                    System.err.println("Process " + processId + ": " + message);
+                }
+            };
+
+            ExecutorService executor = Executors.newFixedThreadPool(steps);
+            List<Future<Long>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 1; i <= processes; i++) {
+                int processId = i;
+                results.add(executor.submit(() -> runStep(processId, subElements, prefs, folder, stepConfiguration, journal)));
+            }
+            List<Long> latencies = new ArrayList<>();
+            int failedSteps = 0;
+            for (Future<Long> result : results) {
+                long nanos = result.get();
+                if (nanos < 0) {
+                    failedSteps++;
+                }
+                latencies.add(Math.abs(nanos));
+            }
+            long duration = System.nanoTime() - start;
+            executor.shutdown();
+
+            // the top element and the articles of each process get a DOI
+            long elements = (long) processes * (1 + subElements - subElements / 5);
+            Collections.sort(latencies);
+            System.out.println(String.format(Locale.ROOT, "%d processes with %d sub elements, %d steps at the same time", processes, subElements,
+                    steps));
+            System.out.println(String.format(Locale.ROOT, "%d elements in %.1f s: %.1f elements/s, %d DOIs registered", elements,
+                    duration / 1e9, elements / (duration / 1e9), mds.getRegisteredCount()));
+            System.out.println(String.format(Locale.ROOT, "%d requests: %.2f per element, responses %s, %d connections closed without response",
+                    mds.getRequestCount(), (double) mds.getRequestCount() / elements, mds.getStatusCodes(), mds.getResetCount()));
+            System.out.println(String.format(Locale.ROOT, "step latency: p50 %d ms, p99 %d ms, max %d ms", toMillis(percentile(latencies, 50)),
+                    toMillis(percentile(latencies, 99)), toMillis(latencies.get(latencies.size() - 1))));
+            System.out.println(failedSteps + " steps failed, " + journalErrors.get() + " errors in the journals");
+            exitCode = failedSteps > 0 ? 1 : 0;
+        } finally {
+            HttpClientPool.closeAll();
+            FileUtils.deleteQuietly(folder.toFile());
+        }
+        // the verification and outbox executors of the plugin do not stop by themselves
+        System.exit(exitCode);
+    }
+
+    /**
+     * register the DOIs of a synthetic process
+     *
+     * @return duration of the step in nanoseconds, negative if the step failed
+     */
+    private static long runStep(int processId, int subElements, Prefs prefs, Path folder, StepConfigurationCache.StepConfiguration stepConfiguration,
+            DoiRegistration.ProcessJournal journal) throws Exception {
+        Path processFolder = Files.createDirectories(folder.resolve(String.valueOf(processId)));
+        SyntheticProcess process =
+                new SyntheticProcess(processId, prefs, SyntheticDocuments.create(prefs, subElements, "loadtest_" + processId), processFolder);
+        DoiRegistration registration = new DoiRegistration(process, stepConfiguration);
+        registration.setJournal(journal);
+        long start = System.nanoTime();
+        boolean successful = registration.register(null);
+        long nanos = System.nanoTime() - start;
+        return successful ? nanos : -nanos;
+    }
+
+    /**
+     * read the configuration and point it to the mock. Goobi specific parts are switched off: the debug files and the xsl transformation need
+     * the Goobi folders, the verification reports to the database.
+     */
+    private static SubnodeConfiguration createConfig(Map<String, String> options, String address) throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration(options.getOrDefault("config", "install/plugin_intranda_step_doi.xml"));
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        SubnodeConfiguration config = xmlConfig.configurationAt("config[1]");
+        config.setProperty("serviceAddress", address);
+        config.setProperty("api", "mds");
+        config.setProperty("debugMode", "false");
+        config.setProperty("draft", "false");
+        config.setProperty("mapping/@mode", "native");
+        config.setProperty("verification/sampleRate", "0");
+        if (config.getList("structureType").isEmpty()) {
+            // the sub elements are commented out in the shipped configuration
+            config.addProperty(" structureType", SyntheticDocuments.ARTICLE);
+        }
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(CONFIG_PREFIX)) {
+                String key = option.getKey().substring(CONFIG_PREFIX.length());
+                if (!config.containsKey(key)) {
+                    throw new IllegalArgumentException("The configuration does not contain " + key);
+                }
+                config.setProperty(key, option.getValue());
+            }
+        }
+        return config;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Compares the heap that stays in use while the METS file of a synthetic monograph is held as UGH document and as {@link MetsOutline}. The
+ * numbers of sub elements are given as arguments (1000, 10000 and 50000 by default). The heap is measured after a full garbage collection, so
+ * the numbers are only approximate.
+ */
+public class MetsHeapComparison {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private MetsHeapComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = args.length > 0 ? args : new String[] { "1000", "10000", "50000" };
+        Prefs prefs = SyntheticDocuments.loadPrefs();
+        Path folder = Files.createTempDirectory("mets_heap");
+        try {
+            System.out.println("sub elements | file size (MB) | UGH document (MB) | outline (MB)");
+            for (String size : sizes) {
+                int subElements = Integer.parseInt(size);
+                Path file = folder.resolve("meta_" + subElements + ".xml");
+                SyntheticDocuments.writeMets(prefs, subElements, file);
+
+                long before = usedHeap();
+                MetsMods document = new MetsMods(prefs);
+                document.read(file.toString());
+                long ugh = usedHeap() - before;
+                keep(document);
+                document = null;
+
+                before = usedHeap();
+                MetsOutline outline = MetsOutline.read(file, Arrays.asList("DOI", "CatalogIDDigital", "TitleDocMain"));
+                long streaming = usedHeap() - before;
+                keep(outline);
+
+                System.out.println(String.format(Locale.ENGLISH, "%12d | %14.1f | %17.1f | %12.1f", subElements, megabytes(Files.size(file)),
+                        megabytes(ugh), megabytes(streaming)));
+            }
+        } finally {
+            FileUtils.deleteDirectory(folder.toFile());
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void keep(Object object) {
+        // the object must be reachable until the heap was measured
+        if (object.hashCode() == System.nanoTime()) {
+            System.out.println(object);
+        }
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / 1024.0 / 1024.0;
+    }
+}
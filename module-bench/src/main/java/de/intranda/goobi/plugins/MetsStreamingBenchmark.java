@@ -0,0 +1,117 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Compares reading the METS file and writing the DOIs back with UGH and with the streaming classes {@link MetsOutline} and {@link MetsDoiWriter}.
+ * The METS file of a synthetic monograph is written once per trial, the number of its sub elements is a parameter. Each write starts with a fresh
+ * copy of this file and adds a DOI to every article.
+ *
+ * The allocated memory per operation is reported with the gc profiler of JMH (<code>-prof gc</code>), the memory the documents keep is compared
+ * by {@link MetsHeapComparison}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetsStreamingBenchmark {
+
+    private static final List<String> METADATA = Arrays.asList("DOI", "CatalogIDDigital", "TitleDocMain");
+
+    @Param({ "1000", "10000" })
+    public int subElements;
+
+    private Path folder;
+    private Path original;
+    private Path file;
+    private Prefs prefs;
+    // document of the file with the DOIs of the articles, as the plugin holds it at the end of a run
+    private MetsMods document;
+    private List<MetsDoiWriter.Insertion> insertions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("mets_streaming");
+        original = folder.resolve("original.xml");
+        file = folder.resolve("meta.xml");
+        prefs = SyntheticDocuments.loadPrefs();
+        SyntheticDocuments.writeMets(prefs, subElements, original);
+
+        document = new MetsMods(prefs);
+        document.read(original.toString());
+        DigitalDocument dd = document.getDigitalDocument();
+        insertions = new ArrayList<>();
+        int ordinal = 0;
+        for (DocStruct struct : dd.getLogicalDocStruct().getAllChildren()) {
+            ordinal++;
+            if (SyntheticDocuments.ARTICLE.equals(struct.getType().getName())) {
+                String doi = "10.33510/go-bench-" + ordinal;
+                Metadata md = new Metadata(prefs.getMetadataTypeByName("DOI"));
+                md.setValue(doi);
+                struct.addMetadata(md);
+                insertions.add(new MetsDoiWriter.Insertion(struct.getIdentifier(), struct.getType().getName(), doi));
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyFile() throws Exception {
+        Files.copy(original, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Benchmark
+    public DigitalDocument ughRead() throws Exception {
+        MetsMods mets = new MetsMods(prefs);
+        mets.read(file.toString());
+        return mets.getDigitalDocument();
+    }
+
+    @Benchmark
+    public MetsOutline streamingRead() throws Exception {
+        return MetsOutline.read(file, METADATA);
+    }
+
+    @Benchmark
+    public boolean ughWrite() throws Exception {
+        return document.write(file.toString());
+    }
+
+    @Benchmark
+    public int streamingWrite() throws Exception {
+        return MetsDoiWriter.insert(file, "DOI", insertions);
+    }
+}
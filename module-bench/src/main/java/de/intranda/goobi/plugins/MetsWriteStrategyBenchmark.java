@@ -0,0 +1,74 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Compares the strategies of the {@link DeferredMetsWriter} for the METS write-back of the new DOIs of a run: a write after each DOI, a write at
+ * each checkpoint and a single write at the end of the run. Each write saves the UGH document of a synthetic monograph with the given number of
+ * sub elements, as the plugin does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetsWriteStrategyBenchmark {
+
+    @Param({ "300" })
+    public int subElements;
+
+    // 1: after each DOI, 0: only at the end of the run
+    @Param({ "1", "50", "0" })
+    public int checkpointInterval;
+
+    private Path folder;
+    private Path file;
+    private MetsMods document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("mets_write");
+        file = folder.resolve("meta.xml");
+        Prefs prefs = SyntheticDocuments.loadPrefs();
+        document = new MetsMods(prefs);
+        document.setDigitalDocument(SyntheticDocuments.create(prefs, subElements));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Benchmark
+    public int writeBack() throws Exception {
+        DeferredMetsWriter writer = new DeferredMetsWriter(() -> document.write(file.toString()), checkpointInterval);
+        // one change for the DOI of each sub element
+        for (int i = 0; i < subElements; i++) {
+            writer.change(() -> {
+            });
+        }
+        writer.flush();
+        return writer.getWriteCount();
+    }
+}
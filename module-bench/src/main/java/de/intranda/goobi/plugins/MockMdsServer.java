@@ -0,0 +1,177 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * In-process mock of the DataCite Metadata Store with the endpoints <code>metadata/{doi}</code> and <code>doi/{doi}</code>. Each request is
+ * answered after the configured latency. A part of the requests fails: the connection is closed without a response, DataCite asks to slow down
+ * with 429 and a Retry-After header, or answers with 500.
+ */
+public class MockMdsServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // registered metadata and urls by DOI
+    private final Map<String, String> metadata = new ConcurrentHashMap<>();
+    private final Map<String, String> urls = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+
+    @Getter
+    @Setter
+    private volatile long latencyMillis;
+    // part of the requests (0.0 - 1.0) that are answered with 500
+    @Getter
+    @Setter
+    private volatile double errorRate;
+    // part of the requests that are answered with 429
+    @Getter
+    @Setter
+    private volatile double throttleRate;
+    @Getter
+    @Setter
+    private volatile int retryAfterSeconds = 1;
+    // part of the requests whose connection is closed without a response
+    @Getter
+    @Setter
+    private volatile double resetRate;
+
+    /**
+     * start the server on a free port of localhost
+     *
+     * @param threads number of requests that are answered at the same time
+     * @throws IOException
+     */
+    public MockMdsServer(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * get the address to use as <code>serviceAddress</code>
+     *
+     * @return
+     */
+    public String getAddress() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getResetCount() {
+        return resets.sum();
+    }
+
+    public int getRegisteredCount() {
+        return urls.size();
+    }
+
+    /**
+     * get the number of responses by status code
+     *
+     * @return
+     */
+    public Map<Integer, Long> getStatusCodes() {
+        Map<Integer, Long> result = new TreeMap<>();
+        statusCodes.forEach((status, count) -> result.put(status, count.sum()));
+        return result;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body = new String(IOUtils.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double random = ThreadLocalRandom.current().nextDouble();
+        if (random < resetRate) {
+            // closing the exchange before the headers are sent closes the connection
+            resets.increment();
+            exchange.close();
+            return;
+        }
+        if (random < resetRate + throttleRate) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            respond(exchange, 429, "Too many requests");
+            return;
+        }
+        if (random < resetRate + throttleRate + errorRate) {
+            respond(exchange, 500, "Internal server error");
+            return;
+        }
+
+        if (path.startsWith("/metadata/")) {
+            String doi = path.substring("/metadata/".length());
+            if ("GET".equals(method)) {
+                String xml = metadata.get(doi);
+                respond(exchange, xml != null ? 200 : 404, xml != null ? xml : "DOI not found");
+            } else {
+                metadata.put(doi, body);
+                respond(exchange, 201, "OK (" + doi + ")");
+            }
+        } else if (path.startsWith("/doi/")) {
+            String doi = path.substring("/doi/".length());
+            if ("GET".equals(method)) {
+                String url = urls.get(doi);
+                respond(exchange, url != null ? 200 : 404, url != null ? url : "DOI not found");
+            } else if (!metadata.containsKey(doi)) {
+                // like DataCite: a url can only be set after the metadata
+                respond(exchange, 412, "Can't be minted. Please register metadata first!");
+            } else {
+                urls.put(doi, StringUtils.substringAfter(body, "url="));
+                respond(exchange, 201, "OK");
+            }
+        } else {
+            respond(exchange, 404, "Not found");
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String text) throws IOException {
+        statusCodes.computeIfAbsent(status, k -> new LongAdder()).increment();
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,141 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Metadata;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Creates the documents of the benchmarks: a monograph with the metadata used by the shipped configuration and a configurable number of sub
+ * elements. Every fifth sub element is a chapter, all others are articles. Each sub element has a title, an author and two pages.
+ */
+public class SyntheticDocuments {
+
+    public static final String ARTICLE = "Article";
+    public static final String CHAPTER = "Chapter";
+
+    private static final int PAGES_PER_ELEMENT = 2;
+
+    private SyntheticDocuments() {
+    }
+
+    /**
+     * load the ruleset of the synthetic documents
+     *
+     * @return
+     * @throws IOException
+     * @throws PreferencesException
+     */
+    public static Prefs loadPrefs() throws IOException, PreferencesException {
+        // UGH only reads rulesets from files
+        Path file = Files.createTempFile("bench_ruleset", ".xml");
+        try (InputStream in = SyntheticDocuments.class.getResourceAsStream("/bench_ruleset.xml")) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            Prefs prefs = new Prefs();
+            prefs.loadPrefs(file.toString());
+            return prefs;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * create a document with the given number of sub elements
+     *
+     * @param prefs
+     * @param subElements
+     * @return
+     * @throws UGHException
+     */
+    public static DigitalDocument create(Prefs prefs, int subElements) throws UGHException {
+        return create(prefs, subElements, "bench_" + subElements);
+    }
+
+    /**
+     * create a document with the given number of sub elements and catalogue identifier, the identifier is part of the DOIs of its elements
+     *
+     * @param prefs
+     * @param subElements
+     * @param identifier
+     * @return
+     * @throws UGHException
+     */
+    public static DigitalDocument create(Prefs prefs, int subElements, String identifier) throws UGHException {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct top = dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        dd.setLogicalDocStruct(top);
+        DocStruct boundBook = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        dd.setPhysicalDocStruct(boundBook);
+
+        addMetadata(prefs, top, "TitleDocMain", "Synthetic monograph with " + subElements + " sub elements");
+        addMetadata(prefs, top, "TitleDocSub1", "Benchmark of the DOI registration");
+        addMetadata(prefs, top, "CatalogIDDigital", identifier);
+        addMetadata(prefs, top, "PublicationYear", "2024");
+        addMetadata(prefs, top, "PublisherName", "intranda GmbH");
+        addMetadata(prefs, top, "PublicationSeries", "Goobi benchmarks");
+        addMetadata(prefs, top, "DocLanguage", "ger");
+        addMetadata(prefs, top, "FormatSourcePrint", "Print");
+        addMetadata(prefs, top, "SubjectTopic", "Performance");
+        addMetadata(prefs, top, "SubjectTopic", "Digital libraries");
+        addPerson(prefs, top, "Doe", "Jane");
+
+        DocStructType articleType = prefs.getDocStrctTypeByName(ARTICLE);
+        DocStructType chapterType = prefs.getDocStrctTypeByName(CHAPTER);
+        DocStructType pageType = prefs.getDocStrctTypeByName("page");
+        int pageNumber = 0;
+        for (int i = 1; i <= subElements; i++) {
+            DocStruct element = dd.createDocStruct(i % 5 == 0 ? chapterType : articleType);
+            addMetadata(prefs, element, "TitleDocMain", "Sub element " + i + " of the synthetic monograph");
+            addPerson(prefs, element, "Author " + i, "Given");
+            top.addChild(element);
+            for (int j = 0; j < PAGES_PER_ELEMENT; j++) {
+                pageNumber++;
+                DocStruct page = dd.createDocStruct(pageType);
+                addMetadata(prefs, page, "physPageNumber", String.valueOf(pageNumber));
+                addMetadata(prefs, page, "logicalPageNumber", String.valueOf(pageNumber));
+                boundBook.addChild(page);
+                element.addReferenceTo(page, "logical_physical");
+            }
+        }
+        return dd;
+    }
+
+    /**
+     * write a document with the given number of sub elements as METS file in the internal format of Goobi
+     *
+     * @param prefs
+     * @param subElements
+     * @param file
+     * @throws UGHException
+     */
+    public static void writeMets(Prefs prefs, int subElements, Path file) throws UGHException {
+        MetsMods mets = new MetsMods(prefs);
+        mets.setDigitalDocument(create(prefs, subElements));
+        mets.write(file.toString());
+    }
+
+    private static void addMetadata(Prefs prefs, DocStruct struct, String type, String value) throws UGHException {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        struct.addMetadata(md);
+    }
+
+    private static void addPerson(Prefs prefs, DocStruct struct, String lastname, String firstname) throws UGHException {
+        Person person = new Person(prefs.getMetadataTypeByName("Author"));
+        person.setLastname(lastname);
+        person.setFirstname(firstname);
+        person.setRole("Author");
+        struct.addPerson(person);
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Ruleset;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Process of the load test that keeps its METS file in memory. Its data directory is a folder of the file system, so that the fingerprints and
+ * checkpoints are written as in Goobi.
+ */
+public class SyntheticProcess extends Process {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int processId;
+    private final transient Fileformat fileformat;
+    private final transient Ruleset ruleset;
+    private final transient Path folder;
+    private final AtomicInteger metsWrites = new AtomicInteger();
+
+    public SyntheticProcess(int processId, Prefs prefs, DigitalDocument dd, Path folder) throws PreferencesException {
+        this.processId = processId;
+        this.fileformat = new MetsMods(prefs);
+        this.fileformat.setDigitalDocument(dd);
+        this.ruleset = new Ruleset() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Prefs getPreferences() {
+                return prefs;
+            }
+        };
+        this.folder = folder;
+    }
+
+    @Override
+    public Integer getId() {
+        return processId;
+    }
+
+    @Override
+    public String getTitel() {
+        return "loadtest_" + processId;
+    }
+
+    @Override
+    public Fileformat readMetadataFile() {
+        return fileformat;
+    }
+
+    @Override
+    public boolean writeMetadataFile(Fileformat gdzfile) {
+        metsWrites.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public Ruleset getRegelsatz() {
+        return ruleset;
+    }
+
+    @Override
+    public String getProcessDataDirectory() {
+        return folder.toString();
+    }
+
+    public int getMetsWrites() {
+        return metsWrites.get();
+    }
+}